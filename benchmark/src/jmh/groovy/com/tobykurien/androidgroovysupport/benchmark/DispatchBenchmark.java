@@ -0,0 +1,98 @@
+package com.tobykurien.androidgroovysupport.benchmark;
+
+import com.tobykurien.androidgroovysupport.utils.FanOut;
+import com.tobykurien.androidgroovysupport.utils.MainThread;
+import com.tobykurien.androidgroovysupport.utils.PriorityExecutor;
+import com.tobykurien.androidgroovysupport.utils.SingleFlight;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import groovy.lang.Closure;
+
+/**
+ * Measures the overhead of dispatching background work the way Async does: a round
+ * trip through the PriorityExecutor lanes (compared to a plain thread pool), fan-out
+ * with Async.all(), and keyed single-flight tasks. Async itself extends AsyncTask,
+ * which needs an Android Looper, so the executors it runs on are measured instead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DispatchBenchmark {
+    private static final Callable<Object> WORK = new Callable<Object>() {
+        @Override
+        public Object call() {
+            return 1;
+        }
+    };
+
+    private static final Closure<Object> CLOSURE = new Closure<Object>(DispatchBenchmark.class) {
+        @Override
+        public Object call() {
+            return 1;
+        }
+    };
+
+    private PriorityExecutor priorityExecutor;
+    private ExecutorService threadPool;
+    private List<Closure> closures;
+
+    @Setup
+    public void setUp() {
+        MainThread.set(new MainThread.Inline());
+        int threads = Runtime.getRuntime().availableProcessors() + 1;
+        priorityExecutor = new PriorityExecutor("benchmark", threads, 128, PriorityExecutor.Backpressure.REJECT);
+        threadPool = Executors.newFixedThreadPool(threads);
+        closures = Arrays.<Closure>asList(CLOSURE, CLOSURE, CLOSURE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        priorityExecutor.shutdown();
+        threadPool.shutdown();
+    }
+
+    @Benchmark
+    public Object threadPoolRoundTrip() throws Exception {
+        return threadPool.submit(WORK).get();
+    }
+
+    @Benchmark
+    public Object priorityExecutorRoundTrip() throws Exception {
+        FutureTask<Object> task = new FutureTask<Object>(WORK);
+        priorityExecutor.execute(task);
+        return task.get();
+    }
+
+    @Benchmark
+    public Object priorityExecutorUiLane() throws Exception {
+        FutureTask<Object> task = new FutureTask<Object>(WORK);
+        priorityExecutor.execute(PriorityExecutor.Lane.UI, task);
+        return task.get();
+    }
+
+    @Benchmark
+    public Object fanOutAll() {
+        return FanOut.run(priorityExecutor, closures, FanOut.Mode.ALL);
+    }
+
+    @Benchmark
+    public Object singleFlight() throws Exception {
+        return SingleFlight.await("benchmark", 0, WORK);
+    }
+}
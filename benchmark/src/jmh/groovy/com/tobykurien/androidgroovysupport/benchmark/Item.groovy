@@ -0,0 +1,11 @@
+package com.tobykurien.androidgroovysupport.benchmark
+
+import com.tobykurien.androidgroovysupport.annotations.DbBean
+
+@DbBean
+class Item {
+    long id
+    String name
+    String url
+    long count
+}
@@ -0,0 +1,164 @@
+package com.tobykurien.androidgroovysupport.benchmark;
+
+import asia.sonix.android.orm.BeanPool;
+import asia.sonix.android.orm.CursorList;
+import asia.sonix.android.orm.CursorRow;
+import com.tobykurien.androidgroovysupport.db.DbService;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the ORM on an in-memory SQLite database: mapping query results to beans
+ * (generated by @DbBean and by reflection), binding #name# parameters, findByFields()
+ * and inserts. The cursorList benchmarks bind every row of a CursorList the way a list
+ * adapter would: into new beans, into pooled beans, and through the flyweight row.
+ * Each bean is passed to a Blackhole, as an adapter hands it to a view, so that the
+ * JIT can't skip allocating it.
+ * The count benchmarks compare countByFields() with loading the rows to count them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OrmBenchmark {
+    private static final int ROWS = 1000;
+    private static final int BATCH = 100;
+
+    private JdbcSqlBackend backend;
+    private DbService db;
+
+    private final Map<String, Object> byIdAndName = new HashMap<String, Object>();
+    private final Map<String, Object> byName = new HashMap<String, Object>();
+    private final Map<String, Object> byCount = new HashMap<String, Object>();
+    private final Map<String, Object> newRow = new HashMap<String, Object>();
+    private final List<Map<String, Object>> batch = new ArrayList<Map<String, Object>>();
+
+    private CursorList<Item> cursorList;
+    private BeanPool<Item> pool;
+
+    @Setup
+    public void setUp() {
+        backend = new JdbcSqlBackend("jdbc:sqlite::memory:");
+        backend.execSQL("create table items (id integer primary key, name text, url text, count integer)");
+        backend.execSQL("create table inserts (id integer primary key, name text, url text, count integer)");
+        db = new BenchmarkDb(backend);
+
+        List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            rows.add(row(i));
+        }
+        db.insertAll("items", rows);
+
+        byIdAndName.put("id", ROWS / 2);
+        byIdAndName.put("name", "Item " + (ROWS / 2 - 1));
+        byName.put("name", "Item 10");
+        byCount.put("count <", ROWS / 2);
+        newRow.putAll(row(0));
+        for (int i = 0; i < BATCH; i++) {
+            batch.add(row(i));
+        }
+
+        cursorList = db.cursorFindAll("items", "id", Item.class);
+        pool = new BeanPool<Item>(Item.class, 16);
+    }
+
+    private static Map<String, Object> row(int i) {
+        Map<String, Object> row = new HashMap<String, Object>();
+        row.put("name", "Item " + i);
+        row.put("url", "https://example.com/" + i);
+        row.put("count", i);
+        return row;
+    }
+
+    @Setup(Level.Iteration)
+    public void clearInserts() {
+        db.delete("inserts");
+    }
+
+    @TearDown
+    public void tearDown() {
+        cursorList.close();
+        backend.close();
+    }
+
+    @Benchmark
+    public List<Item> beanListGenerated() {
+        return db.<Item>executeForBeanList("select * from items", null, Item.class);
+    }
+
+    @Benchmark
+    public List<ReflectiveItem> beanListReflective() {
+        return db.<ReflectiveItem>executeForBeanList("select * from items", null, ReflectiveItem.class);
+    }
+
+    @Benchmark
+    public Map<String, Object> paramBinding() {
+        return db.executeForMap("select * from items where id = #id# and name = #name#", byIdAndName);
+    }
+
+    @Benchmark
+    public List<Item> findByFields() {
+        return db.<Item>findByFields("items", byName, "id", Item.class);
+    }
+
+    @Benchmark
+    public int countByLoading() {
+        return db.<Item>findByFields("items", byCount, null, Item.class).size();
+    }
+
+    @Benchmark
+    public long countByFields() {
+        return db.countByFields("items", byCount);
+    }
+
+    @Benchmark
+    public Object insert() {
+        return db.insert("inserts", newRow);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<Long> insertAll() {
+        return db.insertAll("inserts", batch);
+    }
+
+    @Benchmark
+    public void cursorListNewBeans(Blackhole blackhole) {
+        for (int i = 0; i < cursorList.size(); i++) {
+            blackhole.consume(cursorList.get(i));
+        }
+    }
+
+    @Benchmark
+    public void cursorListPooledBeans(Blackhole blackhole) {
+        for (int i = 0; i < cursorList.size(); i++) {
+            Item item = cursorList.get(i, pool.acquire());
+            blackhole.consume(item);
+            pool.release(item);
+        }
+    }
+
+    @Benchmark
+    public long cursorListFlyweight() {
+        long sum = 0;
+        for (int i = 0; i < cursorList.size(); i++) {
+            CursorRow row = cursorList.row(i);
+            sum += row.getLong("count");
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,101 @@
+package com.tobykurien.androidgroovysupport.benchmark;
+
+import com.tobykurien.androidgroovysupport.db.DbService;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures queries from several threads on a file database, with a single connection
+ * (readers = 0) and with write-ahead logging and a pool of read-only connections, as
+ * used by an SQLiteDatabase with write-ahead logging enabled. The readWhileWriting
+ * group runs queries while another thread writes in transactions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParallelReadBenchmark {
+    private static final int ROWS = 1000;
+
+    @Param({ "0", "4" })
+    public int readers;
+
+    private File file;
+    private JdbcSqlBackend backend;
+    private DbService db;
+
+    private final Map<String, Object> range = new HashMap<String, Object>();
+    private final List<Map<String, Object>> batch = new ArrayList<Map<String, Object>>();
+
+    @Setup
+    public void setUp() throws IOException {
+        file = File.createTempFile("parallel", ".db");
+        backend = new JdbcSqlBackend("jdbc:sqlite:" + file.getPath(), readers);
+        backend.execSQL("create table items (id integer primary key, name text, url text, count integer)");
+        db = new BenchmarkDb(backend);
+
+        List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            Map<String, Object> row = new HashMap<String, Object>();
+            row.put("name", "Item " + i);
+            row.put("url", "https://example.com/" + i);
+            row.put("count", i);
+            rows.add(row);
+        }
+        db.insertAll("items", rows);
+        batch.addAll(rows.subList(0, 10));
+
+        range.put("from", ROWS / 4);
+        range.put("to", ROWS / 4 + 50);
+    }
+
+    @TearDown
+    public void tearDown() {
+        backend.close();
+        for (String suffix : new String[] { "", "-wal", "-shm" }) {
+            new File(file.getPath() + suffix).delete();
+        }
+    }
+
+    private List<Item> read() {
+        return db.<Item>executeForBeanList("select * from items where count between #from# and #to#", range, Item.class);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public List<Item> parallelReads() {
+        return read();
+    }
+
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(3)
+    public List<Item> reader() {
+        return read();
+    }
+
+    @Benchmark
+    @Group("readWhileWriting")
+    @GroupThreads(1)
+    public List<Long> writer() {
+        return db.insertAll("items", batch);
+    }
+}
@@ -0,0 +1,20 @@
+package com.tobykurien.androidgroovysupport.benchmark;
+
+/**
+ * The same bean as Item, without @DbBean
+ */
+public class ReflectiveItem {
+    private long id;
+    private String name;
+    private String url;
+    private long count;
+
+    public long getId() { return id; }
+    public void setId(long id) { this.id = id; }
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+    public String getUrl() { return url; }
+    public void setUrl(String url) { this.url = url; }
+    public long getCount() { return count; }
+    public void setCount(long count) { this.count = count; }
+}
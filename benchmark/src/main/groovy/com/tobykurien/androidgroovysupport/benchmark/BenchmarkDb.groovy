@@ -0,0 +1,15 @@
+package com.tobykurien.androidgroovysupport.benchmark
+
+import asia.sonix.android.orm.SqlBackend
+import com.tobykurien.androidgroovysupport.db.DbService
+import groovy.transform.CompileStatic
+
+/**
+ * A DbService on a database opened outside of Android, e.g. with JdbcSqlBackend
+ */
+@CompileStatic
+class BenchmarkDb extends DbService {
+    BenchmarkDb(SqlBackend backend) {
+        super(backend)
+    }
+}
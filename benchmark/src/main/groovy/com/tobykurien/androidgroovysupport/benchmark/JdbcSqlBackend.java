@@ -0,0 +1,421 @@
+package com.tobykurien.androidgroovysupport.benchmark;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDoneException;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+import asia.sonix.android.orm.SqlBackend;
+
+/**
+ * A {@link SqlBackend} for SQLite through JDBC (sqlite-jdbc), to run the ORM on a
+ * plain JVM. Like an Android SQLiteDatabase, it has a single connection: calls are
+ * serialized, and a transaction holds the connection for its thread until it ends.
+ * Prepared statements are cached, like the compiled statements of AndroidSqlBackend.
+ *
+ * <p>
+ * Like an SQLiteDatabase with write-ahead logging, a file database can also be given
+ * a pool of read-only connections: queries made outside a transaction then run on
+ * those, in parallel with each other and with the writer.
+ * </p>
+ *
+ * <pre>
+ * SqlBackend backend = new JdbcSqlBackend("jdbc:sqlite::memory:");
+ * SqlBackend pooled = new JdbcSqlBackend("jdbc:sqlite:/tmp/test.db", 4);
+ * </pre>
+ */
+public class JdbcSqlBackend implements SqlBackend {
+    private static final int STATEMENT_CACHE_SIZE = 25;
+
+    private final Connection connection;
+
+    // read-only connections for queries outside a transaction, or null
+    private final BlockingQueue<Reader> readers;
+
+    // held for the duration of each call, and from the start to the end of a transaction
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // whether each level of the transaction in progress has been marked successful
+    private final List<Boolean> transactionLevels = new ArrayList<Boolean>();
+    private boolean transactionFailed = false;
+
+    private final Map<String, PreparedStatement> statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= STATEMENT_CACHE_SIZE) return false;
+            closeQuietly(eldest.getValue());
+            return true;
+        }
+    };
+
+    public JdbcSqlBackend(String url) {
+        this(url, 0);
+    }
+
+    /**
+     * @param readers - the number of read-only connections to open, which turns on
+     *                write-ahead logging. Must be 0 for an in-memory database.
+     */
+    public JdbcSqlBackend(String url, int readers) {
+        try {
+            this.connection = DriverManager.getConnection(url);
+            if (readers > 0) {
+                this.readers = new ArrayBlockingQueue<Reader>(readers);
+                execSQL("pragma journal_mode = wal");
+                for (int i = 0; i < readers; i++) {
+                    Connection reader = DriverManager.getConnection(url);
+                    Statement statement = reader.createStatement();
+                    try {
+                        statement.execute("pragma query_only = 1");
+                    } finally {
+                        statement.close();
+                    }
+                    this.readers.add(new Reader(reader));
+                }
+            } else {
+                this.readers = null;
+            }
+        } catch (SQLException e) {
+            throw new android.database.SQLException("Could not open " + url, e);
+        }
+    }
+
+    public JdbcSqlBackend(Connection connection) {
+        this.connection = connection;
+        this.readers = null;
+    }
+
+    /**
+     * A read-only connection, with its own prepared statements
+     */
+    private static class Reader {
+        final Connection connection;
+
+        final Map<String, PreparedStatement> statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= STATEMENT_CACHE_SIZE) return false;
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+
+        Reader(Connection connection) {
+            this.connection = connection;
+        }
+
+        Cursor query(String sql, Object[] args) throws SQLException {
+            PreparedStatement statement = statements.get(sql);
+            if (statement == null) {
+                statement = connection.prepareStatement(sql);
+                statements.put(sql, statement);
+            }
+            statement.clearParameters();
+            if (args != null) bind(statement, args);
+            ResultSet resultSet = statement.executeQuery();
+            try {
+                return new JdbcCursor(resultSet);
+            } finally {
+                resultSet.close();
+            }
+        }
+
+        void close() throws SQLException {
+            for (PreparedStatement statement : statements.values()) closeQuietly(statement);
+            statements.clear();
+            connection.close();
+        }
+    }
+
+    private PreparedStatement prepare(String sql, Object[] args) throws SQLException {
+        PreparedStatement statement = statements.get(sql);
+        if (statement == null) {
+            statement = connection.prepareStatement(sql);
+            statements.put(sql, statement);
+        }
+        statement.clearParameters();
+        if (args != null) bind(statement, args);
+        return statement;
+    }
+
+    /**
+     * Bind the arguments with the same conversions as SqlTemplate.bind()
+     */
+    private static void bind(PreparedStatement statement, Object[] args) throws SQLException {
+        for (int i = 0; i < args.length; i++) {
+            Object value = args[i];
+            int index = i + 1;
+            if (value == null) {
+                statement.setObject(index, null);
+            } else if (value instanceof Integer || value instanceof Long
+                    || value instanceof Short || value instanceof Byte) {
+                statement.setLong(index, ((Number) value).longValue());
+            } else if (value instanceof Float || value instanceof Double) {
+                statement.setDouble(index, ((Number) value).doubleValue());
+            } else if (value instanceof Boolean) {
+                statement.setString(index, (Boolean) value ? "true" : "false");
+            } else if (value instanceof Date) {
+                statement.setLong(index, ((Date) value).getTime());
+            } else if (value instanceof byte[]) {
+                statement.setBytes(index, (byte[]) value);
+            } else {
+                statement.setString(index, String.valueOf(value));
+            }
+        }
+    }
+
+    private static android.database.SQLException error(String sql, SQLException e) {
+        return new android.database.SQLException(e.getMessage() + ", while running: " + sql, e);
+    }
+
+    private static void closeQuietly(Statement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    @Override
+    public Cursor query(String sql, Object[] args) {
+        // inside a transaction, the query must see the transaction's changes
+        if (readers != null && !lock.isHeldByCurrentThread()) {
+            Reader reader = null;
+            try {
+                reader = readers.take();
+                return reader.query(sql, args);
+            } catch (SQLException e) {
+                throw error(sql, e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new android.database.SQLException("Interrupted while waiting for a connection: " + sql, e);
+            } finally {
+                if (reader != null) readers.add(reader);
+            }
+        }
+
+        lock.lock();
+        try {
+            ResultSet resultSet = prepare(sql, args).executeQuery();
+            try {
+                return new JdbcCursor(resultSet);
+            } finally {
+                resultSet.close();
+            }
+        } catch (SQLException e) {
+            throw error(sql, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long simpleQueryForLong(String sql, Object[] args) {
+        Cursor cursor = query(sql, args);
+        try {
+            if (!cursor.moveToFirst()) throw new SQLiteDoneException();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public String simpleQueryForString(String sql, Object[] args) {
+        Cursor cursor = query(sql, args);
+        try {
+            if (!cursor.moveToFirst()) throw new SQLiteDoneException();
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public long executeInsert(String sql, Object[] args) {
+        lock.lock();
+        try {
+            if (prepare(sql, args).executeUpdate() == 0) return -1;
+            ResultSet resultSet = prepare("select last_insert_rowid()", null).executeQuery();
+            try {
+                return resultSet.next() ? resultSet.getLong(1) : -1;
+            } finally {
+                resultSet.close();
+            }
+        } catch (SQLException e) {
+            throw error(sql, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int executeUpdateDelete(String sql, Object[] args) {
+        lock.lock();
+        try {
+            return prepare(sql, args).executeUpdate();
+        } catch (SQLException e) {
+            throw error(sql, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void execSQL(String sql) {
+        lock.lock();
+        try {
+            Statement statement = connection.createStatement();
+            try {
+                statement.execute(sql);
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            throw error(sql, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long insert(String table, ContentValues values) {
+        List<String> columns = new ArrayList<String>();
+        List<Object> args = new ArrayList<Object>();
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            columns.add(entry.getKey());
+            args.add(entry.getValue());
+        }
+
+        StringBuilder sql = new StringBuilder("insert into ").append(table);
+        if (columns.isEmpty()) {
+            sql.append(" default values");
+        } else {
+            sql.append(" (").append(join(columns, ",")).append(") values (");
+            for (int i = 0; i < columns.size(); i++) sql.append(i == 0 ? "?" : ",?");
+            sql.append(")");
+        }
+
+        try {
+            return executeInsert(sql.toString(), args.toArray());
+        } catch (android.database.SQLException e) {
+            // like SQLiteDatabase.insert()
+            return -1;
+        }
+    }
+
+    @Override
+    public int update(String table, ContentValues values, String whereClause, String[] whereArgs) {
+        List<String> columns = new ArrayList<String>();
+        List<Object> args = new ArrayList<Object>();
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            columns.add(entry.getKey() + " = ?");
+            args.add(entry.getValue());
+        }
+        if (whereArgs != null) {
+            for (String arg : whereArgs) args.add(arg);
+        }
+
+        String sql = "update " + table + " set " + join(columns, ",") +
+                (whereClause == null ? "" : " where " + whereClause);
+        return executeUpdateDelete(sql, args.toArray());
+    }
+
+    @Override
+    public int delete(String table, String whereClause, String[] whereArgs) {
+        String sql = "delete from " + table + (whereClause == null ? "" : " where " + whereClause);
+        return executeUpdateDelete(sql, whereArgs == null ? new Object[0] : whereArgs);
+    }
+
+    private static String join(List<String> values, String separator) {
+        StringBuilder result = new StringBuilder();
+        for (String value : values) {
+            if (result.length() > 0) result.append(separator);
+            result.append(value);
+        }
+        return result.toString();
+    }
+
+    @Override
+    public void beginTransaction() {
+        lock.lock();
+        try {
+            if (transactionLevels.isEmpty()) {
+                connection.setAutoCommit(false);
+                transactionFailed = false;
+            }
+            transactionLevels.add(false);
+        } catch (SQLException e) {
+            lock.unlock();
+            throw error("begin transaction", e);
+        }
+    }
+
+    @Override
+    public void setTransactionSuccessful() {
+        if (!lock.isHeldByCurrentThread() || transactionLevels.isEmpty()) {
+            throw new IllegalStateException("no transaction pending");
+        }
+        transactionLevels.set(transactionLevels.size() - 1, true);
+    }
+
+    @Override
+    public void endTransaction() {
+        if (!lock.isHeldByCurrentThread() || transactionLevels.isEmpty()) {
+            throw new IllegalStateException("no transaction pending");
+        }
+        try {
+            if (!transactionLevels.remove(transactionLevels.size() - 1)) transactionFailed = true;
+            if (transactionLevels.isEmpty()) {
+                try {
+                    if (transactionFailed) {
+                        connection.rollback();
+                    } else {
+                        connection.commit();
+                    }
+                } finally {
+                    connection.setAutoCommit(true);
+                }
+            }
+        } catch (SQLException e) {
+            throw error("end transaction", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            for (PreparedStatement statement : statements.values()) closeQuietly(statement);
+            statements.clear();
+            connection.close();
+            if (readers != null) {
+                // waits for the queries in progress
+                for (int i = readers.remainingCapacity() + readers.size(); i > 0; i--) {
+                    readers.take().close();
+                }
+            }
+        } catch (SQLException e) {
+            throw error("close", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
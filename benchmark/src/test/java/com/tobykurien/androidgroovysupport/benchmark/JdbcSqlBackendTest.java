@@ -0,0 +1,187 @@
+package com.tobykurien.androidgroovysupport.benchmark;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import groovy.lang.Closure;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs DbService on a plain JVM through JdbcSqlBackend, as the benchmarks do
+ */
+public class JdbcSqlBackendTest {
+    private JdbcSqlBackend backend;
+    private BenchmarkDb db;
+
+    public static class Row {
+        private long id;
+        private String name;
+        private long count;
+
+        public long getId() {
+            return id;
+        }
+
+        public void setId(long id) {
+            this.id = id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public void setCount(long count) {
+            this.count = count;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        backend = new JdbcSqlBackend("jdbc:sqlite::memory:");
+        db = new BenchmarkDb(backend);
+        db.execute("create table items (id integer primary key, name text, count integer)", null);
+    }
+
+    @After
+    public void tearDown() {
+        db.shutdown();
+        backend.close();
+    }
+
+    private static Map<String, Object> row(String name, long count) {
+        Map<String, Object> row = new LinkedHashMap<String, Object>();
+        row.put("name", name);
+        row.put("count", count);
+        return row;
+    }
+
+    private int count() {
+        return (int) backend.simpleQueryForLong("select count(*) from items", null);
+    }
+
+    @Test
+    public void readsAndWritesBeans() {
+        long id = (Long) db.insert("items", row("first", 3));
+        db.insertAll("items", Arrays.asList(row("second", 4), row("third", 5)));
+
+        Row first = db.findById("items", id, Row.class);
+        assertEquals("first", first.getName());
+        assertEquals(3, first.getCount());
+
+        first.setCount(30);
+        db.update("items", (Object) first);
+        List<Row> rows = db.findAll("items", "id", Row.class);
+        assertEquals(3, rows.size());
+        assertEquals(30, rows.get(0).getCount());
+        assertEquals("third", rows.get(2).getName());
+
+        db.delete("items", String.valueOf(id));
+        assertEquals(2, count());
+    }
+
+    @Test
+    public void bindsTemplateParameters() {
+        db.insertAll("items", Arrays.asList(row("a", 1), row("b", 2), row("c", 2)));
+        Map<String, Object> params = new LinkedHashMap<String, Object>();
+        params.put("count", 2);
+        List<Map<String, Object>> rows = db.executeForMapList(
+                "select name from items where count = #count# order by name", params);
+        assertEquals(2, rows.size());
+        assertEquals("b", rows.get(0).get("name"));
+        assertEquals("c", backend.simpleQueryForString("select max(name) from items where count = ?",
+                new Object[] { 2 }));
+    }
+
+    @Test
+    public void rollsBackTransactionsWithAFailedLevel() {
+        backend.beginTransaction();
+        try {
+            db.insert("items", row("outer", 1));
+            backend.beginTransaction();
+            try {
+                db.insert("items", row("inner", 2));
+            } finally {
+                // not marked successful
+                backend.endTransaction();
+            }
+            backend.setTransactionSuccessful();
+        } finally {
+            backend.endTransaction();
+        }
+        assertEquals(0, count());
+
+        db.inTransaction(new Closure<Object>(this) {
+            public Object doCall() {
+                db.insert("items", row("a", 1));
+                db.insert("items", row("b", 2));
+                return null;
+            }
+        });
+        assertEquals(2, count());
+    }
+
+    @Test
+    public void insertReturnsMinusOneOnConstraintErrors() {
+        ContentValues values = new ContentValues();
+        values.put("id", 1);
+        assertEquals(1, backend.insert("items", values));
+        assertEquals(-1, backend.insert("items", values));
+    }
+
+    @Test
+    public void readersSeeCommittedChangesOnly() throws Exception {
+        File file = File.createTempFile("jdbc", ".db");
+        file.deleteOnExit();
+        final JdbcSqlBackend pooled = new JdbcSqlBackend("jdbc:sqlite:" + file.getPath(), 2);
+        try {
+            pooled.execSQL("create table items (id integer primary key, name text)");
+            pooled.executeInsert("insert into items (name) values (?)", new Object[] { "committed" });
+
+            pooled.beginTransaction();
+            try {
+                pooled.executeInsert("insert into items (name) values (?)", new Object[] { "pending" });
+                // the transaction's own queries see its changes
+                assertEquals(2, pooled.simpleQueryForLong("select count(*) from items", null));
+
+                final long[] seen = new long[1];
+                Thread reader = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Cursor cursor = pooled.query("select count(*) from items", null);
+                        cursor.moveToFirst();
+                        seen[0] = cursor.getLong(0);
+                        cursor.close();
+                    }
+                });
+                reader.start();
+                reader.join(5000);
+                assertEquals(1, seen[0]);
+                pooled.setTransactionSuccessful();
+            } finally {
+                pooled.endTransaction();
+            }
+            assertEquals(2, pooled.simpleQueryForLong("select count(*) from items", null));
+        } finally {
+            pooled.close();
+        }
+    }
+}
@@ -1,21 +1,36 @@
 package asia.sonix.android.orm;
 
 import android.content.Context;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
+import android.util.LruCache;
 
-import java.lang.reflect.Field;
-import java.lang.reflect.Method;
-import java.lang.reflect.Modifier;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -28,12 +43,28 @@ import java.util.regex.Pattern;
  * Forked from http://code.google.com/p/abatis/
  * Modified by Toby Kurien
  * Modifications: 
- *  - changed "initialize" to "dbInitialize" and allowed multiple statements
+ *  - changed "initialize" to "dbInitialize" and allowed multiple statements,
+ *    run in one transaction
  *  - changed methods to take R.string.xxxx instead of "xxxx"
  *  - added version numbers to constructors for db versioning
  *  - protected the getInstance() methods and constructor. 
  *    Projects should derive a subclass with a getInstance() singleton method
  *  - added toSqlString to allow sanitizing SQL strings
+ *  - #name# parameters are bound to cached, compiled statements instead of
+ *    being pasted into the SQL
+ *  - the database connection is reference counted and kept open between
+ *    calls until it has been idle for a while
+ *  - write-ahead logging can be enabled, so that queries run in parallel on a
+ *    pool of reader connections
+ *  - statement timings can be collected with setMetrics()
+ *  - query plans can be checked for table scans and temporary sorts, and indexes
+ *    can be declared with declareIndex()
+ *  - onUpgrade runs dbUpgrade_N scripts for each version in one transaction,
+ *    with "rebuild table" for changes that ALTER TABLE can't make
+ *  - a prebuilt database can be copied from the assets instead of running
+ *    dbInitialize
+ *  - storage goes through SqlBackend, so that another SQLite implementation can
+ *    be supplied, e.g. for benchmarks on a plain JVM
  *  - improved error messages
  *  - several bug fixes
  *
@@ -60,6 +91,14 @@ public class AbatisService extends SQLiteOpenHelper {
     * DBを初期化するSQLID
     */
    private static final String INIT_CREATE_SQL = "dbInitialize";
+   /**
+    * DBをupgradeするSQLIDのprefix, followed by the version, e.g. dbUpgrade_3
+    */
+   private static final String UPGRADE_SQL_PREFIX = "dbUpgrade_";
+   /**
+    * "rebuild table name (column definitions)" in an upgrade script
+    */
+   private static final Pattern REBUILD_TABLE = Pattern.compile("(?is)rebuild\\s+table\\s+([^\\s(]+)\\s*\\((.*)\\)");
    /**
     * Default DB file name
     */
@@ -71,17 +110,116 @@ public class AbatisService extends SQLiteOpenHelper {
    private static AbatisService instance = null;
 
    /**
-    * SQLiteDatabase object
+    * Default time (ms) that an unused database connection is kept open
+    */
+   public static final long DEFAULT_IDLE_TIMEOUT = 30000;
+
+   /**
+    * Closes idle database connections
+    */
+   private static final ScheduledExecutorService IDLE_CLOSER = Executors.newSingleThreadScheduledExecutor(
+         new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+               Thread thread = new Thread(r, "aBatis idle close");
+               thread.setDaemon(true);
+               return thread;
+            }
+         });
+
+   /**
+    * SQLiteDatabase object, wrapped in its backend
+    */
+   private AndroidSqlBackend dbObj;
+
+   /**
+    * The backend supplied to the constructor, used instead of opening the database
+    * with SQLiteOpenHelper, or null
+    */
+   private final SqlBackend externalBackend;
+
+   /**
+    * Guards dbObj, dbRefCount, idleClose and closePending
+    */
+   private final Object dbLock = new Object();
+
+   /**
+    * Number of calls currently using dbObj
+    */
+   private int dbRefCount = 0;
+
+   /**
+    * Set by shutdown() while calls are using dbObj, to close it when the last one ends
     */
-   private SQLiteDatabase dbObj;
+   private boolean closePending = false;
+
+   /**
+    * Time (ms) to keep dbObj open once unused
+    */
+   private long idleTimeout = DEFAULT_IDLE_TIMEOUT;
+
+   /**
+    * Pending close of dbObj, if any
+    */
+   private ScheduledFuture<?> idleClose;
 
    /**
     * Context object
     */
    private Context context;
 
+   /**
+    * Version of the database schema
+    */
+   private final int version;
+
+   /**
+    * Enable write-ahead logging when the database is opened
+    */
+   private volatile boolean writeAheadLogging = false;
+
+   /**
+    * Whether write-ahead logging was enabled on the open database
+    */
+   private volatile boolean writeAheadLoggingEnabled = false;
+
+   /**
+    * Asset with a prebuilt database to install on first use, or null
+    */
+   private volatile String prebuiltAsset;
+
    // show SQL as debug output
    protected boolean showSQL = false;
+
+   /**
+    * Receives statement timings, or null when metrics are disabled
+    */
+   private volatile QueryMetrics metrics;
+
+   /**
+    * Parsed #name# SQL templates, keyed by the original SQL
+    */
+   private final LruCache<String, SqlTemplate> templates = new LruCache<String, SqlTemplate>(100);
+
+   /**
+    * Run EXPLAIN QUERY PLAN on each new statement
+    */
+   private volatile boolean explainQueryPlans = false;
+
+   /**
+    * Statements whose query plan has been checked
+    */
+   private final Set<String> explained = new HashSet<String>();
+
+   /**
+    * CREATE INDEX statements declared with declareIndex(), keyed by index name
+    */
+   private final Map<String, String> declaredIndexes = new LinkedHashMap<String, String>();
+
+   /**
+    * Whether declaredIndexes have to be created on the open database
+    */
+   private boolean indexesPending = false;
    
    /**
     * Default DB file nameを利用するConstructor
@@ -93,6 +231,8 @@ public class AbatisService extends SQLiteOpenHelper {
    protected AbatisService(Context context, int version) {
       super(context, DB_FILE_NAME, null, version);
       this.context = context;
+      this.version = version;
+      this.externalBackend = null;
    }
 
    /**
@@ -107,6 +247,23 @@ public class AbatisService extends SQLiteOpenHelper {
    protected AbatisService(Context context, String dbName, int version) {
       super(context, dbName.concat(".db"), null, version);
       this.context = context;
+      this.version = version;
+      this.externalBackend = null;
+   }
+
+   /**
+    * Constructor for a database that has already been opened and set up, e.g. an
+    * SQLite database on a plain JVM. The backend is not closed by this service, and
+    * methods taking a SQLID (string resource) can not be used.
+    * 
+    * @param backend
+    *           the database
+    */
+   protected AbatisService(SqlBackend backend) {
+      super(null, null, null, 1);
+      this.context = null;
+      this.version = 1;
+      this.externalBackend = backend;
    }
 
    /**
@@ -150,19 +307,43 @@ public class AbatisService extends SQLiteOpenHelper {
     */
    @Override
    public void onCreate(SQLiteDatabase db) {
+      QueryMetrics m = metrics;
+      long start = m != null ? System.nanoTime() : 0;
       int pointer = context.getResources().getIdentifier(INIT_CREATE_SQL, "string", context.getPackageName());
       if (pointer == 0) {
          Log.e(TAG, "undefined sql id - " + INIT_CREATE_SQL);
       } else {
          String createTabelSql = context.getResources().getString(pointer);
-         for (String sql : createTabelSql.split(";")) {
-            db.execSQL(sql);
+         // one commit for the whole script (SQLiteOpenHelper may already have begun one)
+         db.beginTransaction();
+         try {
+            for (String sql : SqlScript.split(createTabelSql)) {
+               db.execSQL(sql);
+            }
+            db.setTransactionSuccessful();
+         } finally {
+            db.endTransaction();
          }
       }
+      if (m != null) m.databaseCreated(System.nanoTime() - start);
    }
 
    /**
-    * for upgrade (バージョン0.1では実装されていない)
+    * Enable write-ahead logging, if set with setWriteAheadLogging()
+    * 
+    * @param db
+    *           SQLiteDatabase object
+    */
+   @Override
+   public void onOpen(SQLiteDatabase db) {
+      super.onOpen(db);
+      writeAheadLoggingEnabled = writeAheadLogging && !db.isReadOnly() && db.enableWriteAheadLogging();
+   }
+
+   /**
+    * for upgrade. Runs upgradeTo() for each version after oldVersion up to newVersion,
+    * all in one transaction, so that the database is either fully upgraded or left
+    * unchanged.
     * 
     * @param db
     *           SQLiteDatabase object
@@ -174,7 +355,120 @@ public class AbatisService extends SQLiteOpenHelper {
     */
    @Override
    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-      // no poc
+      db.beginTransaction();
+      try {
+         for (int version = oldVersion + 1; version <= newVersion; version++) {
+            long start = System.nanoTime();
+            upgradeTo(db, version);
+            long nanos = System.nanoTime() - start;
+            QueryMetrics m = metrics;
+            if (m != null) m.databaseUpgraded(version, nanos);
+            Log.i(TAG, "upgraded to version " + version + " in " + (nanos / 1000000) + "ms");
+         }
+         db.setTransactionSuccessful();
+      } finally {
+         db.endTransaction();
+      }
+   }
+
+   /**
+    * Upgrade the database from the previous version to this one, by running the
+    * dbUpgrade_N string resource (e.g. dbUpgrade_3 for version 3), if there is one.
+    * Like dbInitialize, it can contain several statements. A statement of the form
+    * "rebuild table name (column definitions)" calls rebuildTable().
+    * 
+    * <p>
+    * Subclasses can override this to migrate data in code, calling super to run the
+    * script.
+    * </p>
+    * 
+    * @param db
+    *           SQLiteDatabase object, in a transaction
+    * @param version
+    *           the version to upgrade to
+    */
+   protected void upgradeTo(SQLiteDatabase db, int version) {
+      int pointer = context.getResources().getIdentifier(UPGRADE_SQL_PREFIX + version, "string",
+            context.getPackageName());
+      if (pointer == 0) return;
+
+      for (String sql : SqlScript.split(context.getResources().getString(pointer))) {
+         Matcher rebuild = REBUILD_TABLE.matcher(sql);
+         if (rebuild.matches()) {
+            rebuildTable(db, rebuild.group(1), rebuild.group(2));
+         } else {
+            db.execSQL(sql);
+         }
+      }
+   }
+
+   /**
+    * Change the columns or constraints of a table by copying it into a new table and
+    * swapping that in. Columns with the same name in the old and new definitions
+    * keep their values; new columns get their default value. The table's indexes and
+    * triggers are created again afterwards, so drop any that use a removed column
+    * first.
+    * 
+    * @param db
+    *           SQLiteDatabase object, in a transaction
+    * @param table
+    *           the table to rebuild
+    * @param columns
+    *           the new column definitions and table constraints, as in CREATE TABLE
+    */
+   protected void rebuildTable(SQLiteDatabase db, String table, String columns) {
+      String name = table.replaceAll("^[\"`\\[]|[\"`\\]]$", "");
+      String newName = name + "_rebuild";
+
+      List<String> schema = new ArrayList<String>();
+      Cursor cursor = db.rawQuery("select sql from sqlite_master where tbl_name = ? and type in ('index', 'trigger') "
+            + "and sql is not null", new String[] { name });
+      try {
+         while (cursor.moveToNext()) {
+            schema.add(cursor.getString(0));
+         }
+      } finally {
+         cursor.close();
+      }
+
+      db.execSQL("create table " + quote(newName) + " (" + columns + ")");
+      Set<String> oldColumns = new HashSet<String>();
+      for (String column : tableColumns(db, name)) {
+         oldColumns.add(column.toLowerCase(Locale.US));
+      }
+      StringBuilder copied = new StringBuilder();
+      for (String column : tableColumns(db, newName)) {
+         if (!oldColumns.contains(column.toLowerCase(Locale.US))) continue;
+         if (copied.length() > 0) copied.append(", ");
+         copied.append(quote(column));
+      }
+      if (copied.length() > 0) {
+         db.execSQL("insert into " + quote(newName) + " (" + copied + ") select " + copied + " from " + quote(name));
+      }
+      db.execSQL("drop table " + quote(name));
+      db.execSQL("alter table " + quote(newName) + " rename to " + quote(name));
+
+      for (String sql : schema) {
+         db.execSQL(sql);
+      }
+   }
+
+   private static List<String> tableColumns(SQLiteDatabase db, String table) {
+      List<String> columns = new ArrayList<String>();
+      Cursor cursor = db.rawQuery("pragma table_info(" + quote(table) + ")", null);
+      try {
+         int nameIndex = cursor.getColumnIndexOrThrow("name");
+         while (cursor.moveToNext()) {
+            columns.add(cursor.getString(nameIndex));
+         }
+      } finally {
+         cursor.close();
+      }
+      return columns;
+   }
+
+   private static String quote(String identifier) {
+      return "\"" + identifier.replace("\"", "\"\"") + "\"";
    }
 
    /**
@@ -198,23 +492,20 @@ public class AbatisService extends SQLiteOpenHelper {
    
    public Map<String, Object> executeForMap(String sql, Map<String, ? extends Object> bindParams) {
       Map<String, Object> map = null;
-      getDbObject();
+      SqlTemplate template = getTemplate(sql);
+      Object[] args = template.getArgs(bindParams);
+      if (args == null) {
+         Log.e(TAG, "undefined parameter in sql: " + sql);
+         return map;
+      }
+      QueryMetrics m = metrics;
+      long start = m != null ? System.nanoTime() : 0;
+      SqlBackend db = acquireBackend();
       try {
-         if (bindParams != null) {
-            Iterator<String> mapIterator = bindParams.keySet().iterator();
-            while (mapIterator.hasNext()) {
-               String key = mapIterator.next();
-               Object value = bindParams.get(key);
-               sql = sql.replaceAll("#" + key + "#", toSqlString(value));
-            }
-         }
-         if (sql.indexOf('#') != -1) {
-            Log.e(TAG, "undefined parameter in sql: " + sql);
-            return map;
-         }
-         if (showSQL) Log.d(TAG, sql);
-         Cursor cursor = dbObj.rawQuery(sql, null);
+         if (showSQL) Log.d(TAG, template.sql);
+         Cursor cursor = db.query(template.sql, args);
          if (cursor == null) { return map; }
+         long queried = m != null ? executed(cursor) : 0;
          String[] columnNames = cursor.getColumnNames();
          if (cursor.moveToNext()) {
             map = new HashMap<String, Object>();
@@ -225,9 +516,10 @@ public class AbatisService extends SQLiteOpenHelper {
             }
          }
          cursor.close();
+         if (m != null) recordQuery(m, template.sql, args, start, queried, map == null ? 0 : 1);
          return map;
       } finally {
-         dbObj.close();
+         releaseDatabase();
       }
    }
 
@@ -252,23 +544,20 @@ public class AbatisService extends SQLiteOpenHelper {
    
    public List<Map<String, Object>> executeForMapList(String sql, Map<String, ? extends Object> bindParams) {
       List<Map<String, Object>> mapList = new ArrayList<Map<String, Object>>();
-      getDbObject();
+      SqlTemplate template = getTemplate(sql);
+      Object[] args = template.getArgs(bindParams);
+      if (args == null) {
+         Log.e(TAG, "undefined parameter in sql: " + sql);
+         return mapList;
+      }
+      QueryMetrics m = metrics;
+      long start = m != null ? System.nanoTime() : 0;
+      SqlBackend db = acquireBackend();
       try {
-         if (bindParams != null) {
-            Iterator<String> mapIterator = bindParams.keySet().iterator();
-            while (mapIterator.hasNext()) {
-               String key = mapIterator.next();
-               Object value = bindParams.get(key);
-               sql = sql.replaceAll("#" + key + "#", toSqlString(value));
-            }
-         }
-         if (sql.indexOf('#') != -1) {
-            Log.e(TAG, "undefined parameter in sql: " + sql);
-            return mapList;
-         }
-         if (showSQL) Log.d(TAG, sql);
-         Cursor cursor = dbObj.rawQuery(sql, null);
+         if (showSQL) Log.d(TAG, template.sql);
+         Cursor cursor = db.query(template.sql, args);
          if (cursor == null) { return mapList; }
+         long queried = m != null ? executed(cursor) : 0;
          String[] columnNames = cursor.getColumnNames();
          while (cursor.moveToNext()) {
             Map<String, Object> map = new HashMap<String, Object>();
@@ -280,9 +569,58 @@ public class AbatisService extends SQLiteOpenHelper {
             mapList.add(map);
          }
          cursor.close();
+         if (m != null) recordQuery(m, template.sql, args, start, queried, mapList.size());
          return mapList;
       } finally {
-         dbObj.close();
+         releaseDatabase();
+      }
+   }
+
+   /**
+    * Execute a query and return the result stored by column, in primitive arrays per
+    * column rather than a Map per row. Use this for scanning large results, e.g. for
+    * reports and analytics.
+    * 
+    * <p>
+    * mappingの時、parameterが足りない場合はnullを返す。
+    * </p>
+    * 
+    * @param sqlId
+    *           SQLID
+    * @param bindParams
+    *           sql parameter
+    * 
+    * @return ColumnarResult result
+    */
+   public ColumnarResult executeForColumns(int sqlId, Map<String, ? extends Object> bindParams) {
+      String sql = context.getResources().getString(sqlId);
+      return executeForColumns(sql, bindParams);
+   }
+
+   public ColumnarResult executeForColumns(String sql, Map<String, ? extends Object> bindParams) {
+      SqlTemplate template = getTemplate(sql);
+      Object[] args = template.getArgs(bindParams);
+      if (args == null) {
+         Log.e(TAG, "undefined parameter in sql: " + sql);
+         return null;
+      }
+      QueryMetrics m = metrics;
+      long start = m != null ? System.nanoTime() : 0;
+      SqlBackend db = acquireBackend();
+      try {
+         if (showSQL) Log.d(TAG, template.sql);
+         Cursor cursor = db.query(template.sql, args);
+         if (cursor == null) { return null; }
+         try {
+            long queried = m != null ? executed(cursor) : 0;
+            ColumnarResult result = new ColumnarResult(cursor);
+            if (m != null) recordQuery(m, template.sql, args, start, queried, result.getRowCount());
+            return result;
+         } finally {
+            cursor.close();
+         }
+      } finally {
+         releaseDatabase();
       }
    }
 
@@ -311,41 +649,32 @@ public class AbatisService extends SQLiteOpenHelper {
    @SuppressWarnings({ "unchecked", "rawtypes" })
    public <T> T executeForBean(String sql, Map<String, ? extends Object> bindParams, Class bean) {
       T beanObj = null;
-      getDbObject();
+      SqlTemplate template = getTemplate(sql);
+      Object[] args = template.getArgs(bindParams);
+      if (args == null) {
+         Log.e(TAG, "undefined parameter in sql: " + sql);
+         return beanObj;
+      }
+      QueryMetrics m = metrics;
+      long start = m != null ? System.nanoTime() : 0;
+      SqlBackend db = acquireBackend();
       try {
-         if (bindParams != null) {
-            Iterator<String> mapIterator = bindParams.keySet().iterator();
-            while (mapIterator.hasNext()) {
-               String key = mapIterator.next();
-               Object value = bindParams.get(key);
-               sql = sql.replaceAll("#" + key + "#", toSqlString(value));
-            }
-         }
-         if (sql.indexOf('#') != -1) {
-            Log.e(TAG, "undefined parameter in sql: " + sql);
-            return beanObj;
-         }
-         if (showSQL) Log.d(TAG, sql);
-         Cursor cursor = dbObj.rawQuery(sql, null);
+         if (showSQL) Log.d(TAG, template.sql);
+         Cursor cursor = db.query(template.sql, args);
          if (cursor == null) { return beanObj; }
-         String[] columnNames = cursor.getColumnNames();
-         List<String> dataNames = new ArrayList<String>();
-         for (String columnName : columnNames) {
-            dataNames.add(chgDataName(columnName));
-         }
-         // get bean class package
-         Package beanPackage = bean.getPackage();
+         long queried = m != null ? executed(cursor) : 0;
          if (cursor.moveToNext()) {
             try {
-               beanObj = (T) parse(cursor, bean, beanPackage.getName(), bean.newInstance());
+               beanObj = (T) parse(cursor, bean, null, bean.newInstance());
             } catch (Exception e) {
                Log.d(TAG, e.toString());
             }
          }
          cursor.close();
+         if (m != null) recordQuery(m, template.sql, args, start, queried, beanObj == null ? 0 : 1);
          return beanObj;
       } finally {
-         dbObj.close();
+         releaseDatabase();
       }
    }
 
@@ -394,52 +723,226 @@ public class AbatisService extends SQLiteOpenHelper {
 		  objectList = new ArrayList<T>();
 	  }
 	   
-      getDbObject();
+      SqlTemplate template = getTemplate(sql);
+      Object[] args = template.getArgs(bindParams);
+      if (args == null) {
+         Log.e(TAG, "undefined parameter in sql: " + sql);
+         return objectList;
+      }
+      QueryMetrics m = metrics;
+      long start = m != null ? System.nanoTime() : 0;
+      SqlBackend db = acquireBackend();
       try {
-         if (bindParams != null) {
-            Iterator<String> mapIterator = bindParams.keySet().iterator();
-            while (mapIterator.hasNext()) {
-               String key = mapIterator.next();
-               Object value = bindParams.get(key);
-               sql = sql.replaceAll("#" + key + "#", toSqlString(value));
-            }
-         }
-         if (sql.indexOf('#') != -1) {
-            Log.e(TAG, "undefined parameter in sql: " + sql);
-            return objectList;
-         }
-         if (showSQL) Log.d(TAG, sql);
-         Cursor cursor = dbObj.rawQuery(sql, null);
+         if (showSQL) Log.d(TAG, template.sql);
+         Cursor cursor = db.query(template.sql, args);
          if (cursor == null) { return objectList; }
-         String[] columnNames = cursor.getColumnNames();
-         List<String> dataNames = new ArrayList<String>();
-         for (String columnName : columnNames) {
-            dataNames.add(chgDataName(columnName));
-         }
-         
-         // get bean class package
+         long queried = m != null ? executed(cursor) : 0;
+         // resolve the column to field mapping once for all rows
+         BeanMapper mapper = BeanMapper.forCursor(bean, cursor);
          T beanObj = null;
-         Package beanPackage = bean.getPackage();
          int i = 0;
          while (cursor.moveToNext()) {
             try {
                if (objectList.size() <= i) {
             	   // create new object and add to list
-            	   objectList.add((T) bean.newInstance());
+            	   objectList.add((T) mapper.newBean(bean));
                }
                beanObj = objectList.get(i++);
-               parse(cursor, bean, beanPackage.getName(), beanObj);
+               mapper.map(cursor, beanObj);
             } catch (Exception e) {
                Log.e(TAG, e.toString(), e);
             }
          }
          cursor.close();
+         if (m != null) recordQuery(m, template.sql, args, start, queried, i);
          return objectList;
       } finally {
-         dbObj.close();
+         releaseDatabase();
       }
    }
    
+   /**
+    * Execute a query and return a lazy, single pass result of beans, populated from
+    * the database one row at a time as the result is iterated. The result must be
+    * iterated to the end, or closed, to release the database connection.
+    * 
+    * @param sqlId
+    *           SQLID
+    * @param bindParams
+    *           sql parameter
+    * @param bean
+    *           bean class of result
+    * @param reuseBean
+    *           true to populate the same bean instance for every row, to avoid
+    *           allocating a bean per row
+    * 
+    * @return BeanCursor<T> result
+    */
+   public <T> BeanCursor<T> executeForBeanCursor(int sqlId, Map<String, ? extends Object> bindParams,
+         Class<T> bean, boolean reuseBean) {
+      String sql = context.getResources().getString(sqlId);
+      return executeForBeanCursor(sql, bindParams, bean, reuseBean);
+   }
+
+   public <T> BeanCursor<T> executeForBeanCursor(String sql, Map<String, ? extends Object> bindParams,
+         Class<T> bean, boolean reuseBean) {
+      SqlTemplate template = getTemplate(sql);
+      Object[] args = template.getArgs(bindParams);
+      if (args == null) {
+         Log.e(TAG, "undefined parameter in sql: " + sql);
+         return new BeanCursor<T>(this, null, bean, reuseBean);
+      }
+      QueryMetrics m = metrics;
+      long start = m != null ? System.nanoTime() : 0;
+      SqlBackend db = acquireBackend();
+      Cursor cursor = null;
+      try {
+         if (showSQL) Log.d(TAG, template.sql);
+         cursor = db.query(template.sql, args);
+         // the beans are read later, as the result is iterated
+         if (m != null && cursor != null) {
+            recordQuery(m, template.sql, args, start, executed(cursor), cursor.getCount());
+         }
+      } finally {
+         if (cursor == null) releaseDatabase();
+      }
+      return new BeanCursor<T>(this, cursor, bean, reuseBean);
+   }
+
+   /**
+    * Execute a query and return a random access result that reads rows from the
+    * cursor on demand, e.g. for a list adapter. The result must be closed to release
+    * the database connection.
+    * 
+    * @param sqlId
+    *           SQLID
+    * @param bindParams
+    *           sql parameter
+    * @param bean
+    *           bean class of result
+    * 
+    * @return CursorList<T> result
+    */
+   public <T> CursorList<T> executeForCursorList(int sqlId, Map<String, ? extends Object> bindParams, Class<T> bean) {
+      String sql = context.getResources().getString(sqlId);
+      return executeForCursorList(sql, bindParams, bean);
+   }
+
+   public <T> CursorList<T> executeForCursorList(String sql, Map<String, ? extends Object> bindParams, Class<T> bean) {
+      SqlTemplate template = getTemplate(sql);
+      Object[] args = template.getArgs(bindParams);
+      if (args == null) {
+         Log.e(TAG, "undefined parameter in sql: " + sql);
+         return new CursorList<T>(this, null, bean);
+      }
+      QueryMetrics m = metrics;
+      long start = m != null ? System.nanoTime() : 0;
+      SqlBackend db = acquireBackend();
+      Cursor cursor = null;
+      try {
+         if (showSQL) Log.d(TAG, template.sql);
+         cursor = db.query(template.sql, args);
+         if (cursor != null) {
+            // run the query now, in the calling (background) thread, not on first use
+            long queried = executed(cursor);
+            if (m != null) recordQuery(m, template.sql, args, start, queried, cursor.getCount());
+         }
+      } finally {
+         if (cursor == null) releaseDatabase();
+      }
+      return new CursorList<T>(this, cursor, bean);
+   }
+
+   /**
+    * Execute a query that returns a single number, e.g. a count, with the arguments
+    * bound to the cached compiled statement for the SQL. No cursor is created.
+    * 
+    * <p>
+    * mappingの時、parameterが足りない場合は0を返す。 また、結果がない場合0を返す。
+    * </p>
+    * 
+    * @param sqlId
+    *           SQLID
+    * @param bindParams
+    *           sql parameter
+    * 
+    * @return long the first column of the first row
+    */
+   public long executeForLong(int sqlId, Map<String, ? extends Object> bindParams) {
+      String sql = context.getResources().getString(sqlId);
+      return executeForLong(sql, bindParams);
+   }
+
+   public long executeForLong(String sql, Map<String, ? extends Object> bindParams) {
+      SqlTemplate template = getTemplate(sql);
+      Object[] args = template.getArgs(bindParams);
+      if (args == null) {
+         Log.e(TAG, "undefined parameter in sql: " + sql);
+         return 0;
+      }
+      QueryMetrics m = metrics;
+      long start = m != null ? System.nanoTime() : 0;
+      SqlBackend db = acquireBackend();
+      try {
+         if (showSQL) Log.d(TAG, template.sql);
+         try {
+            long value = db.simpleQueryForLong(template.sql, args);
+            if (m != null) m.queryExecuted(template.sql, args, System.nanoTime() - start, 0, 1);
+            return value;
+         } catch (SQLiteDoneException e) {
+            if (m != null) m.queryExecuted(template.sql, args, System.nanoTime() - start, 0, 0);
+            return 0;
+         }
+      } finally {
+         releaseDatabase();
+      }
+   }
+
+   /**
+    * Execute a query that returns a single value, like
+    * {@link #executeForLong(String, Map)}.
+    * 
+    * <p>
+    * mappingの時、parameterが足りない場合はnullを返す。 また、結果がない場合nullを返す。
+    * </p>
+    * 
+    * @param sqlId
+    *           SQLID
+    * @param bindParams
+    *           sql parameter
+    * 
+    * @return String the first column of the first row
+    */
+   public String executeForString(int sqlId, Map<String, ? extends Object> bindParams) {
+      String sql = context.getResources().getString(sqlId);
+      return executeForString(sql, bindParams);
+   }
+
+   public String executeForString(String sql, Map<String, ? extends Object> bindParams) {
+      SqlTemplate template = getTemplate(sql);
+      Object[] args = template.getArgs(bindParams);
+      if (args == null) {
+         Log.e(TAG, "undefined parameter in sql: " + sql);
+         return null;
+      }
+      QueryMetrics m = metrics;
+      long start = m != null ? System.nanoTime() : 0;
+      SqlBackend db = acquireBackend();
+      try {
+         if (showSQL) Log.d(TAG, template.sql);
+         try {
+            String value = db.simpleQueryForString(template.sql, args);
+            if (m != null) m.queryExecuted(template.sql, args, System.nanoTime() - start, 0, 1);
+            return value;
+         } catch (SQLiteDoneException e) {
+            if (m != null) m.queryExecuted(template.sql, args, System.nanoTime() - start, 0, 0);
+            return null;
+         }
+      } finally {
+         releaseDatabase();
+      }
+   }
+
    /**
     * 指定したSQLIDにparameterをmappingして、実行する。
     * 
@@ -460,46 +963,433 @@ public class AbatisService extends SQLiteOpenHelper {
    }
    
    public int execute(String sql, Map<String, ? extends Object> bindParams) {
-      getDbObject();
+      int row = 0;
+      SqlTemplate template = getTemplate(sql);
+      Object[] args = template.getArgs(bindParams);
+      if (args == null) {
+         Log.e(TAG, "undefined parameter in sql: " + sql);
+         return row;
+      }
+      SqlBackend db = acquireBackend();
       try {
-         int row = 0;
-         if (bindParams != null) {
-            Iterator<String> mapIterator = bindParams.keySet().iterator();
-            while (mapIterator.hasNext()) {
-               String key = mapIterator.next();
-               Object value = bindParams.get(key);
-               sql = sql.replaceAll("#" + key + "#", toSqlString(value));
-            }
-         }
-         if (sql.indexOf('#') != -1) {
-            Log.e(TAG, "undefined parameter in sql: " + sql);
-            return row;
-         }
          try {
-            if (showSQL) Log.d(TAG, sql);
-            dbObj.execSQL(sql);
+            if (showSQL) Log.d(TAG, template.sql);
+            executeUpdateDelete(db, template.sql, args);
             row += 1;
          } catch (SQLException e) {
             return row;
          }
          return row;
       } finally {
-         dbObj.close();
+         releaseDatabase();
       }
    }
 
    /**
     * SQLiteDatabase Objectを取得する。
     * 
-    * @return SQLiteDatabase SQLiteDatabase Object
+    * @return SqlBackend the backend for the SQLiteDatabase Object, or the external backend
     */
-   private SQLiteDatabase getDbObject() {
-      if (dbObj == null || !dbObj.isOpen()) {
-         dbObj = getWritableDatabase();
+   private SqlBackend getDbObject() {
+      if (externalBackend != null) {
+         if (indexesPending) createDeclaredIndexes(externalBackend);
+         return externalBackend;
       }
+      if (dbObj == null || !dbObj.getDatabase().isOpen()) {
+         if (prebuiltAsset != null) {
+            installPrebuiltDatabase(prebuiltAsset);
+            prebuiltAsset = null;
+         }
+         QueryMetrics m = metrics;
+         long start = m != null ? System.nanoTime() : 0;
+         SQLiteDatabase db = getWritableDatabase();
+         // after getWritableDatabase(), which calls onOpen()
+         dbObj = new AndroidSqlBackend(db, writeAheadLoggingEnabled);
+         if (m != null) m.databaseOpened(System.nanoTime() - start);
+      }
+      if (indexesPending) createDeclaredIndexes(dbObj);
       return dbObj;
    }
 
+   /**
+    * Declare an index that the database should have. Declared indexes are created,
+    * if they don't exist yet, when the database is next opened, so that they are
+    * added to new, prebuilt and upgraded databases alike. Call before the database
+    * is used, e.g. in the constructor of a subclass.
+    * 
+    * @param table
+    *           the table to index
+    * @param columns
+    *           the indexed columns, optionally followed by "asc" or "desc"
+    * @return String the name of the index, e.g. "users_lastName_age"
+    */
+   public String declareIndex(String table, String... columns) {
+      if (columns.length == 0) throw new IllegalArgumentException("no columns to index on " + table);
+      StringBuilder name = new StringBuilder(table);
+      StringBuilder definition = new StringBuilder();
+      for (String column : columns) {
+         name.append('_').append(column.trim().split("\\s+")[0]);
+         if (definition.length() > 0) definition.append(", ");
+         definition.append(column);
+      }
+      String indexName = name.toString().replaceAll("\\W", "");
+      synchronized (dbLock) {
+         declaredIndexes.put(indexName, "create index if not exists " + quote(indexName) + " on " + table + " ("
+               + definition + ")");
+         indexesPending = true;
+      }
+      return indexName;
+   }
+
+   /**
+    * Create the declared indexes that don't exist yet, in one transaction
+    */
+   private void createDeclaredIndexes(SqlBackend db) {
+      db.beginTransaction();
+      try {
+         for (String sql : declaredIndexes.values()) {
+            if (showSQL) Log.d(TAG, sql);
+            db.execSQL(sql);
+         }
+         db.setTransactionSuccessful();
+      } finally {
+         db.endTransaction();
+      }
+      indexesPending = false;
+   }
+
+   /**
+    * Use a prebuilt database from the assets instead of creating the database with
+    * dbInitialize. On first use, if the database file does not exist yet, the asset
+    * is copied into place (the fastest copy is made if the asset is stored
+    * uncompressed, e.g. with aaptOptions { noCompress 'db' }). The asset must have
+    * its user_version set to a version from 1 to the current version of the
+    * database; lower versions are then upgraded by onUpgrade. Must be called before
+    * the database is first used.
+    * 
+    * @param assetPath
+    *           path of the database in the assets, e.g. "databases/app.db"
+    */
+   public void setPrebuiltDatabase(String assetPath) {
+      prebuiltAsset = assetPath;
+   }
+
+   /**
+    * Copy the prebuilt database from the assets, if the database does not exist yet
+    */
+   private void installPrebuiltDatabase(String asset) {
+      File dbFile = context.getDatabasePath(getDatabaseName());
+      if (dbFile.exists()) return;
+
+      QueryMetrics m = metrics;
+      long start = m != null ? System.nanoTime() : 0;
+      File tmpFile = new File(dbFile.getPath() + ".tmp");
+      try {
+         int assetVersion = readUserVersion(asset);
+         if (assetVersion < 1 || assetVersion > version) {
+            Log.e(TAG, "prebuilt database " + asset + " has version " + assetVersion
+                  + ", expected 1 to " + version + ", using dbInitialize instead");
+            return;
+         }
+
+         dbFile.getParentFile().mkdirs();
+         copyAsset(asset, tmpFile);
+         // a journal left behind by an old database would be applied to the new one
+         for (String suffix : new String[] { "-journal", "-wal", "-shm" }) {
+            new File(dbFile.getPath() + suffix).delete();
+         }
+         if (!tmpFile.renameTo(dbFile)) {
+            throw new IOException("could not rename " + tmpFile + " to " + dbFile);
+         }
+         if (m != null) m.databaseCreated(System.nanoTime() - start);
+      } catch (IOException e) {
+         Log.e(TAG, "could not install prebuilt database " + asset + ", using dbInitialize instead", e);
+         tmpFile.delete();
+      }
+   }
+
+   /**
+    * Read the user_version from the header of an SQLite database in the assets
+    */
+   private int readUserVersion(String asset) throws IOException {
+      byte[] header = new byte[100];
+      InputStream in = context.getAssets().open(asset);
+      try {
+         int read = 0;
+         while (read < header.length) {
+            int n = in.read(header, read, header.length - read);
+            if (n < 0) throw new IOException(asset + " is not an SQLite database");
+            read += n;
+         }
+      } finally {
+         in.close();
+      }
+
+      if (!new String(header, 0, 15, "US-ASCII").equals("SQLite format 3")) {
+         throw new IOException(asset + " is not an SQLite database");
+      }
+      return ((header[60] & 0xff) << 24) | ((header[61] & 0xff) << 16)
+            | ((header[62] & 0xff) << 8) | (header[63] & 0xff);
+   }
+
+   /**
+    * Copy an asset to a file, with a channel transfer if it is stored uncompressed
+    */
+   private void copyAsset(String asset, File target) throws IOException {
+      FileOutputStream out = new FileOutputStream(target);
+      try {
+         AssetFileDescriptor fd = null;
+         try {
+            fd = context.getAssets().openFd(asset);
+         } catch (FileNotFoundException e) {
+            // compressed, so it can only be streamed
+         }
+
+         if (fd != null && fd.getLength() >= 0) {
+            FileInputStream in = fd.createInputStream();
+            try {
+               FileChannel source = in.getChannel();
+               FileChannel destination = out.getChannel();
+               long offset = fd.getStartOffset();
+               long length = fd.getLength();
+               long copied = 0;
+               while (copied < length) {
+                  long n = source.transferTo(offset + copied, length - copied, destination);
+                  if (n <= 0) throw new IOException("unexpected end of " + asset);
+                  copied += n;
+               }
+            } finally {
+               in.close();
+               fd.close();
+            }
+         } else {
+            if (fd != null) fd.close();
+            InputStream in = context.getAssets().open(asset);
+            try {
+               byte[] buffer = new byte[64 * 1024];
+               int n;
+               while ((n = in.read(buffer)) > 0) {
+                  out.write(buffer, 0, n);
+               }
+            } finally {
+               in.close();
+            }
+         }
+         out.getFD().sync();
+      } finally {
+         out.close();
+      }
+   }
+
+   /**
+    * Close the SQLiteDatabase Object, along with the statements compiled against it
+    */
+   private void closeDbObject() {
+      if (dbObj != null) {
+         dbObj.close();
+         dbObj = null;
+      }
+   }
+
+   /**
+    * Get the shared database backend, opening the database if needed. Every call must
+    * be paired with a call to {@link #releaseDatabase()} when done with the database.
+    * The connection stays open while it is in use, and is closed by
+    * {@link #releaseDatabase()} according to the idle timeout.
+    * 
+    * @return SqlBackend the database
+    */
+   protected SqlBackend acquireBackend() {
+      synchronized (dbLock) {
+         if (idleClose != null) {
+            idleClose.cancel(false);
+            idleClose = null;
+         }
+         SqlBackend db = getDbObject();
+         dbRefCount++;
+         return db;
+      }
+   }
+
+   /**
+    * Like {@link #acquireBackend()}, for direct access to the SQLiteDatabase Object.
+    * Only available for an Android database, not an external backend (other than
+    * an AndroidSqlBackend).
+    * 
+    * @return SQLiteDatabase SQLiteDatabase Object
+    * @throws UnsupportedOperationException
+    *            if the service uses an external backend that is not an
+    *            AndroidSqlBackend
+    */
+   protected SQLiteDatabase acquireDatabase() throws UnsupportedOperationException {
+      if (externalBackend != null && !(externalBackend instanceof AndroidSqlBackend)) {
+         throw new UnsupportedOperationException("Not an SQLiteDatabase backend: "
+               + externalBackend.getClass().getName());
+      }
+      return ((AndroidSqlBackend) acquireBackend()).getDatabase();
+   }
+
+   /**
+    * Release the database obtained from {@link #acquireBackend()} or
+    * {@link #acquireDatabase()}. When
+    * it is no longer in use, the connection is closed immediately, after the idle
+    * timeout, or not at all, depending on {@link #setIdleTimeout(long)}. If
+    * {@link #shutdown()} was called while it was in use, it is closed now.
+    */
+   protected void releaseDatabase() {
+      synchronized (dbLock) {
+         if (dbRefCount > 0) dbRefCount--;
+         if (dbRefCount > 0) return;
+
+         if (closePending || idleTimeout == 0) {
+            closePending = false;
+            closeDbObject();
+         } else if (idleTimeout > 0 && dbObj != null) {
+            idleClose = IDLE_CLOSER.schedule(new Runnable() {
+               @Override
+               public void run() {
+                  synchronized (dbLock) {
+                     if (dbRefCount == 0) closeDbObject();
+                     idleClose = null;
+                  }
+               }
+            }, idleTimeout, TimeUnit.MILLISECONDS);
+         }
+      }
+   }
+
+   /**
+    * Set how long the database connection is kept open after the last call
+    * that used it. The default is {@link #DEFAULT_IDLE_TIMEOUT}.
+    * 
+    * @param millis
+    *           idle time before closing, 0 to close after every call, or
+    *           negative to keep the connection open until {@link #shutdown()}
+    */
+   public void setIdleTimeout(long millis) {
+      synchronized (dbLock) {
+         idleTimeout = millis;
+      }
+   }
+
+   /**
+    * Turn write-ahead logging on or off. With write-ahead logging, queries from
+    * different threads run in parallel on a pool of read-only connections, and are
+    * not blocked by a write or transaction in progress, which go through a single
+    * writer connection one at a time. Queries made inside a transaction run on the
+    * writer connection, so they see its changes. The database file gets -wal and
+    * -shm files alongside it. The change takes effect the next time the connection
+    * is opened (straight away if it is not in use).
+    * 
+    * @param enabled
+    *           true to use write-ahead logging
+    */
+   public void setWriteAheadLogging(boolean enabled) {
+      synchronized (dbLock) {
+         writeAheadLogging = enabled;
+         if (dbObj != null && dbRefCount == 0 && writeAheadLoggingEnabled != enabled) {
+            if (idleClose != null) {
+               idleClose.cancel(false);
+               idleClose = null;
+            }
+            closeDbObject();
+         }
+      }
+   }
+
+   /**
+    * Close the database connection, now if it is not in use, or else when the calls
+    * using it have finished. It will be opened again by the next call that needs it.
+    */
+   public void shutdown() {
+      synchronized (dbLock) {
+         if (idleClose != null) {
+            idleClose.cancel(false);
+            idleClose = null;
+         }
+         if (dbRefCount > 0) {
+            Log.w(TAG, "closing database after " + dbRefCount + " calls in progress");
+            closePending = true;
+         } else {
+            closeDbObject();
+         }
+      }
+   }
+
+   /**
+    * Get the parsed form of SQL containing #name# placeholders, from the cache
+    * if it has been seen before
+    *
+    * @param sql
+    *           SQL with #name# placeholders
+    * @return SqlTemplate the parsed SQL
+    */
+   SqlTemplate getTemplate(String sql) {
+      SqlTemplate template = templates.get(sql);
+      if (template == null) {
+         template = SqlTemplate.parse(sql);
+         templates.put(sql, template);
+         if (explainQueryPlans) explainQueryPlan(template.sql);
+      }
+      return template;
+   }
+
+   /**
+    * Check the query plan of each new statement, and report those that scan a whole
+    * table or sort into a temporary B-tree (i.e. that could use an index) to the
+    * log, as warnings, and to {@link QueryMetrics#queryPlanFlagged}. Each distinct
+    * statement is checked once: the first time it is run, it is run once more as
+    * EXPLAIN QUERY PLAN. Only use it while developing and testing.
+    * 
+    * @param enabled
+    *           true to check query plans
+    */
+   public void setExplainQueryPlans(boolean enabled) {
+      explainQueryPlans = enabled;
+   }
+
+   /**
+    * Run EXPLAIN QUERY PLAN on a statement, if it hasn't been checked yet
+    * 
+    * @param sql
+    *           SQL with "?" placeholders
+    */
+   private void explainQueryPlan(String sql) {
+      String verb = sql.trim().split("\\s+", 2)[0].toLowerCase(Locale.US);
+      if (!verb.equals("select") && !verb.equals("with") && !verb.equals("update") && !verb.equals("delete")) return;
+      synchronized (explained) {
+         if (!explained.add(sql)) return;
+      }
+
+      List<String> plan = new ArrayList<String>();
+      boolean flagged = false;
+      SqlBackend db = acquireBackend();
+      try {
+         Cursor cursor = db.query("explain query plan " + sql, new Object[0]);
+         try {
+            int detail = cursor.getColumnCount() - 1;
+            while (cursor.moveToNext()) {
+               String step = cursor.getString(detail);
+               plan.add(step);
+               flagged |= (step.startsWith("SCAN ") && !step.contains("CONSTANT ROW")) || step.contains("TEMP B-TREE");
+            }
+         } finally {
+            cursor.close();
+         }
+      } catch (SQLException e) {
+         Log.d(TAG, "could not explain " + sql + ": " + e.getMessage());
+         return;
+      } finally {
+         releaseDatabase();
+      }
+
+      if (flagged) {
+         Log.w(TAG, "query plan " + plan + " for: " + sql);
+         QueryMetrics m = metrics;
+         if (m != null) m.queryPlanFlagged(sql, plan);
+      }
+   }
+
    /**
     * JsonStringからBeanに変換する。
     * 
@@ -514,153 +1404,22 @@ public class AbatisService extends SQLiteOpenHelper {
     */
    @SuppressWarnings({ "rawtypes", "unchecked" })
    public Object parse(Cursor cursor, Class beanClass, String basePackage, Object obj) throws Exception {
-      //Object obj = null;
       // Check bean object
       if (beanClass == null) {
          Log.d(TAG, "Bean class is null");
          return null;
       }
-      // Read Class member fields
-      Field[] props = beanClass.getDeclaredFields();
-      if (props == null || props.length == 0) {
+      // Get the cached column to field mapping for this Bean class
+      BeanMapper mapper = BeanMapper.forCursor(beanClass, cursor);
+      if (!mapper.hasFields()) {
          Log.d(TAG, "Class" + beanClass.getName() + " has no fields");
          return null;
       }
       // Create instance of this Bean class
-      if (obj == null) obj = beanClass.newInstance();
-      
+      if (obj == null) obj = mapper.newBean(beanClass);
+
       // Set value of each member variable of this object
-      for (int i = 0; i < props.length; i++) {
-         String fieldName = props[i].getName();
-         fieldName = fieldName.replaceAll("_", "");
-         if (cursor.getColumnIndex(fieldName) < 0) continue;
-
-         // Skip public and static fields
-         if (props[i].getModifiers() == (Modifier.PUBLIC | Modifier.STATIC)) {
-            continue;
-         }
-         // Date Type of Field
-         Class type = props[i].getType();
-         String typeName = type.getName();
-         // Check for Custom type
-         if (typeName.equals("int") || typeName.equals("java.lang.Integer")) {
-            Class[] parms = { type };
-            try {
-               Method m = beanClass.getDeclaredMethod(getBeanMethodName(fieldName, 1), parms);
-               m.setAccessible(true);
-               // Set value
-               m.invoke(obj, cursor.getInt(cursor.getColumnIndex(fieldName)));
-            } catch (Exception ex) {
-               Log.d(TAG, ex.getMessage());
-            }
-         } else if (typeName.equals("long") || typeName.equals("java.lang.Long")) {
-            Class[] parms = { type };
-            try {
-               Method m = beanClass.getDeclaredMethod(getBeanMethodName(fieldName, 1), parms);
-               m.setAccessible(true);
-               // Set value
-               m.invoke(obj, cursor.getLong(cursor.getColumnIndex(fieldName)));
-            } catch (Exception ex) {
-               Log.d(TAG, ex.getMessage());
-            }
-         } else if (typeName.equals("boolean") || typeName.equals("java.lang.Boolean")) {
-            Class[] parms = { type };
-            try {
-               Method m = beanClass.getDeclaredMethod(getBeanMethodName(fieldName, 1), parms);
-               m.setAccessible(true);
-               // Set value
-               String val = cursor.getString(cursor.getColumnIndex(fieldName));
-               m.invoke(obj, val.equalsIgnoreCase("true"));
-            } catch (Exception ex) {
-               Log.d(TAG, ex.getMessage());
-            }
-         } else if (typeName.equals("java.lang.String")) {
-            Class[] parms = { type };
-            try {
-               Method m = beanClass.getDeclaredMethod(getBeanMethodName(fieldName, 1), parms);
-               m.setAccessible(true);
-               // Set value
-               m.invoke(obj, cursor.getString(cursor.getColumnIndex(fieldName)));
-            } catch (Exception ex) {
-               Log.d(TAG, ex.getMessage());
-            }
-         } else if (typeName.equals("double") || typeName.equals("java.lang.Double")) {
-            Class[] parms = { type };
-            try {
-               Method m = beanClass.getDeclaredMethod(getBeanMethodName(fieldName, 1), parms);
-               m.setAccessible(true);
-               // Set value
-               m.invoke(obj, cursor.getDouble(cursor.getColumnIndex(fieldName)));
-            } catch (Exception ex) {
-               Log.d(TAG, ex.getMessage());
-            }
-         } else if (typeName.equals("java.util.Date")) {
-            Class[] parms = { type };
-            try {
-               Method m = beanClass.getDeclaredMethod(getBeanMethodName(fieldName, 1), parms);
-               m.setAccessible(true);
-               Long dateVal = cursor.getLong((cursor.getColumnIndex(fieldName)));
-               if (cursor.isNull(cursor.getColumnIndex(fieldName)) || dateVal == 0) {
-                  m.invoke(obj, new Object[]{null});
-               } else {
-                  m.invoke(obj, new Date(dateVal));
-               }
-            } catch (Exception ex) {
-               Log.d(TAG, "error: " + ex.getMessage());
-            }
-//         } else if (type.getName().equals(List.class.getName()) || type.getName().equals(ArrayList.class.getName())) {
-//            // Find out the Generic
-//            String generic = props[i].getGenericType().toString();
-//            if (generic.indexOf("<") != -1) {
-//               String genericType = generic.substring(generic.lastIndexOf("<") + 1, generic.lastIndexOf(">"));
-//               if (genericType != null) {
-//                  JSONArray array = null;
-//                  try {
-//                     array = jsonObj.getJSONArray(fieldName);
-//                  } catch (Exception ex) {
-//                     Log.d(TAG, ex.getMessage());
-//                     array = null;
-//                  }
-//                  if (array == null) {
-//                     continue;
-//                  }
-//                  ArrayList arrayList = new ArrayList();
-//                  for (int j = 0; j < array.length(); j++) {
-//                     arrayList.add(parse(array.getJSONObject(j).toString(), Class.forName(genericType), basePackage));
-//                  }
-//                  // Set value
-//                  Class[] parms = { type };
-//                  try {
-//                     Method m = beanClass.getDeclaredMethod(getBeanMethodName(fieldName, 1), parms);
-//                     m.setAccessible(true);
-//                     m.invoke(obj, arrayList);
-//                  } catch (Exception ex) {
-//                     Log.d(TAG, ex.getMessage());
-//                  }
-//               }
-//            } else {
-//               // No generic defined
-//               generic = null;
-//            }
-//         } else if (typeName.startsWith(basePackage)) {
-//            Class[] parms = { type };
-//            try {
-//               Method m = beanClass.getDeclaredMethod(getBeanMethodName(fieldName, 1), parms);
-//               m.setAccessible(true);
-//               // Set value
-//               JSONObject customObj = jsonObj.getJSONObject(fieldName);
-//               if (customObj != null) {
-//                  m.invoke(obj, parse(customObj.toString(), type, basePackage));
-//               }
-//            } catch (JSONException ex) {
-//               Log.d(TAG, ex.getMessage());
-//            }
-         } else {
-            // Skip
-            Log.d(TAG, "Field " + fieldName + "#" + typeName + " is skip");
-         }
-      }
-      return obj;
+      return mapper.map(cursor, obj);
    }
 
    /**
@@ -670,7 +1429,7 @@ public class AbatisService extends SQLiteOpenHelper {
     * @param type
     * @return String MethodName
     */
-   private String getBeanMethodName(String fieldName, int type) {
+   static String getBeanMethodName(String fieldName, int type) {
       if (fieldName == null || fieldName == "") { return ""; }
       String methodName = "";
       if (type == 0) {
@@ -686,24 +1445,123 @@ public class AbatisService extends SQLiteOpenHelper {
    }
 
    /**
-    * Databaseカラム名をjava bean名に変換する。
-    * 
-    * @param targetStr
-    *           databaseカラム名
-    * @return String bean data名
+    * Execute an INSERT with the arguments bound to the cached compiled statement
+    * for the SQL.
+    *
+    * @param db
+    *           the backend from {@link #acquireBackend()}
+    * @param sql
+    *           SQL with "?" placeholders
+    * @param args
+    *           values for the placeholders
+    * @return long the row id of the inserted row
     */
-   private String chgDataName(String targetStr) {
-      Pattern p = Pattern.compile("_([a-z])");
-      Matcher m = p.matcher(targetStr);
+   protected long executeInsert(SqlBackend db, String sql, Object[] args) {
+      long start = startTiming();
+      long id = db.executeInsert(sql, args);
+      recordStatement(sql, args, start, id == -1 ? 0 : 1);
+      return id;
+   }
 
-      StringBuffer sb = new StringBuffer(targetStr.length());
-      while (m.find()) {
-         m.appendReplacement(sb, m.group(1).toUpperCase());
-      }
-      m.appendTail(sb);
-      return sb.toString();
+   /**
+    * Execute an UPDATE, DELETE or other statement that returns no rows, with the
+    * arguments bound to the cached compiled statement for the SQL.
+    *
+    * @param db
+    *           the backend from {@link #acquireBackend()}
+    * @param sql
+    *           SQL with "?" placeholders
+    * @param args
+    *           values for the placeholders
+    * @return int the number of rows affected
+    */
+   protected int executeUpdateDelete(SqlBackend db, String sql, Object[] args) {
+      long start = startTiming();
+      int rows = db.executeUpdateDelete(sql, args);
+      recordStatement(sql, args, start, rows);
+      return rows;
    }
-   
+
+   /**
+    * Set the receiver of statement timings, or null to disable metrics (the default)
+    *
+    * @param metrics
+    *           e.g. a {@link QueryStats}
+    */
+   public void setMetrics(QueryMetrics metrics) {
+      this.metrics = metrics;
+   }
+
+   public QueryMetrics getMetrics() {
+      return metrics;
+   }
+
+   /**
+    * Start timing a statement
+    *
+    * @return the start time to pass to {@link #recordStatement}, or 0 if metrics
+    *         are disabled
+    */
+   protected long startTiming() {
+      return metrics != null ? System.nanoTime() : 0;
+   }
+
+   /**
+    * Record the time taken by a statement that returns no rows, if metrics are enabled
+    *
+    * @param sql
+    *           SQL with "?" placeholders, or a description of the statement
+    * @param args
+    *           values for the placeholders
+    * @param start
+    *           the time from {@link #startTiming()}
+    * @param rows
+    *           the number of rows affected
+    */
+   protected void recordStatement(String sql, Object[] args, long start, int rows) {
+      QueryMetrics m = metrics;
+      if (m != null && start != 0) m.statementExecuted(sql, args, System.nanoTime() - start, rows);
+   }
+
+   private static void recordQuery(QueryMetrics m, String sql, Object[] args, long start, long queried, int rows) {
+      m.queryExecuted(sql, args, queried - start, System.nanoTime() - queried, rows);
+   }
+
+   /**
+    * Run the query of the cursor, which is otherwise deferred until the first row is
+    * read, so that it can be timed separately from reading the rows
+    *
+    * @return the time after running the query
+    */
+   private static long executed(Cursor cursor) {
+      cursor.getCount();
+      return System.nanoTime();
+   }
+
+   /**
+    * Get the values of a bean's fields, keyed by column name, using the same
+    * field to column mapping as {@link #parse(Cursor, Class, String, Object)}
+    *
+    * @param bean
+    *           the bean
+    * @return Map<String, Object> column values
+    */
+   public Map<String, Object> getBeanValues(Object bean) {
+      return BeanMapper.getValues(bean);
+   }
+
+   /**
+    * Get the names of the columns that are read into a bean class, using the same
+    * field to column mapping as {@link #executeForBeanList(String, Map, Class)}
+    *
+    * @param beanClass
+    *           the bean class
+    * @return String[] column names
+    */
+   public String[] getBeanColumns(Class<?> beanClass) {
+      return BeanMapper.getColumns(beanClass);
+   }
+
    /**
     * Convert value object to sanitized SQL string
     * @param value - the value object
@@ -727,7 +1585,7 @@ public class AbatisService extends SQLiteOpenHelper {
      } else if (value instanceof Date) {
         return String.valueOf(((Date) value).getTime());
      } else {
-       return "'" + val + "'"; // TODO escape special characters in val here
+       return "'" + val.replace("'", "''") + "'";
      }
    }    
 }
\ No newline at end of file
@@ -0,0 +1,215 @@
+package asia.sonix.android.orm;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.LruCache;
+
+/**
+ * The {@link SqlBackend} for an Android SQLiteDatabase. Statements run with
+ * {@link #executeInsert}, {@link #executeUpdateDelete} and the simple queries are
+ * compiled once and cached.
+ *
+ * <p>
+ * With write-ahead logging, the SQLiteDatabase runs queries on a pool of read-only
+ * connections, in parallel with each other and with a write in progress, while
+ * writes and transactions go through its single primary connection one at a time.
+ * Transactions are then begun in IMMEDIATE rather than EXCLUSIVE mode.
+ * </p>
+ *
+ * @author Toby Kurien
+ */
+public class AndroidSqlBackend implements SqlBackend {
+   private final SQLiteDatabase db;
+   private final boolean writeAheadLogging;
+
+   /**
+    * Compiled statements for db, keyed by SQL. The cache holds a reference to each
+    * statement, and so does each call using it, so a statement that is removed from
+    * the cache is only closed once the last call using it is done.
+    */
+   private final LruCache<String, SQLiteStatement> statements = new LruCache<String, SQLiteStatement>(25) {
+      @Override
+      protected void entryRemoved(boolean evicted, String key, SQLiteStatement oldValue, SQLiteStatement newValue) {
+         // releases the cache's reference
+         if (oldValue != newValue) oldValue.close();
+      }
+   };
+
+   public AndroidSqlBackend(SQLiteDatabase db) {
+      this(db, false);
+   }
+
+   /**
+    * @param writeAheadLogging
+    *           true if write-ahead logging has been enabled on the database
+    */
+   public AndroidSqlBackend(SQLiteDatabase db, boolean writeAheadLogging) {
+      this.db = db;
+      this.writeAheadLogging = writeAheadLogging;
+   }
+
+   /**
+    * @return SQLiteDatabase the database
+    */
+   public SQLiteDatabase getDatabase() {
+      return db;
+   }
+
+   /**
+    * Get a compiled statement, from the cache if it has been compiled before, and
+    * acquire a reference to it, so that it is not closed while in use. Every call
+    * must be paired with a call to releaseReference() on the statement. Statements
+    * must be bound and executed while synchronized on the statement, as they are
+    * shared between threads.
+    *
+    * @param sql
+    *           SQL with "?" placeholders
+    * @return SQLiteStatement compiled statement
+    */
+   protected SQLiteStatement acquireStatement(String sql) {
+      synchronized (statements) {
+         SQLiteStatement statement = statements.get(sql);
+         if (statement != null) {
+            statement.acquireReference();
+            return statement;
+         }
+      }
+
+      // compiled without holding the lock, as it may wait for the database connection
+      SQLiteStatement compiled = db.compileStatement(sql);
+      synchronized (statements) {
+         SQLiteStatement statement = statements.get(sql);
+         if (statement == null) {
+            statement = compiled;
+            statements.put(sql, statement);
+         } else {
+            // compiled by another thread in the meantime
+            compiled.close();
+         }
+         statement.acquireReference();
+         return statement;
+      }
+   }
+
+   @Override
+   public Cursor query(String sql, Object[] args) {
+      return SqlTemplate.query(db, sql, args);
+   }
+
+   @Override
+   public long simpleQueryForLong(String sql, Object[] args) {
+      SQLiteStatement statement = acquireStatement(sql);
+      try {
+         synchronized (statement) {
+            try {
+               SqlTemplate.bind(statement, args);
+               return statement.simpleQueryForLong();
+            } finally {
+               statement.clearBindings();
+            }
+         }
+      } finally {
+         statement.releaseReference();
+      }
+   }
+
+   @Override
+   public String simpleQueryForString(String sql, Object[] args) {
+      SQLiteStatement statement = acquireStatement(sql);
+      try {
+         synchronized (statement) {
+            try {
+               SqlTemplate.bind(statement, args);
+               return statement.simpleQueryForString();
+            } finally {
+               statement.clearBindings();
+            }
+         }
+      } finally {
+         statement.releaseReference();
+      }
+   }
+
+   @Override
+   public long executeInsert(String sql, Object[] args) {
+      SQLiteStatement statement = acquireStatement(sql);
+      try {
+         synchronized (statement) {
+            try {
+               SqlTemplate.bind(statement, args);
+               return statement.executeInsert();
+            } finally {
+               statement.clearBindings();
+            }
+         }
+      } finally {
+         statement.releaseReference();
+      }
+   }
+
+   @Override
+   public int executeUpdateDelete(String sql, Object[] args) {
+      SQLiteStatement statement = acquireStatement(sql);
+      try {
+         synchronized (statement) {
+            try {
+               SqlTemplate.bind(statement, args);
+               return statement.executeUpdateDelete();
+            } finally {
+               statement.clearBindings();
+            }
+         }
+      } finally {
+         statement.releaseReference();
+      }
+   }
+
+   @Override
+   public void execSQL(String sql) {
+      db.execSQL(sql);
+   }
+
+   @Override
+   public long insert(String table, ContentValues values) {
+      return db.insert(table, "", values);
+   }
+
+   @Override
+   public int update(String table, ContentValues values, String whereClause, String[] whereArgs) {
+      return db.update(table, values, whereClause, whereArgs);
+   }
+
+   @Override
+   public int delete(String table, String whereClause, String[] whereArgs) {
+      return db.delete(table, whereClause, whereArgs);
+   }
+
+   @Override
+   public void beginTransaction() {
+      if (writeAheadLogging) {
+         db.beginTransactionNonExclusive();
+      } else {
+         db.beginTransaction();
+      }
+   }
+
+   @Override
+   public void setTransactionSuccessful() {
+      db.setTransactionSuccessful();
+   }
+
+   @Override
+   public void endTransaction() {
+      db.endTransaction();
+   }
+
+   @Override
+   public void close() {
+      synchronized (statements) {
+         statements.evictAll();
+      }
+      db.close();
+   }
+}
@@ -0,0 +1,110 @@
+package asia.sonix.android.orm;
+
+import android.database.Cursor;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A lazy, single pass result of beans, read from the cursor one row at a time as it
+ * is iterated. Only the rows in the cursor's current window are held in memory, so
+ * memory use stays flat regardless of the size of the result. The cursor (and the
+ * database connection) is closed when iteration is complete, or by calling
+ * {@link #close()} when stopping early.
+ *
+ * @author Toby Kurien
+ */
+public class BeanCursor<T> implements Iterable<T>, Iterator<T>, Closeable {
+   private static final String TAG = "aBatis";
+
+   private final AbatisService service;
+   private final Cursor cursor;
+   private final Class<T> beanClass;
+   private final BeanMapper mapper;
+   private final boolean reuseBean;
+
+   private T bean;
+   private boolean hasRow = false;
+   private boolean moved = false;
+   private boolean closed = false;
+
+   /**
+    * @param service
+    *           the service the cursor's database was acquired from, to release it on close
+    * @param cursor
+    *           the query result, or null for an empty result
+    * @param beanClass
+    *           bean class of result
+    * @param reuseBean
+    *           true to populate the same bean instance for every row
+    */
+   BeanCursor(AbatisService service, Cursor cursor, Class<T> beanClass, boolean reuseBean) {
+      this.service = service;
+      this.cursor = cursor;
+      this.beanClass = beanClass;
+      this.reuseBean = reuseBean;
+      this.mapper = cursor == null ? null : BeanMapper.forCursor(beanClass, cursor);
+      if (cursor == null) closed = true;
+   }
+
+   /**
+    * Iterate over the result. A BeanCursor can only be iterated once.
+    */
+   @Override
+   public Iterator<T> iterator() {
+      return this;
+   }
+
+   @Override
+   public boolean hasNext() {
+      if (closed) return false;
+      if (!moved) {
+         hasRow = cursor.moveToNext();
+         moved = true;
+      }
+      if (!hasRow) close();
+      return hasRow;
+   }
+
+   @Override
+   @SuppressWarnings("unchecked")
+   public T next() {
+      if (!hasNext()) throw new NoSuchElementException();
+      moved = false;
+
+      try {
+         if (bean == null || !reuseBean) {
+            bean = (T) mapper.newBean(beanClass);
+         }
+         mapper.map(cursor, bean);
+      } catch (Exception e) {
+         Log.e(TAG, e.toString(), e);
+      }
+      return bean;
+   }
+
+   @Override
+   public void remove() {
+      throw new UnsupportedOperationException();
+   }
+
+   /**
+    * @return the number of rows in the result
+    */
+   public int getCount() {
+      return cursor == null ? 0 : cursor.getCount();
+   }
+
+   /**
+    * Close the cursor and release the database connection. Safe to call more than once.
+    */
+   @Override
+   public void close() {
+      if (closed) return;
+      closed = true;
+      cursor.close();
+      service.releaseDatabase();
+   }
+}
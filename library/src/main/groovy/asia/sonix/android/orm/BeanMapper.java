@@ -0,0 +1,329 @@
+package asia.sonix.android.orm;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps cursor rows onto a bean class. All the reflection needed to do this (declared
+ * fields, setter lookup, type conversion and column indexes) is resolved once per
+ * bean class and cursor column set and then cached, so that mapping a row is just a
+ * loop of typed cursor reads and setter calls. Beans implementing {@link CursorBean}
+ * (generated by @DbBean) map themselves, and only their column indexes are resolved.
+ *
+ * @author Toby Kurien
+ */
+final class BeanMapper {
+   private static final String TAG = "aBatis";
+
+   static final int TYPE_INT = 1;
+   static final int TYPE_LONG = 2;
+   static final int TYPE_BOOLEAN = 3;
+   static final int TYPE_STRING = 4;
+   static final int TYPE_DOUBLE = 5;
+   static final int TYPE_DATE = 6;
+
+   /**
+    * Mappable properties per bean class
+    */
+   private static final LruCache<Class<?>, Property[]> PROPERTIES = new LruCache<Class<?>, Property[]>(64);
+
+   /**
+    * Compiled mappers per bean class and cursor column set
+    */
+   private static final LruCache<Key, BeanMapper> MAPPERS = new LruCache<Key, BeanMapper>(64);
+
+   private final boolean hasFields;
+   private final int[] columns;
+   private final int[] types;
+   private final Method[] setters;
+   private final CursorBean prototype;
+
+   private BeanMapper(Property[] properties, Cursor cursor) {
+      List<Property> mapped = new ArrayList<Property>(properties.length);
+      List<Integer> indexes = new ArrayList<Integer>(properties.length);
+      for (Property property : properties) {
+         int index = cursor.getColumnIndex(property.name);
+         if (index < 0) continue;
+         if (property.type == 0) {
+            Log.d(TAG, "Field " + property.name + "#" + property.typeName + " is skip");
+            continue;
+         }
+         if (property.setter == null) {
+            Log.d(TAG, "No setter for field " + property.name);
+            continue;
+         }
+         mapped.add(property);
+         indexes.add(index);
+      }
+
+      hasFields = properties.length > 0;
+      prototype = null;
+      columns = new int[mapped.size()];
+      types = new int[mapped.size()];
+      setters = new Method[mapped.size()];
+      for (int i = 0; i < columns.length; i++) {
+         columns[i] = indexes.get(i);
+         types[i] = mapped.get(i).type;
+         setters[i] = mapped.get(i).setter;
+      }
+   }
+
+   private BeanMapper(CursorBean bean, Cursor cursor) {
+      String[] beanColumns = bean.cursorColumns();
+      hasFields = true;
+      prototype = bean;
+      columns = new int[beanColumns.length];
+      for (int i = 0; i < columns.length; i++) {
+         columns[i] = cursor.getColumnIndex(beanColumns[i]);
+      }
+      types = null;
+      setters = null;
+   }
+
+   /**
+    * Get the (cached) mapper for the specified bean class and the columns of the cursor
+    */
+   static BeanMapper forCursor(Class<?> beanClass, Cursor cursor) {
+      String[] columnNames = cursor.getColumnNames();
+      BeanMapper mapper = MAPPERS.get(new Key(beanClass, columnNames));
+      if (mapper == null) {
+         if (CursorBean.class.isAssignableFrom(beanClass)) {
+            try {
+               mapper = new BeanMapper((CursorBean) beanClass.newInstance(), cursor);
+            } catch (Exception e) {
+               throw new IllegalArgumentException("Could not instantiate " + beanClass.getName(), e);
+            }
+         } else {
+            mapper = new BeanMapper(getProperties(beanClass), cursor);
+         }
+         MAPPERS.put(new Key(beanClass, columnNames.clone()), mapper);
+      }
+      return mapper;
+   }
+
+   /**
+    * Get the (cached) mappable properties of the bean class
+    */
+   static Property[] getProperties(Class<?> beanClass) {
+      Property[] properties = PROPERTIES.get(beanClass);
+      if (properties == null) {
+         Field[] fields = beanClass.getDeclaredFields();
+         List<Property> list = new ArrayList<Property>(fields.length);
+         for (Field field : fields) {
+            // Skip public and static fields
+            if (field.getModifiers() == (Modifier.PUBLIC | Modifier.STATIC)) continue;
+            list.add(new Property(beanClass, field));
+         }
+         properties = list.toArray(new Property[list.size()]);
+         PROPERTIES.put(beanClass, properties);
+      }
+      return properties;
+   }
+
+   /**
+    * Get the names of the columns that are mapped onto the bean class, if present in
+    * the cursor
+    */
+   static String[] getColumns(Class<?> beanClass) {
+      if (CursorBean.class.isAssignableFrom(beanClass)) {
+         try {
+            return ((CursorBean) beanClass.newInstance()).cursorColumns();
+         } catch (Exception e) {
+            throw new IllegalArgumentException("Could not instantiate " + beanClass.getName(), e);
+         }
+      }
+
+      List<String> columns = new ArrayList<String>();
+      for (Property property : getProperties(beanClass)) {
+         if (property.type != 0 && property.setter != null) columns.add(property.name);
+      }
+      return columns.toArray(new String[columns.size()]);
+   }
+
+   /**
+    * @return false if the bean class has no declared fields at all
+    */
+   boolean hasFields() {
+      return hasFields;
+   }
+
+   /**
+    * Create a new bean, without reflection for CursorBean classes
+    */
+   Object newBean(Class<?> beanClass) throws InstantiationException, IllegalAccessException {
+      return prototype != null ? prototype.newBean() : beanClass.newInstance();
+   }
+
+   /**
+    * Populate the bean from the current row of the cursor
+    */
+   Object map(Cursor cursor, Object obj) {
+      if (prototype != null) {
+         ((CursorBean) obj).fromCursor(cursor, columns);
+         return obj;
+      }
+
+      for (int i = 0; i < columns.length; i++) {
+         int column = columns[i];
+         try {
+            switch (types[i]) {
+               case TYPE_INT:
+                  setters[i].invoke(obj, cursor.getInt(column));
+                  break;
+               case TYPE_LONG:
+                  setters[i].invoke(obj, cursor.getLong(column));
+                  break;
+               case TYPE_BOOLEAN:
+                  String val = cursor.getString(column);
+                  if (val != null) setters[i].invoke(obj, val.equalsIgnoreCase("true"));
+                  break;
+               case TYPE_STRING:
+                  setters[i].invoke(obj, cursor.getString(column));
+                  break;
+               case TYPE_DOUBLE:
+                  setters[i].invoke(obj, cursor.getDouble(column));
+                  break;
+               case TYPE_DATE:
+                  long dateVal = cursor.getLong(column);
+                  if (cursor.isNull(column) || dateVal == 0) {
+                     setters[i].invoke(obj, new Object[]{ null });
+                  } else {
+                     setters[i].invoke(obj, new Date(dateVal));
+                  }
+                  break;
+            }
+         } catch (Exception ex) {
+            Log.d(TAG, "error: " + ex.getMessage());
+         }
+      }
+      return obj;
+   }
+
+   /**
+    * Get the values of the mappable fields of a bean, keyed by column name
+    */
+   static Map<String, Object> getValues(Object bean) {
+      if (bean instanceof CursorBean) {
+         ContentValues contentValues = ((CursorBean) bean).toContentValues();
+         Map<String, Object> values = new LinkedHashMap<String, Object>(contentValues.size());
+         for (String key : contentValues.keySet()) {
+            values.put(key, contentValues.get(key));
+         }
+         return values;
+      }
+
+      Property[] properties = getProperties(bean.getClass());
+      Map<String, Object> values = new LinkedHashMap<String, Object>(properties.length);
+      for (Property property : properties) {
+         if (property.getter == null) continue;
+         try {
+            values.put(property.name, property.getter.invoke(bean));
+         } catch (Exception ex) {
+            Log.d(TAG, "error: " + ex.getMessage());
+         }
+      }
+      return values;
+   }
+
+   /**
+    * Get the converter type for a bean field type, or 0 if it is not supported
+    */
+   static int getType(Class<?> type) {
+      String typeName = type.getName();
+      if (typeName.equals("int") || typeName.equals("java.lang.Integer")) {
+         return TYPE_INT;
+      } else if (typeName.equals("long") || typeName.equals("java.lang.Long")) {
+         return TYPE_LONG;
+      } else if (typeName.equals("boolean") || typeName.equals("java.lang.Boolean")) {
+         return TYPE_BOOLEAN;
+      } else if (typeName.equals("java.lang.String")) {
+         return TYPE_STRING;
+      } else if (typeName.equals("double") || typeName.equals("java.lang.Double")) {
+         return TYPE_DOUBLE;
+      } else if (typeName.equals("java.util.Date")) {
+         return TYPE_DATE;
+      }
+      return 0;
+   }
+
+   /**
+    * A bean field that may be mapped to a column of the same name
+    */
+   static final class Property {
+      final String name;
+      final String typeName;
+      final int type;
+      final Method setter;
+      final Method getter;
+
+      Property(Class<?> beanClass, Field field) {
+         name = field.getName().replaceAll("_", "");
+         typeName = field.getType().getName();
+         type = getType(field.getType());
+
+         Method method = null;
+         if (type != 0) {
+            method = findMethod(beanClass, AbatisService.getBeanMethodName(name, 1), field.getType());
+         }
+         setter = method;
+
+         method = null;
+         if (type != 0) {
+            method = findMethod(beanClass, AbatisService.getBeanMethodName(name, 0));
+            if (method == null && type == TYPE_BOOLEAN) {
+               method = findMethod(beanClass, "is" + AbatisService.getBeanMethodName(name, 0).substring(3));
+            }
+         }
+         getter = method;
+      }
+
+      private static Method findMethod(Class<?> beanClass, String name, Class<?>... parameterTypes) {
+         try {
+            Method method = beanClass.getDeclaredMethod(name, parameterTypes);
+            method.setAccessible(true);
+            return method;
+         } catch (NoSuchMethodException e) {
+            return null;
+         }
+      }
+   }
+
+   /**
+    * Cache key of bean class and cursor column names
+    */
+   private static final class Key {
+      private final Class<?> beanClass;
+      private final String[] columnNames;
+      private final int hash;
+
+      Key(Class<?> beanClass, String[] columnNames) {
+         this.beanClass = beanClass;
+         this.columnNames = columnNames;
+         this.hash = 31 * beanClass.hashCode() + Arrays.hashCode(columnNames);
+      }
+
+      @Override
+      public boolean equals(Object o) {
+         if (!(o instanceof Key)) return false;
+         Key other = (Key) o;
+         return beanClass == other.beanClass && Arrays.equals(columnNames, other.columnNames);
+      }
+
+      @Override
+      public int hashCode() {
+         return hash;
+      }
+   }
+}
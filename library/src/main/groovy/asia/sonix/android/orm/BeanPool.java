@@ -0,0 +1,85 @@
+package asia.sonix.android.orm;
+
+import java.util.ArrayDeque;
+
+/**
+ * A pool of bean instances to recycle, e.g. for the rows of a list adapter that are
+ * filled with {@link CursorList#get(int, Object)}: a bean is taken from the pool when a
+ * row is bound and returned when its view is recycled, so scrolling allocates no
+ * beans once the pool is warm. Beans implementing {@link CursorBean} (generated by the
+ * DbBean annotation) are created without reflection.
+ *
+ * <p>
+ * Like a CursorList, a BeanPool is not thread safe: it is meant to be used by one
+ * thread, e.g. the UI thread binding the rows, and locking every acquire and release
+ * would cost more than the allocation it saves.
+ * </p>
+ *
+ * @author Toby Kurien
+ */
+public class BeanPool<T> {
+   private final Class<T> beanClass;
+   private final CursorBean prototype;
+   private final int maxSize;
+   private final ArrayDeque<T> free;
+   private int created = 0;
+
+   /**
+    * @param beanClass
+    *           the bean class
+    * @param maxSize
+    *           the maximum number of free beans to keep
+    */
+   public BeanPool(Class<T> beanClass, int maxSize) {
+      this.beanClass = beanClass;
+      this.maxSize = maxSize;
+      this.free = new ArrayDeque<T>(Math.min(maxSize, 64));
+      if (CursorBean.class.isAssignableFrom(beanClass)) {
+         try {
+            prototype = (CursorBean) beanClass.newInstance();
+         } catch (Exception e) {
+            throw new IllegalArgumentException("Could not instantiate " + beanClass.getName(), e);
+         }
+      } else {
+         prototype = null;
+      }
+   }
+
+   /**
+    * @return T a free bean from the pool, or a new one if the pool is empty. Its
+    *         fields still hold the values of its last use.
+    */
+   @SuppressWarnings("unchecked")
+   public T acquire() {
+      T bean = free.poll();
+      if (bean != null) return bean;
+
+      created++;
+      try {
+         return prototype != null ? (T) prototype.newBean() : beanClass.newInstance();
+      } catch (Exception e) {
+         throw new IllegalArgumentException("Could not instantiate " + beanClass.getName(), e);
+      }
+   }
+
+   /**
+    * Return a bean to the pool. It is dropped if the pool is full.
+    */
+   public void release(T bean) {
+      if (bean != null && free.size() < maxSize) free.push(bean);
+   }
+
+   /**
+    * @return int the number of beans created by the pool so far
+    */
+   public int getCreated() {
+      return created;
+   }
+
+   /**
+    * @return int the number of free beans in the pool
+    */
+   public int getFree() {
+      return free.size();
+   }
+}
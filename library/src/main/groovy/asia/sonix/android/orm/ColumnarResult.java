@@ -0,0 +1,459 @@
+package asia.sonix.android.orm;
+
+import android.database.Cursor;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A query result stored by column rather than by row. Each column is kept in a
+ * primitive array of its type (long[], double[], or dictionary encoded strings)
+ * with a bitmap for nulls, so scanning many rows does not allocate a Map (or box a
+ * number) per row, and column names are only looked up once for the whole result.
+ * Columns whose values have mixed types are widened to double or string.
+ *
+ * <pre>
+ * ColumnarResult result = db.executeForColumns("select amount, category from sales", null);
+ * int amount = result.getColumnIndex("amount");
+ * long total = 0;
+ * for (int row = 0; row &lt; result.getRowCount(); row++) {
+ *    total += result.getLong(row, amount);
+ * }
+ * </pre>
+ *
+ * @author Toby Kurien
+ */
+public class ColumnarResult {
+   private static final String TAG = "aBatis";
+
+   /**
+    * Column type with no values (all nulls)
+    */
+   public static final int TYPE_NULL = 0;
+   public static final int TYPE_LONG = 1;
+   public static final int TYPE_DOUBLE = 2;
+   public static final int TYPE_STRING = 3;
+   public static final int TYPE_BLOB = 4;
+
+   private final String[] columnNames;
+   private final Map<String, Integer> columnIndexes;
+   private final Column[] columns;
+   private final int rowCount;
+
+   /**
+    * Read all the rows of the cursor. The cursor is not closed.
+    */
+   ColumnarResult(Cursor cursor) {
+      columnNames = cursor.getColumnNames();
+      columnIndexes = new HashMap<String, Integer>(columnNames.length * 2);
+      for (int i = 0; i < columnNames.length; i++) {
+         columnIndexes.put(columnNames[i], i);
+      }
+
+      int capacity = Math.max(cursor.getCount(), 0);
+      columns = new Column[columnNames.length];
+      for (int i = 0; i < columns.length; i++) {
+         columns[i] = new Column(capacity);
+      }
+
+      int row = 0;
+      while (cursor.moveToNext()) {
+         for (int i = 0; i < columns.length; i++) {
+            columns[i].read(cursor, i, row);
+         }
+         row++;
+      }
+      rowCount = row;
+   }
+
+   public int getRowCount() {
+      return rowCount;
+   }
+
+   public int getColumnCount() {
+      return columnNames.length;
+   }
+
+   public String[] getColumnNames() {
+      return columnNames;
+   }
+
+   /**
+    * @return the index of the named column, or -1 if there is no such column
+    */
+   public int getColumnIndex(String columnName) {
+      Integer index = columnIndexes.get(columnName);
+      return index == null ? -1 : index;
+   }
+
+   /**
+    * @return one of the TYPE_* constants
+    */
+   public int getType(int column) {
+      return columns[column].type;
+   }
+
+   public boolean isNull(int row, int column) {
+      return columns[column].isNull(row);
+   }
+
+   /**
+    * Get a value as a long. Doubles are truncated, strings are parsed, and nulls are 0.
+    */
+   public long getLong(int row, int column) {
+      Column c = columns[column];
+      if (c.isNull(row)) return 0;
+      switch (c.type) {
+         case TYPE_LONG:
+            return c.longs[row];
+         case TYPE_DOUBLE:
+            return (long) c.doubles[row];
+         case TYPE_STRING:
+            try {
+               return Long.parseLong(c.dictionary[c.codes[row]]);
+            } catch (NumberFormatException e) {
+               return 0;
+            }
+         default:
+            return 0;
+      }
+   }
+
+   /**
+    * Get a value as a double. Strings are parsed, and nulls are 0.
+    */
+   public double getDouble(int row, int column) {
+      Column c = columns[column];
+      if (c.isNull(row)) return 0;
+      switch (c.type) {
+         case TYPE_LONG:
+            return c.longs[row];
+         case TYPE_DOUBLE:
+            return c.doubles[row];
+         case TYPE_STRING:
+            try {
+               return Double.parseDouble(c.dictionary[c.codes[row]]);
+            } catch (NumberFormatException e) {
+               return 0;
+            }
+         default:
+            return 0;
+      }
+   }
+
+   /**
+    * Get a value as a String, or null
+    */
+   public String getString(int row, int column) {
+      Column c = columns[column];
+      if (c.isNull(row)) return null;
+      switch (c.type) {
+         case TYPE_LONG:
+            return String.valueOf(c.longs[row]);
+         case TYPE_DOUBLE:
+            return String.valueOf(c.doubles[row]);
+         case TYPE_STRING:
+            return c.dictionary[c.codes[row]];
+         default:
+            return null;
+      }
+   }
+
+   public byte[] getBlob(int row, int column) {
+      Column c = columns[column];
+      if (c.isNull(row) || c.type != TYPE_BLOB) return null;
+      return c.blobs[row];
+   }
+
+   /**
+    * The values of a TYPE_LONG column, for scanning. The array may be longer than
+    * the row count, and null values are 0.
+    */
+   public long[] getLongs(int column) {
+      return columns[column].longs;
+   }
+
+   /**
+    * The values of a TYPE_DOUBLE column, for scanning. The array may be longer than
+    * the row count, and null values are 0.
+    */
+   public double[] getDoubles(int column) {
+      return columns[column].doubles;
+   }
+
+   /**
+    * The index into {@link #getDictionary(int)} of each value of a TYPE_STRING column
+    */
+   public int[] getStringCodes(int column) {
+      return columns[column].codes;
+   }
+
+   /**
+    * The distinct values of a TYPE_STRING column
+    */
+   public String[] getDictionary(int column) {
+      Column c = columns[column];
+      return c.dictionary == null ? null : Arrays.copyOf(c.dictionary, c.dictionarySize);
+   }
+
+   /**
+    * Get a view of a row. The same Row object can be moved to other rows with
+    * {@link Row#moveTo(int)}, so iterating does not allocate per row.
+    */
+   public Row getRow(int row) {
+      return new Row().moveTo(row);
+   }
+
+   /**
+    * Iterate over the rows using a single, re-used Row view
+    */
+   public Iterable<Row> rows() {
+      return new Iterable<Row>() {
+         @Override
+         public Iterator<Row> iterator() {
+            return new Iterator<Row>() {
+               private final Row row = new Row();
+               private int next = 0;
+
+               @Override
+               public boolean hasNext() {
+                  return next < rowCount;
+               }
+
+               @Override
+               public Row next() {
+                  if (next >= rowCount) throw new NoSuchElementException();
+                  return row.moveTo(next++);
+               }
+
+               @Override
+               public void remove() {
+                  throw new UnsupportedOperationException();
+               }
+            };
+         }
+      };
+   }
+
+   /**
+    * A lightweight view of one row of the result
+    */
+   public class Row {
+      private int row;
+
+      public Row moveTo(int row) {
+         if (row < 0 || row >= rowCount) throw new IndexOutOfBoundsException("row " + row);
+         this.row = row;
+         return this;
+      }
+
+      public int getPosition() {
+         return row;
+      }
+
+      public boolean isNull(int column) {
+         return ColumnarResult.this.isNull(row, column);
+      }
+
+      public long getLong(int column) {
+         return ColumnarResult.this.getLong(row, column);
+      }
+
+      public double getDouble(int column) {
+         return ColumnarResult.this.getDouble(row, column);
+      }
+
+      public String getString(int column) {
+         return ColumnarResult.this.getString(row, column);
+      }
+
+      public byte[] getBlob(int column) {
+         return ColumnarResult.this.getBlob(row, column);
+      }
+
+      public boolean isNull(String columnName) {
+         return isNull(getColumnIndex(columnName));
+      }
+
+      public long getLong(String columnName) {
+         return getLong(getColumnIndex(columnName));
+      }
+
+      public double getDouble(String columnName) {
+         return getDouble(getColumnIndex(columnName));
+      }
+
+      public String getString(String columnName) {
+         return getString(getColumnIndex(columnName));
+      }
+
+      public byte[] getBlob(String columnName) {
+         return getBlob(getColumnIndex(columnName));
+      }
+   }
+
+   /**
+    * The values of one column. The type is decided by the first non-null value, and
+    * widened if later values do not fit.
+    */
+   private static final class Column {
+      int type = TYPE_NULL;
+      int capacity;
+      long[] longs;
+      double[] doubles;
+      int[] codes;
+      String[] dictionary;
+      int dictionarySize;
+      Map<String, Integer> dictionaryCodes;
+      byte[][] blobs;
+      long[] nulls;
+
+      Column(int capacity) {
+         this.capacity = Math.max(capacity, 16);
+      }
+
+      boolean isNull(int row) {
+         if (type == TYPE_NULL) return true;
+         return nulls != null && (nulls[row >> 6] & (1L << row)) != 0;
+      }
+
+      void read(Cursor cursor, int column, int row) {
+         int valueType = cursor.getType(column);
+         if (valueType == Cursor.FIELD_TYPE_NULL) {
+            setNull(row);
+            return;
+         }
+
+         int wanted = toColumnType(valueType);
+         if (type == TYPE_NULL) {
+            allocate(wanted);
+         } else if (type != wanted) {
+            widen(wanted, row);
+         }
+         ensureCapacity(row);
+
+         switch (type) {
+            case TYPE_LONG:
+               longs[row] = cursor.getLong(column);
+               break;
+            case TYPE_DOUBLE:
+               doubles[row] = cursor.getDouble(column);
+               break;
+            case TYPE_STRING:
+               if (valueType == Cursor.FIELD_TYPE_BLOB) {
+                  Log.w(TAG, "blob value in string column " + cursor.getColumnName(column) + " read as null");
+                  setNull(row);
+               } else {
+                  codes[row] = encode(cursor.getString(column));
+               }
+               break;
+            case TYPE_BLOB:
+               if (valueType != Cursor.FIELD_TYPE_BLOB) {
+                  Log.w(TAG, "non-blob value in blob column " + cursor.getColumnName(column) + " read as null");
+                  setNull(row);
+               } else {
+                  blobs[row] = cursor.getBlob(column);
+               }
+               break;
+         }
+      }
+
+      private static int toColumnType(int valueType) {
+         switch (valueType) {
+            case Cursor.FIELD_TYPE_INTEGER:
+               return TYPE_LONG;
+            case Cursor.FIELD_TYPE_FLOAT:
+               return TYPE_DOUBLE;
+            case Cursor.FIELD_TYPE_BLOB:
+               return TYPE_BLOB;
+            default:
+               return TYPE_STRING;
+         }
+      }
+
+      private void allocate(int newType) {
+         type = newType;
+         switch (type) {
+            case TYPE_LONG:
+               longs = new long[capacity];
+               break;
+            case TYPE_DOUBLE:
+               doubles = new double[capacity];
+               break;
+            case TYPE_STRING:
+               codes = new int[capacity];
+               dictionary = new String[16];
+               dictionaryCodes = new HashMap<String, Integer>();
+               break;
+            case TYPE_BLOB:
+               blobs = new byte[capacity][];
+               break;
+         }
+      }
+
+      /**
+       * Convert the values read so far (before row) to a type that can also hold
+       * the new value
+       */
+      private void widen(int wanted, int row) {
+         if (type == TYPE_BLOB || wanted == TYPE_BLOB) {
+            // blob columns only hold blobs, and other columns read blobs as null
+            return;
+         }
+         if (type == TYPE_DOUBLE && wanted == TYPE_LONG) {
+            // longs fit in a double column
+            return;
+         }
+
+         long[] oldLongs = longs;
+         double[] oldDoubles = doubles;
+         int oldType = type;
+         longs = null;
+         doubles = null;
+
+         if (oldType == TYPE_LONG && wanted == TYPE_DOUBLE) {
+            allocate(TYPE_DOUBLE);
+            for (int i = 0; i < row; i++) doubles[i] = oldLongs[i];
+         } else {
+            allocate(TYPE_STRING);
+            for (int i = 0; i < row; i++) {
+               if (isNull(i)) continue;
+               codes[i] = encode(oldType == TYPE_LONG ? String.valueOf(oldLongs[i]) : String.valueOf(oldDoubles[i]));
+            }
+         }
+      }
+
+      private int encode(String value) {
+         Integer code = dictionaryCodes.get(value);
+         if (code == null) {
+            if (dictionarySize == dictionary.length) {
+               dictionary = Arrays.copyOf(dictionary, dictionarySize * 2);
+            }
+            code = dictionarySize;
+            dictionary[dictionarySize++] = value;
+            dictionaryCodes.put(value, code);
+         }
+         return code;
+      }
+
+      private void setNull(int row) {
+         ensureCapacity(row);
+         if (nulls == null) nulls = new long[(capacity + 63) >> 6];
+         nulls[row >> 6] |= 1L << row;
+      }
+
+      private void ensureCapacity(int row) {
+         if (row < capacity) return;
+         capacity = Math.max(capacity * 2, row + 1);
+         if (longs != null) longs = Arrays.copyOf(longs, capacity);
+         if (doubles != null) doubles = Arrays.copyOf(doubles, capacity);
+         if (codes != null) codes = Arrays.copyOf(codes, capacity);
+         if (blobs != null) blobs = Arrays.copyOf(blobs, capacity);
+         if (nulls != null) nulls = Arrays.copyOf(nulls, (capacity + 63) >> 6);
+      }
+   }
+}
@@ -0,0 +1,43 @@
+package asia.sonix.android.orm;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+/**
+ * A bean that can read itself from a cursor row and write itself to ContentValues
+ * without reflection. Implemented by classes annotated with @DbBean, whose methods
+ * are generated at compile time, and used instead of the reflective mapping
+ * whenever a bean class implements it.
+ *
+ * @author Toby Kurien
+ */
+public interface CursorBean {
+   /**
+    * @return a new, empty instance of the bean class
+    */
+   CursorBean newBean();
+
+   /**
+    * @return the names of the columns the bean is read from, in a fixed order
+    */
+   String[] cursorColumns();
+
+   /**
+    * Populate the bean from the current row of the cursor
+    *
+    * @param columns
+    *           the cursor index of each of {@link #cursorColumns()}, or -1 for
+    *           columns that are not in the cursor
+    */
+   void fromCursor(Cursor cursor, int[] columns);
+
+   /**
+    * Populate the bean from the current row of the cursor, looking up the columns by name
+    */
+   void fromCursor(Cursor cursor);
+
+   /**
+    * @return the values of the bean's fields, keyed by column name
+    */
+   ContentValues toContentValues();
+}
@@ -0,0 +1,123 @@
+package asia.sonix.android.orm;
+
+import android.database.Cursor;
+
+import java.io.Closeable;
+
+/**
+ * A random access result that reads rows from an open cursor on demand, for list
+ * adapters over large results. Rows are not copied up front, so only the cursor's
+ * current window is held in memory. A row can be read in three ways:
+ *
+ * <ul>
+ * <li>{@link #get(int)} maps the row into a new bean</li>
+ * <li>{@link #get(int, Object)} maps the row into an existing bean, e.g. one kept in
+ * a view holder or taken from a {@link BeanPool}, so no bean is allocated</li>
+ * <li>{@link #row(int)} returns a flyweight {@link CursorRow} that reads values
+ * straight from the cursor, without mapping the row at all</li>
+ * </ul>
+ *
+ * <p>
+ * The cursor and the database connection are held until {@link #close()} is called,
+ * e.g. when the adapter's data is replaced. Like a Cursor, a CursorList must only be
+ * used by one thread at a time.
+ * </p>
+ *
+ * @author Toby Kurien
+ */
+public class CursorList<T> implements Closeable {
+   private final AbatisService service;
+   private final Cursor cursor;
+   private final Class<T> beanClass;
+   private final BeanMapper mapper;
+   private final CursorRow row;
+   private boolean closed = false;
+
+   /**
+    * @param service
+    *           the service the cursor's database was acquired from, to release it on close
+    * @param cursor
+    *           the query result, or null for an empty result
+    * @param beanClass
+    *           bean class of result
+    */
+   CursorList(AbatisService service, Cursor cursor, Class<T> beanClass) {
+      this.service = service;
+      this.cursor = cursor;
+      this.beanClass = beanClass;
+      this.mapper = cursor == null ? null : BeanMapper.forCursor(beanClass, cursor);
+      this.row = cursor == null ? null : new CursorRow(cursor);
+      if (cursor == null) closed = true;
+   }
+
+   /**
+    * @return the number of rows in the result
+    */
+   public int size() {
+      return cursor == null ? 0 : cursor.getCount();
+   }
+
+   /**
+    * @return the bean class of the result
+    */
+   public Class<T> getBeanClass() {
+      return beanClass;
+   }
+
+   /**
+    * Map a row into a new bean
+    */
+   @SuppressWarnings("unchecked")
+   public T get(int position) {
+      moveTo(position);
+      try {
+         return (T) mapper.map(cursor, mapper.newBean(beanClass));
+      } catch (InstantiationException e) {
+         throw new IllegalArgumentException("Could not instantiate " + beanClass.getName(), e);
+      } catch (IllegalAccessException e) {
+         throw new IllegalArgumentException("Could not instantiate " + beanClass.getName(), e);
+      }
+   }
+
+   /**
+    * Map a row into an existing bean, overwriting its mapped fields
+    *
+    * @return T the bean
+    */
+   public T get(int position, T bean) {
+      moveTo(position);
+      mapper.map(cursor, bean);
+      return bean;
+   }
+
+   /**
+    * Move the flyweight row to a position. The same CursorRow is returned for every
+    * position, so read its values before moving it again.
+    */
+   public CursorRow row(int position) {
+      moveTo(position);
+      return row;
+   }
+
+   private void moveTo(int position) {
+      if (closed) throw new IllegalStateException("CursorList is closed");
+      if (!cursor.moveToPosition(position)) {
+         throw new IndexOutOfBoundsException("position " + position + ", size " + size());
+      }
+   }
+
+   public boolean isClosed() {
+      return closed;
+   }
+
+   /**
+    * Close the cursor and release the database connection. Safe to call more than once.
+    */
+   @Override
+   public void close() {
+      if (closed) return;
+      closed = true;
+      cursor.close();
+      service.releaseDatabase();
+   }
+}
@@ -0,0 +1,84 @@
+package asia.sonix.android.orm;
+
+import android.database.Cursor;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A flyweight view of the current row of a {@link CursorList}: values are read
+ * straight from the cursor when asked for, instead of being copied into a bean. There
+ * is one CursorRow per CursorList, which is moved to each row by
+ * {@link CursorList#row(int)}, so it must not be held on to. Values are converted
+ * the same way as when mapping beans: booleans from "true"/"false" and dates from ms
+ * since the epoch.
+ *
+ * @author Toby Kurien
+ */
+public final class CursorRow {
+   private final Cursor cursor;
+   private final Map<String, Integer> columns = new HashMap<String, Integer>();
+
+   CursorRow(Cursor cursor) {
+      this.cursor = cursor;
+   }
+
+   /**
+    * @return int the position of the row in the result
+    */
+   public int getPosition() {
+      return cursor.getPosition();
+   }
+
+   /**
+    * @return int the index of the column, looked up once per column name
+    * @throws IllegalArgumentException
+    *            if there is no such column
+    */
+   public int getColumnIndex(String column) {
+      Integer index = columns.get(column);
+      if (index == null) {
+         index = cursor.getColumnIndexOrThrow(column);
+         columns.put(column, index);
+      }
+      return index;
+   }
+
+   public boolean isNull(String column) {
+      return cursor.isNull(getColumnIndex(column));
+   }
+
+   public String getString(String column) {
+      return cursor.getString(getColumnIndex(column));
+   }
+
+   public long getLong(String column) {
+      return cursor.getLong(getColumnIndex(column));
+   }
+
+   public int getInt(String column) {
+      return cursor.getInt(getColumnIndex(column));
+   }
+
+   public double getDouble(String column) {
+      return cursor.getDouble(getColumnIndex(column));
+   }
+
+   public boolean getBoolean(String column) {
+      return "true".equalsIgnoreCase(cursor.getString(getColumnIndex(column)));
+   }
+
+   /**
+    * @return Date the date, or null if the value is null or 0
+    */
+   public Date getDate(String column) {
+      int index = getColumnIndex(column);
+      long value = cursor.getLong(index);
+      return cursor.isNull(index) || value == 0 ? null : new Date(value);
+   }
+
+   public byte[] getBlob(String column) {
+      return cursor.getBlob(getColumnIndex(column));
+   }
+}
@@ -0,0 +1,84 @@
+package asia.sonix.android.orm;
+
+import java.util.List;
+
+/**
+ * Receives the timings of the statements run by {@link AbatisService}. All methods do
+ * nothing by default, so subclasses only override what they need. Metrics are
+ * disabled (and cost nothing but a null check) unless set with
+ * {@link AbatisService#setMetrics(QueryMetrics)}. See {@link QueryStats} for an
+ * implementation that keeps histograms and a slow query log.
+ *
+ * <p>
+ * Methods are called on the thread that ran the statement, so implementations must
+ * be thread safe and fast.
+ * </p>
+ *
+ * @author Toby Kurien
+ */
+public abstract class QueryMetrics {
+   /**
+    * A query has been run and its result read
+    *
+    * @param sql
+    *           the SQL template, with "?" placeholders
+    * @param args
+    *           the values bound to the placeholders
+    * @param queryNanos
+    *           time taken to run the query
+    * @param mapNanos
+    *           time taken to read the result into maps or beans
+    * @param rows
+    *           the number of rows returned
+    */
+   public void queryExecuted(String sql, Object[] args, long queryNanos, long mapNanos, int rows) {
+   }
+
+   /**
+    * An insert, update, delete or other statement that returns no rows has been run
+    *
+    * @param sql
+    *           the SQL template, with "?" placeholders
+    * @param args
+    *           the values bound to the placeholders
+    * @param nanos
+    *           time taken
+    * @param rows
+    *           the number of rows affected
+    */
+   public void statementExecuted(String sql, Object[] args, long nanos, int rows) {
+   }
+
+   /**
+    * The database connection has been opened (including creating or upgrading the
+    * database, if needed)
+    */
+   public void databaseOpened(long nanos) {
+   }
+
+   /**
+    * The database has been created by onCreate()
+    */
+   public void databaseCreated(long nanos) {
+   }
+
+   /**
+    * The database has been upgraded by onUpgrade() from the previous version to this
+    * one. Called for each version in an upgrade, before it is committed.
+    */
+   public void databaseUpgraded(int version, long nanos) {
+   }
+
+   /**
+    * The query plan of a statement scans a whole table or sorts the rows into a
+    * temporary B-tree. Only called when enabled with
+    * {@link AbatisService#setExplainQueryPlans(boolean)}.
+    *
+    * @param sql
+    *           the SQL template, with "?" placeholders
+    * @param plan
+    *           the detail of each step of the plan, from EXPLAIN QUERY PLAN
+    */
+   public void queryPlanFlagged(String sql, List<String> plan) {
+   }
+}
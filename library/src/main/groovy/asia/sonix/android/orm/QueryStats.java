@@ -0,0 +1,253 @@
+package asia.sonix.android.orm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects statement metrics per SQL template: call count, rows, query and mapping
+ * time, and a latency histogram with power of two buckets (in microseconds), from
+ * which percentiles are estimated. Statements that take longer than the slow query
+ * threshold are kept, with their bind parameters, in a log of the most recent ones.
+ *
+ * <pre>
+ * QueryStats stats = new QueryStats(50);
+ * db.setMetrics(stats);
+ * ...
+ * Map&lt;String, Object&gt; snapshot = stats.snapshot();
+ * </pre>
+ *
+ * @author Toby Kurien
+ */
+public class QueryStats extends QueryMetrics {
+   /**
+    * Maximum number of SQL templates tracked separately, the rest are counted under
+    * {@link #OTHER}
+    */
+   public static final int MAX_TEMPLATES = 200;
+
+   /**
+    * The template that statements are counted under once there are MAX_TEMPLATES
+    */
+   public static final String OTHER = "(other)";
+
+   /**
+    * Number of histogram buckets: bucket 0 counts times under 1 µs, bucket i times
+    * from 2^(i-1) to 2^i µs, and the last bucket everything longer
+    */
+   public static final int BUCKETS = 32;
+
+   private static final int SLOW_LOG_SIZE = 50;
+
+   private final Map<String, TemplateStats> templates = new HashMap<String, TemplateStats>();
+   private final SlowQuery[] slowLog = new SlowQuery[SLOW_LOG_SIZE];
+   private int slowLogNext = 0;
+   private long slowCount = 0;
+   private volatile long slowThresholdNanos;
+
+   private long openCount = 0;
+   private long openNanos = 0;
+   private long maxOpenNanos = 0;
+   private long createNanos = -1;
+   private final Map<Integer, Long> upgradeNanos = new TreeMap<Integer, Long>();
+   private final Map<String, List<String>> flaggedPlans = new LinkedHashMap<String, List<String>>();
+
+   private static class TemplateStats {
+      long count;
+      long rows;
+      long totalNanos;
+      long mapNanos;
+      long maxNanos;
+      final long[] histogram = new long[BUCKETS];
+   }
+
+   private static class SlowQuery {
+      String sql;
+      String args;
+      long nanos;
+      int rows;
+      long time;
+   }
+
+   /**
+    * @param slowQueryMillis
+    *           statements taking at least this long (including reading the result)
+    *           are added to the slow query log, or negative to not log any
+    */
+   public QueryStats(long slowQueryMillis) {
+      setSlowQueryThreshold(slowQueryMillis);
+   }
+
+   public void setSlowQueryThreshold(long millis) {
+      slowThresholdNanos = millis < 0 ? Long.MAX_VALUE : millis * 1000000L;
+   }
+
+   @Override
+   public void queryExecuted(String sql, Object[] args, long queryNanos, long mapNanos, int rows) {
+      record(sql, args, queryNanos + mapNanos, mapNanos, rows);
+   }
+
+   @Override
+   public void statementExecuted(String sql, Object[] args, long nanos, int rows) {
+      record(sql, args, nanos, 0, rows);
+   }
+
+   @Override
+   public synchronized void databaseOpened(long nanos) {
+      openCount++;
+      openNanos += nanos;
+      maxOpenNanos = Math.max(maxOpenNanos, nanos);
+   }
+
+   @Override
+   public synchronized void databaseCreated(long nanos) {
+      createNanos = nanos;
+   }
+
+   @Override
+   public synchronized void databaseUpgraded(int version, long nanos) {
+      upgradeNanos.put(version, nanos);
+   }
+
+   @Override
+   public synchronized void queryPlanFlagged(String sql, List<String> plan) {
+      if (flaggedPlans.size() < MAX_TEMPLATES) flaggedPlans.put(sql, plan);
+   }
+
+   private void record(String sql, Object[] args, long nanos, long mapNanos, int rows) {
+      boolean slow = nanos >= slowThresholdNanos;
+      // format the parameters outside the lock
+      String argString = slow ? Arrays.toString(args) : null;
+
+      synchronized (this) {
+         TemplateStats stats = templates.get(sql);
+         if (stats == null) {
+            if (templates.size() >= MAX_TEMPLATES) sql = OTHER;
+            stats = templates.get(sql);
+            if (stats == null) {
+               stats = new TemplateStats();
+               templates.put(sql, stats);
+            }
+         }
+         stats.count++;
+         if (rows > 0) stats.rows += rows;
+         stats.totalNanos += nanos;
+         stats.mapNanos += mapNanos;
+         stats.maxNanos = Math.max(stats.maxNanos, nanos);
+         stats.histogram[bucket(nanos)]++;
+
+         if (slow) {
+            SlowQuery query = new SlowQuery();
+            query.sql = sql;
+            query.args = argString;
+            query.nanos = nanos;
+            query.rows = rows;
+            query.time = System.currentTimeMillis();
+            slowLog[slowLogNext] = query;
+            slowLogNext = (slowLogNext + 1) % SLOW_LOG_SIZE;
+            slowCount++;
+         }
+      }
+   }
+
+   private static int bucket(long nanos) {
+      long micros = nanos / 1000;
+      if (micros <= 0) return 0;
+      return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+   }
+
+   /**
+    * Estimate a percentile from the histogram, as the upper bound of its bucket (or
+    * the maximum time, if lower)
+    *
+    * @return the time in ms
+    */
+   private static double percentile(TemplateStats stats, double percentile) {
+      long target = (long) Math.ceil(stats.count * percentile);
+      long seen = 0;
+      for (int i = 0; i < stats.histogram.length - 1; i++) {
+         seen += stats.histogram[i];
+         if (seen >= target && stats.histogram[i] > 0) {
+            return Math.min((1L << i) / 1000d, stats.maxNanos / 1e6);
+         }
+      }
+      return stats.maxNanos / 1e6;
+   }
+
+   /**
+    * Get a copy of the metrics collected so far
+    *
+    * @return Map with "statements" (per SQL template: count, rows, totalMs, mapMs,
+    *         maxMs, p50Ms, p90Ms, p99Ms and the histogram), "slowQueries" (the most
+    *         recent first: sql, args, ms, rows, time), "slowQueryCount", "opens",
+    *         "openMs", "maxOpenMs", "createMs" (or -1 if not created by this process)
+    *         "upgradeMs" (the time to upgrade to each version) and "flaggedPlans" (the
+    *         query plan of each statement that scans a table or sorts without an index)
+    */
+   public synchronized Map<String, Object> snapshot() {
+      Map<String, Object> statements = new LinkedHashMap<String, Object>();
+      for (Map.Entry<String, TemplateStats> entry : templates.entrySet()) {
+         TemplateStats stats = entry.getValue();
+         Map<String, Object> values = new LinkedHashMap<String, Object>();
+         values.put("count", stats.count);
+         values.put("rows", stats.rows);
+         values.put("totalMs", stats.totalNanos / 1e6);
+         values.put("mapMs", stats.mapNanos / 1e6);
+         values.put("maxMs", stats.maxNanos / 1e6);
+         values.put("p50Ms", percentile(stats, 0.5));
+         values.put("p90Ms", percentile(stats, 0.9));
+         values.put("p99Ms", percentile(stats, 0.99));
+         values.put("histogram", stats.histogram.clone());
+         statements.put(entry.getKey(), values);
+      }
+
+      List<Map<String, Object>> slowQueries = new ArrayList<Map<String, Object>>();
+      for (int i = 1; i <= SLOW_LOG_SIZE; i++) {
+         SlowQuery query = slowLog[(slowLogNext - i + SLOW_LOG_SIZE) % SLOW_LOG_SIZE];
+         if (query == null) break;
+         Map<String, Object> values = new LinkedHashMap<String, Object>();
+         values.put("sql", query.sql);
+         values.put("args", query.args);
+         values.put("ms", query.nanos / 1e6);
+         values.put("rows", query.rows);
+         values.put("time", query.time);
+         slowQueries.add(values);
+      }
+
+      Map<String, Object> result = new LinkedHashMap<String, Object>();
+      result.put("statements", statements);
+      result.put("slowQueries", slowQueries);
+      result.put("slowQueryCount", slowCount);
+      result.put("opens", openCount);
+      result.put("openMs", openNanos / 1e6);
+      result.put("maxOpenMs", maxOpenNanos / 1e6);
+      result.put("createMs", createNanos < 0 ? -1d : createNanos / 1e6);
+      Map<Integer, Double> upgrades = new LinkedHashMap<Integer, Double>();
+      for (Map.Entry<Integer, Long> entry : upgradeNanos.entrySet()) {
+         upgrades.put(entry.getKey(), entry.getValue() / 1e6);
+      }
+      result.put("upgradeMs", upgrades);
+      result.put("flaggedPlans", new LinkedHashMap<String, List<String>>(flaggedPlans));
+      return result;
+   }
+
+   /**
+    * Clear the metrics collected so far
+    */
+   public synchronized void reset() {
+      templates.clear();
+      Arrays.fill(slowLog, null);
+      slowLogNext = 0;
+      slowCount = 0;
+      openCount = 0;
+      openNanos = 0;
+      maxOpenNanos = 0;
+      createNanos = -1;
+      upgradeNanos.clear();
+      flaggedPlans.clear();
+   }
+}
@@ -0,0 +1,112 @@
+package asia.sonix.android.orm;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+/**
+ * The storage operations that {@link AbatisService} needs from an SQLite database.
+ * On Android this is {@link AndroidSqlBackend}, wrapping an SQLiteDatabase. Other
+ * implementations allow the ORM to run off-device, e.g. on a plain JVM for
+ * benchmarks (see the benchmark module).
+ *
+ * <p>
+ * Arguments are bound with their types, like {@link SqlTemplate#bind}: numbers as
+ * numbers, booleans as "true"/"false", dates as ms since the epoch, byte[] as blobs
+ * and anything else as a string. Implementations must be safe to use from several
+ * threads.
+ * </p>
+ *
+ * @author Toby Kurien
+ */
+public interface SqlBackend {
+   /**
+    * Run a query
+    *
+    * @param sql
+    *           SQL with "?" placeholders
+    * @param args
+    *           values for the placeholders
+    * @return Cursor the result, which the caller must close
+    */
+   Cursor query(String sql, Object[] args);
+
+   /**
+    * Run a query that returns a single number, e.g. a count
+    *
+    * @return long the first column of the first row, or 0 if it is null
+    * @throws android.database.sqlite.SQLiteDoneException
+    *            if the query returns no rows
+    */
+   long simpleQueryForLong(String sql, Object[] args);
+
+   /**
+    * Run a query that returns a single value
+    *
+    * @return String the first column of the first row, or null if it is null
+    * @throws android.database.sqlite.SQLiteDoneException
+    *            if the query returns no rows
+    */
+   String simpleQueryForString(String sql, Object[] args);
+
+   /**
+    * Run an INSERT
+    *
+    * @return long the row id of the inserted row, or -1 if it was not inserted
+    */
+   long executeInsert(String sql, Object[] args);
+
+   /**
+    * Run an UPDATE, DELETE or other statement that returns no rows
+    *
+    * @return int the number of rows affected
+    */
+   int executeUpdateDelete(String sql, Object[] args);
+
+   /**
+    * Run a single SQL statement without arguments, e.g. to create a table
+    */
+   void execSQL(String sql);
+
+   /**
+    * Insert a row, like SQLiteDatabase.insert()
+    *
+    * @return long the row id of the inserted row, or -1 on error
+    */
+   long insert(String table, ContentValues values);
+
+   /**
+    * Update rows, like SQLiteDatabase.update()
+    *
+    * @return int the number of rows affected
+    */
+   int update(String table, ContentValues values, String whereClause, String[] whereArgs);
+
+   /**
+    * Delete rows, like SQLiteDatabase.delete()
+    *
+    * @return int the number of rows affected
+    */
+   int delete(String table, String whereClause, String[] whereArgs);
+
+   /**
+    * Begin a transaction on the calling thread. Transactions can be nested, and are
+    * committed by the outermost {@link #endTransaction()} if every level was marked
+    * successful, or rolled back otherwise.
+    */
+   void beginTransaction();
+
+   /**
+    * Mark the current transaction as successful
+    */
+   void setTransactionSuccessful();
+
+   /**
+    * End the current transaction
+    */
+   void endTransaction();
+
+   /**
+    * Close the database, along with any compiled statements
+    */
+   void close();
+}
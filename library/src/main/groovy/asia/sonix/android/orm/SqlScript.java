@@ -0,0 +1,105 @@
+package asia.sonix.android.orm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits an SQL script into statements. Unlike splitting on ";", semicolons inside
+ * string literals, quoted identifiers, comments and the BEGIN ... END body of a
+ * CREATE TRIGGER do not end a statement. Comments are removed.
+ *
+ * @author Toby Kurien
+ */
+final class SqlScript {
+   private SqlScript() {
+   }
+
+   /**
+    * @param script
+    *           SQL statements separated by ";"
+    * @return List<String> the statements, without the ";" and without empty statements
+    */
+   static List<String> split(String script) {
+      List<String> statements = new ArrayList<String>();
+      StringBuilder statement = new StringBuilder();
+      // BEGIN/CASE ... END nesting depth inside a trigger
+      int depth = 0;
+      boolean trigger = false;
+      // the number of words in the statement so far, and the first two of them
+      int words = 0;
+      String first = null;
+      String second = null;
+
+      int len = script.length();
+      int i = 0;
+      while (i < len) {
+         char c = script.charAt(i);
+         if (c == '\'' || c == '"' || c == '`' || c == '[') {
+            char close = c == '[' ? ']' : c;
+            int end = i + 1;
+            while (end < len) {
+               if (script.charAt(end) == close) {
+                  // a doubled quote is an escaped quote
+                  if (close != ']' && end + 1 < len && script.charAt(end + 1) == close) {
+                     end += 2;
+                     continue;
+                  }
+                  break;
+               }
+               end++;
+            }
+            end = Math.min(end + 1, len);
+            statement.append(script, i, end);
+            i = end;
+         } else if (c == '-' && i + 1 < len && script.charAt(i + 1) == '-') {
+            int end = script.indexOf('\n', i);
+            i = end < 0 ? len : end;
+            statement.append(' ');
+         } else if (c == '/' && i + 1 < len && script.charAt(i + 1) == '*') {
+            int end = script.indexOf("*/", i + 2);
+            i = end < 0 ? len : end + 2;
+            statement.append(' ');
+         } else if (Character.isLetter(c) || c == '_') {
+            int end = i + 1;
+            while (end < len && (Character.isLetterOrDigit(script.charAt(end)) || script.charAt(end) == '_')) end++;
+            String word = script.substring(i, end);
+            statement.append(word);
+            i = end;
+
+            // CREATE [TEMP|TEMPORARY] TRIGGER
+            words++;
+            if (words == 1) {
+               first = word;
+            } else if (words == 2) {
+               second = word;
+               trigger = first.equalsIgnoreCase("create") && word.equalsIgnoreCase("trigger");
+            } else if (words == 3) {
+               trigger = trigger || first.equalsIgnoreCase("create") && word.equalsIgnoreCase("trigger")
+                     && (second.equalsIgnoreCase("temp") || second.equalsIgnoreCase("temporary"));
+            } else if (trigger) {
+               if (word.equalsIgnoreCase("begin") || word.equalsIgnoreCase("case")) {
+                  depth++;
+               } else if (word.equalsIgnoreCase("end") && depth > 0) {
+                  depth--;
+               }
+            }
+         } else if (c == ';' && depth == 0) {
+            add(statements, statement);
+            statement.setLength(0);
+            trigger = false;
+            words = 0;
+            i++;
+         } else {
+            statement.append(c);
+            i++;
+         }
+      }
+      add(statements, statement);
+      return statements;
+   }
+
+   private static void add(List<String> statements, StringBuilder statement) {
+      String sql = statement.toString().trim();
+      if (sql.length() > 0) statements.add(sql);
+   }
+}
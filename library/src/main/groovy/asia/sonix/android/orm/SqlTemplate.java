@@ -0,0 +1,146 @@
+package asia.sonix.android.orm;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteProgram;
+import android.database.sqlite.SQLiteQuery;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An SQL statement with #name# placeholders, parsed once into positional "?" SQL
+ * and the list of parameter names for each position. Values are then bound to the
+ * compiled statement instead of being pasted into the SQL, so that SQLite can reuse
+ * its prepared statements and string values never need escaping.
+ *
+ * @author Toby Kurien
+ */
+final class SqlTemplate {
+   /**
+    * The SQL with placeholders replaced by "?"
+    */
+   final String sql;
+
+   /**
+    * The parameter name for each "?" in the SQL
+    */
+   final String[] paramNames;
+
+   /**
+    * True if the SQL contains a '#' that is not part of a placeholder
+    */
+   final boolean malformed;
+
+   private SqlTemplate(String sql, String[] paramNames, boolean malformed) {
+      this.sql = sql;
+      this.paramNames = paramNames;
+      this.malformed = malformed;
+   }
+
+   /**
+    * Parse SQL containing #name# placeholders. Quoted strings and identifiers are
+    * copied as-is.
+    */
+   static SqlTemplate parse(String template) {
+      StringBuilder sql = new StringBuilder(template.length());
+      List<String> names = new ArrayList<String>();
+      boolean malformed = false;
+      char quote = 0;
+
+      int len = template.length();
+      for (int i = 0; i < len; i++) {
+         char c = template.charAt(i);
+         if (quote != 0) {
+            if (c == quote) quote = 0;
+            sql.append(c);
+         } else if (c == '\'' || c == '"' || c == '`') {
+            quote = c;
+            sql.append(c);
+         } else if (c == '#') {
+            int end = i + 1;
+            while (end < len && isNameChar(template.charAt(end))) end++;
+            if (end < len && end > i + 1 && template.charAt(end) == '#') {
+               names.add(template.substring(i + 1, end));
+               sql.append('?');
+               i = end;
+            } else {
+               malformed = true;
+               sql.append(c);
+            }
+         } else {
+            sql.append(c);
+         }
+      }
+
+      return new SqlTemplate(sql.toString(), names.toArray(new String[names.size()]), malformed);
+   }
+
+   private static boolean isNameChar(char c) {
+      return c != '#' && c != '\'' && c != '"' && c != '`' && !Character.isWhitespace(c);
+   }
+
+   /**
+    * Get the positional arguments for this statement from the named parameters.
+    *
+    * @return the arguments, or null if a parameter is missing or the SQL is malformed
+    */
+   Object[] getArgs(Map<String, ? extends Object> bindParams) {
+      if (malformed) return null;
+      Object[] args = new Object[paramNames.length];
+      for (int i = 0; i < paramNames.length; i++) {
+         if (bindParams == null || !bindParams.containsKey(paramNames[i])) return null;
+         args[i] = bindParams.get(paramNames[i]);
+      }
+      return args;
+   }
+
+   /**
+    * Bind the arguments to a compiled statement or query, using the same value
+    * conversions as {@link AbatisService#toSqlString(Object)}
+    */
+   static void bind(SQLiteProgram program, Object[] args) {
+      for (int i = 0; i < args.length; i++) {
+         Object value = args[i];
+         int index = i + 1;
+         if (value == null) {
+            program.bindNull(index);
+         } else if (value instanceof Integer || value instanceof Long
+               || value instanceof Short || value instanceof Byte) {
+            program.bindLong(index, ((Number) value).longValue());
+         } else if (value instanceof Float || value instanceof Double) {
+            program.bindDouble(index, ((Number) value).doubleValue());
+         } else if (value instanceof Boolean) {
+            program.bindString(index, (Boolean) value ? "true" : "false");
+         } else if (value instanceof Date) {
+            program.bindLong(index, ((Date) value).getTime());
+         } else if (value instanceof byte[]) {
+            program.bindBlob(index, (byte[]) value);
+         } else {
+            program.bindString(index, String.valueOf(value));
+         }
+      }
+   }
+
+   /**
+    * Run the query with typed arguments bound. {@link SQLiteDatabase#rawQuery(String, String[])}
+    * only binds strings, which breaks comparisons against columns without numeric affinity.
+    */
+   static Cursor query(SQLiteDatabase db, String sql, final Object[] args) {
+      if (args.length == 0) {
+         return db.rawQuery(sql, null);
+      }
+
+      return db.rawQueryWithFactory(new SQLiteDatabase.CursorFactory() {
+         @Override
+         public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver driver, String editTable, SQLiteQuery query) {
+            bind(query, args);
+            return new SQLiteCursor(driver, editTable, query);
+         }
+      }, sql, null, null);
+   }
+}
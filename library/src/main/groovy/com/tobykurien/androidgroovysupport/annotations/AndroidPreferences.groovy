@@ -6,6 +6,7 @@ import groovy.transform.CompileStatic
 import org.codehaus.groovy.ast.*
 import org.codehaus.groovy.ast.builder.AstBuilder
 import org.codehaus.groovy.ast.stmt.BlockStatement
+import org.codehaus.groovy.classgen.VariableScopeVisitor
 import org.codehaus.groovy.control.CompilePhase
 import org.codehaus.groovy.control.SourceUnit
 import org.codehaus.groovy.transform.AbstractASTTransformation
@@ -17,10 +18,20 @@ import java.lang.annotation.Retention
 import java.lang.annotation.RetentionPolicy
 import java.lang.annotation.Target
 
+/**
+ * Generates a getter and setter for each public field of a BasePreferences subclass,
+ * reading and writing the preference of the same name. The field's initial value is
+ * the default.
+ *
+ * With writeBack = true, each preference is read from disk once and then kept in its
+ * field, and setters only queue the change to be written in a batch (see
+ * BasePreferences.writeBack() and flush()).
+ */
 @Retention (RetentionPolicy.SOURCE)
 @Target ([ElementType.TYPE])
 @GroovyASTTransformationClass (["com.tobykurien.androidgroovysupport.annotations.PreferenceTransformation"])
 public @interface AndroidPreferences {
+    boolean writeBack() default false
 }
 
 @CompileStatic
@@ -36,27 +47,53 @@ public class PreferenceTransformation extends AbstractASTTransformation {
 //        if (astNodes[0].classNode?.name != TestAnnotation.class.getName()) return
         if (!(astNodes[1] instanceof ClassNode)) return
 
+        AnnotationNode annotation = astNodes[0] as AnnotationNode
         ClassNode clazz = astNodes[1] as ClassNode
+        boolean writeBack = memberHasValue(annotation, "writeBack", true)
         if (!clazz.isDerivedFrom(ClassHelper.make(BasePreferences))) {
             //clazz.setSuperClass(ClassHelper.make(BasePreferences))
         }
 
         //clazz.addMethod(getSettings(clazz))
 
-        clazz.getFields().each { field ->
+        new ArrayList<FieldNode>(clazz.getFields()).each { field ->
             if (field.isPublic()) {
-                clazz.addMethod(prefGetter(field))
-                clazz.addMethod(prefSetter(field))
+                if (writeBack) {
+                    clazz.addField(loadedField(clazz, field))
+                    clazz.addMethod(cachedGetter(field))
+                    clazz.addMethod(writeBackSetter(field))
+                } else {
+                    clazz.addMethod(prefGetter(field))
+                    clazz.addMethod(prefSetter(field))
+                }
             }
         }
+
+        // resolve the variables in the generated code
+        if (writeBack) new VariableScopeVisitor(sourceUnit, true).visitClass(clazz)
     }
 
     String toFirstUpper(String name) {
         name[0].toUpperCase() + name[1..-1]
     }
 
+    /**
+     * The SharedPreferences type name for a field, e.g. "Int" for getInt()
+     */
+    String prefType(FieldNode field) {
+        switch (field.type.name) {
+            case "int":
+            case "java.lang.Integer":
+                return "Int"
+            case "java.util.Set":
+                return "StringSet"
+            default:
+                return toFirstUpper(ClassHelper.getWrapper(field.type).nameWithoutPackage)
+        }
+    }
+
     MethodNode prefGetter(FieldNode field) {
-        def type = field.type.nameWithoutPackage
+        def type = prefType(field)
 
         def ast = new AstBuilder().buildFromString("""
             return pref.get${type}("${field.name}", ${field.name})
@@ -70,7 +107,7 @@ public class PreferenceTransformation extends AbstractASTTransformation {
     }
 
     MethodNode prefSetter(FieldNode field) {
-        def type = field.type.nameWithoutPackage
+        def type = prefType(field)
 
         def ast = new AstBuilder().buildFromString("""
             pref.edit().put${type}("${field.name}", ${field.name}).commit()
@@ -85,6 +122,48 @@ public class PreferenceTransformation extends AbstractASTTransformation {
         return meth
     }
 
+    String loadedName(FieldNode field) {
+        field.name + '$loaded'
+    }
+
+    FieldNode loadedField(ClassNode clazz, FieldNode field) {
+        new FieldNode(loadedName(field), ACC_PRIVATE, ClassHelper.boolean_TYPE, clazz, null)
+    }
+
+    MethodNode cachedGetter(FieldNode field) {
+        def type = prefType(field)
+
+        def ast = new AstBuilder().buildFromString("""
+            if (!${loadedName(field)}) {
+                ${field.name} = pref.get${type}("${field.name}", ${field.name})
+                ${loadedName(field)} = true
+            }
+            return ${field.name}
+        """)
+
+        def getterName = "get" + toFirstUpper(field.name)
+        def meth = new MethodNode(getterName, ACC_PUBLIC, field.type,
+                new Parameter[0], new ClassNode[0], ast[0] as BlockStatement)
+
+        return meth
+    }
+
+    MethodNode writeBackSetter(FieldNode field) {
+        def ast = new AstBuilder().buildFromString("""
+            this.${field.name} = ${field.name}
+            ${loadedName(field)} = true
+            writeBack("${field.name}", ${field.name})
+            return
+        """)
+
+        def setterName = "set" + toFirstUpper(field.name)
+        def meth = new MethodNode(setterName, ACC_PUBLIC, ClassHelper.VOID_TYPE,
+                [ new Parameter(field.type, field.name)] as Parameter[],
+                new ClassNode[0], ast[0] as BlockStatement)
+
+        return meth
+    }
+
     MethodNode getSettings(ClassNode clazz) {
         def ast = new AstBuilder().buildFromString("""
             getPreferences(context, ${clazz.name})
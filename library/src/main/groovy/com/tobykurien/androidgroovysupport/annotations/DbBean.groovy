@@ -0,0 +1,224 @@
+package com.tobykurien.androidgroovysupport.annotations
+
+import android.content.ContentValues
+import android.database.Cursor
+import asia.sonix.android.orm.CursorBean
+import groovy.transform.CompileStatic
+import org.codehaus.groovy.ast.*
+import org.codehaus.groovy.ast.expr.ArrayExpression
+import org.codehaus.groovy.ast.expr.BinaryExpression
+import org.codehaus.groovy.ast.expr.ConstantExpression
+import org.codehaus.groovy.ast.expr.Expression
+import org.codehaus.groovy.ast.stmt.BlockStatement
+import org.codehaus.groovy.classgen.VariableScopeVisitor
+import org.codehaus.groovy.control.CompilePhase
+import org.codehaus.groovy.control.SourceUnit
+import org.codehaus.groovy.syntax.Token
+import org.codehaus.groovy.syntax.Types
+import org.codehaus.groovy.transform.AbstractASTTransformation
+import org.codehaus.groovy.transform.GroovyASTTransformation
+import org.codehaus.groovy.transform.GroovyASTTransformationClass
+import org.codehaus.groovy.transform.sc.StaticCompileTransformation
+
+import java.lang.annotation.ElementType
+import java.lang.annotation.Retention
+import java.lang.annotation.RetentionPolicy
+import java.lang.annotation.Target
+
+import static org.codehaus.groovy.ast.tools.GeneralUtils.*
+
+/**
+ * Generates statically compiled fromCursor() and toContentValues() methods for a
+ * bean class, so that DbService can read and write it without reflection. Fields
+ * are mapped to the columns of the same name (without underscores), using the
+ * same conversions as the reflective mapping.
+ *
+ * Sample usage:
+ *
+ *  @DbBean
+ *  class User {
+ *      long id
+ *      String firstName
+ *      Date createdAt
+ *  }
+ */
+@Retention (RetentionPolicy.SOURCE)
+@Target ([ElementType.TYPE])
+@GroovyASTTransformationClass (["com.tobykurien.androidgroovysupport.annotations.DbBeanTransformation"])
+public @interface DbBean {
+}
+
+@CompileStatic
+@GroovyASTTransformation(phase = CompilePhase.SEMANTIC_ANALYSIS)
+public class DbBeanTransformation extends AbstractASTTransformation {
+    private static final Map<String, String> CURSOR_GETTERS = [
+            "int": "getInt", "java.lang.Integer": "getInt",
+            "long": "getLong", "java.lang.Long": "getLong",
+            "double": "getDouble", "java.lang.Double": "getDouble",
+            "java.lang.String": "getString",
+            "boolean": null, "java.lang.Boolean": null,
+            "java.util.Date": null
+    ] as Map<String, String>
+    private static final List<String> BOOLEAN_TYPES = [ "boolean", "java.lang.Boolean" ]
+
+    @Override
+    void visit(ASTNode[] astNodes, SourceUnit sourceUnit) {
+        if (!astNodes) return
+        if (!astNodes[0]) return
+        if (!astNodes[1]) return
+        if (!(astNodes[0] instanceof AnnotationNode)) return
+        if (!(astNodes[1] instanceof ClassNode)) return
+
+        ClassNode clazz = astNodes[1] as ClassNode
+        def readable = new ArrayList<FieldNode>()
+        def writable = new ArrayList<FieldNode>()
+        clazz.getFields().each { FieldNode field ->
+            if (field.isStatic() || !CURSOR_GETTERS.containsKey(field.type.name)) return
+            if (hasAccessor(clazz, field, "set")) readable.add(field)
+            if (hasAccessor(clazz, field, "get") || (field.type.name in BOOLEAN_TYPES && hasAccessor(clazz, field, "is"))) {
+                writable.add(field)
+            }
+        }
+
+        clazz.addInterface(ClassHelper.make(CursorBean))
+        def compileStatic = new AnnotationNode(ClassHelper.make(CompileStatic))
+        [
+                newBean(clazz),
+                cursorColumns(readable),
+                fromCursorColumns(readable),
+                fromCursor(readable),
+                toContentValues(writable)
+        ].each { MethodNode method ->
+            method.addAnnotation(compileStatic)
+            clazz.addMethod(method)
+        }
+        clazz.addTransform(StaticCompileTransformation, compileStatic)
+
+        // resolve the variables in the generated code
+        new VariableScopeVisitor(sourceUnit, true).visitClass(clazz)
+    }
+
+    /**
+     * The column name for a field, as used by the reflective mapping
+     */
+    String columnName(FieldNode field) {
+        field.name.replaceAll("_", "")
+    }
+
+    String toFirstUpper(String name) {
+        name[0].toUpperCase() + name[1..-1]
+    }
+
+    String accessorName(FieldNode field, String prefix) {
+        prefix + toFirstUpper(columnName(field))
+    }
+
+    boolean hasAccessor(ClassNode clazz, FieldNode field, String prefix) {
+        def name = accessorName(field, prefix)
+        int params = prefix == "set" ? 1 : 0
+        if (clazz.getDeclaredMethods(name).any { MethodNode m -> m.parameters.length == params }) return true
+
+        // accessors generated for properties, if they match the column name
+        def property = clazz.getProperty(field.name)
+        return property != null && field.name == columnName(field) && !(prefix == "set" && property.field.isFinal())
+    }
+
+    Expression intX(int value) {
+        new ConstantExpression(value, true)
+    }
+
+    Expression greaterOrEqual(Expression left, Expression right) {
+        new BinaryExpression(left, Token.newSymbol(Types.COMPARE_GREATER_THAN_EQUAL, -1, -1), right)
+    }
+
+    MethodNode newBean(ClassNode clazz) {
+        new MethodNode("newBean", ACC_PUBLIC, ClassHelper.make(CursorBean),
+                new Parameter[0], new ClassNode[0], returnS(ctorX(clazz)))
+    }
+
+    MethodNode cursorColumns(List<FieldNode> fields) {
+        def columns = fields.collect { FieldNode field -> (Expression) constX(columnName(field)) }
+        new MethodNode("cursorColumns", ACC_PUBLIC, ClassHelper.STRING_TYPE.makeArray(),
+                new Parameter[0], new ClassNode[0], returnS(new ArrayExpression(ClassHelper.STRING_TYPE, columns)))
+    }
+
+    MethodNode fromCursorColumns(List<FieldNode> fields) {
+        def cursor = new Parameter(ClassHelper.make(Cursor), "cursor")
+        def columns = new Parameter(ClassHelper.int_TYPE.makeArray(), "columns")
+        def body = new BlockStatement()
+
+        fields.eachWithIndex { FieldNode field, int i ->
+            def setter = accessorName(field, "set")
+            def getter = CURSOR_GETTERS.get(field.type.name)
+            def column = new BinaryExpression(varX(columns), Token.newSymbol(Types.LEFT_SQUARE_BRACKET, -1, -1), intX(i))
+            def read = new BlockStatement()
+
+            if (getter != null) {
+                read.addStatement(stmt(callThisX(setter, callX(varX(cursor), getter, column))))
+            } else if (field.type.name == "java.util.Date") {
+                // null or 0 dates are read as null
+                def value = varX("value" + i, ClassHelper.long_TYPE)
+                read.addStatement(declS(value, callX(varX(cursor), "getLong", column)))
+                read.addStatement(stmt(callThisX(setter, ternaryX(
+                        orX(callX(varX(cursor), "isNull", column), eqX(value, constX(0L))),
+                        castX(ClassHelper.make(Date), constX(null)),
+                        ctorX(ClassHelper.make(Date), value)))))
+            } else {
+                // booleans are stored as "true" or "false"
+                def value = varX("value" + i, ClassHelper.STRING_TYPE)
+                read.addStatement(declS(value, callX(varX(cursor), "getString", column)))
+                read.addStatement(ifS(notNullX(value),
+                        stmt(callThisX(setter, callX(value, "equalsIgnoreCase", constX("true"))))))
+            }
+
+            body.addStatement(ifS(greaterOrEqual(column, intX(0)), read))
+        }
+
+        new MethodNode("fromCursor", ACC_PUBLIC, ClassHelper.VOID_TYPE,
+                [ cursor, columns ] as Parameter[], new ClassNode[0], body)
+    }
+
+    MethodNode fromCursor(List<FieldNode> fields) {
+        def cursor = new Parameter(ClassHelper.make(Cursor), "cursor")
+        def columns = fields.collect { FieldNode field ->
+            (Expression) callX(varX(cursor), "getColumnIndex", constX(columnName(field)))
+        }
+
+        new MethodNode("fromCursor", ACC_PUBLIC, ClassHelper.VOID_TYPE,
+                [ cursor ] as Parameter[], new ClassNode[0],
+                stmt(callThisX("fromCursor", args(varX(cursor), new ArrayExpression(ClassHelper.int_TYPE, columns)))))
+    }
+
+    MethodNode toContentValues(List<FieldNode> fields) {
+        def body = new BlockStatement()
+        def values = varX("values", ClassHelper.make(ContentValues))
+        body.addStatement(declS(values, ctorX(ClassHelper.make(ContentValues), intX(fields.size()))))
+
+        fields.eachWithIndex { FieldNode field, int i ->
+            def column = constX(columnName(field))
+            def type = field.type.name
+            def getter = (type in BOOLEAN_TYPES && !hasAccessor(field.owner, field, "get") ? "is" : "get") +
+                    toFirstUpper(columnName(field))
+
+            if (type == "java.util.Date") {
+                def value = varX("value" + i, ClassHelper.make(Date))
+                body.addStatement(declS(value, callThisX(getter)))
+                body.addStatement(ifElseS(notNullX(value),
+                        stmt(callX(values, "put", args(column, callX(value, "getTime")))),
+                        stmt(callX(values, "putNull", column))))
+            } else if (type in BOOLEAN_TYPES) {
+                def value = varX("value" + i, ClassHelper.Boolean_TYPE)
+                body.addStatement(declS(value, callThisX(getter)))
+                body.addStatement(ifElseS(notNullX(value),
+                        stmt(callX(values, "put", args(column, ternaryX(value, constX("true"), constX("false"))))),
+                        stmt(callX(values, "putNull", column))))
+            } else {
+                body.addStatement(stmt(callX(values, "put", args(column, callThisX(getter)))))
+            }
+        }
+        body.addStatement(returnS(values))
+
+        new MethodNode("toContentValues", ACC_PUBLIC, ClassHelper.make(ContentValues),
+                new Parameter[0], new ClassNode[0], body)
+    }
+}
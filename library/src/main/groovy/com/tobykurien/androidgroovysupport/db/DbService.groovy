@@ -2,32 +2,161 @@ package com.tobykurien.androidgroovysupport.db
 
 import android.content.ContentValues
 import android.content.Context
+import android.database.SQLException
 import android.database.sqlite.SQLiteDatabase
+import android.util.Log
 import asia.sonix.android.orm.AbatisService
+import asia.sonix.android.orm.BeanCursor
+import asia.sonix.android.orm.ColumnarResult
+import asia.sonix.android.orm.CursorBean
+import asia.sonix.android.orm.CursorList
+import asia.sonix.android.orm.SqlBackend
 import groovy.transform.CompileStatic
+import groovy.transform.PackageScope
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
 
 @CompileStatic
 class DbService extends AbatisService {
+    private static final String TAG = "DbService"
+
+    // SQL for the SQLiteDatabase.CONFLICT_* constants, as used by insertWithOnConflict()
+    private static final String[] CONFLICT_VALUES = [ "", " or rollback", " or abort", " or fail", " or ignore", " or replace" ] as String[]
+
+    // cached marker for queries with a null result
+    private static final Object NO_RESULT = new Object()
+
+    private static final Map<String, DbService> instances = new HashMap<String, DbService>()
+
+    /**
+     * Default time (ms) that observe() waits after a change before querying again
+     */
+    public static final long DEFAULT_OBSERVE_DEBOUNCE = 100
+
+    private volatile QueryCache resultCache = null
+
+    // tables changed by the transaction in progress on each thread ("*" for unknown)
+    private final ThreadLocal<Set<String>> transactionChanges = new ThreadLocal<Set<String>>()
+
+    private final List<TableObserver> observers = new CopyOnWriteArrayList<TableObserver>()
+
+    private WriteQueue writeQueue
+
+    // select lists per table and bean class, see getProjection()
+    private final Map<String, String> projections = new ConcurrentHashMap<String, String>()
 
     protected DbService(Context context, String dbName, int version) {
         super(context, dbName, version)
     }
 
-    public static DbService getInstance(Context context, String dbName, int dbVersion) {
-        return new DbService(context, dbName, dbVersion)
+    /**
+     * Use a database that has already been opened and set up, e.g. on a plain JVM
+     */
+    protected DbService(SqlBackend backend) {
+        super(backend)
+    }
+
+    /**
+     * Get the shared instance for the database name. There is one instance (and one
+     * open connection) per database per process, so the first call for a database
+     * name determines its version.
+     */
+    public static synchronized DbService getInstance(Context context, String dbName, int dbVersion) {
+        getInstance(context, dbName, dbVersion, null)
+    }
+
+    /**
+     * Like getInstance(context, dbName, dbVersion), but on first launch the database
+     * is copied from a prebuilt database in the assets (see setPrebuiltDatabase())
+     * instead of being created with dbInitialize
+     * @param prebuiltAsset - path of the database in the assets, e.g. "databases/app.db"
+     */
+    public static synchronized DbService getInstance(Context context, String dbName, int dbVersion,
+                                                     String prebuiltAsset) {
+        def instance = instances.get(dbName)
+        if (instance == null) {
+            instance = new DbService(context.applicationContext ?: context, dbName, dbVersion)
+            if (prebuiltAsset != null) instance.setPrebuiltDatabase(prebuiltAsset)
+            instances.put(dbName, instance)
+        }
+        return instance
     }
 
     @Override
     void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         super.onUpgrade(db, oldVersion, newVersion)
+        projections.clear()
+    }
+
+    /**
+     * Get the select list for reading a bean from a table: the columns of the table
+     * that are mapped onto the bean, so that other columns (e.g. large text columns)
+     * are not read. Falls back to "*" if the table's columns can't be found (e.g. for
+     * a join, or a table that hasn't been created yet) or none of them are mapped.
+     * Cached per table and bean class, except for the fallback, so that the columns
+     * are looked up again once the table exists.
+     */
+    protected String getProjection(String table, Class bean) {
+        def key = table + "\u0000" + bean.name
+        def projection = projections.get(key)
+        if (projection == null) {
+            def tableColumns = getTableColumns(table)
+            def columns = getBeanColumns(bean).findAll { String column ->
+                tableColumns.contains(column.toLowerCase())
+            }
+            if (!columns) return "*"
+            projection = columns.collect { String column -> '"' + column + '"' }.join(", ")
+            projections.put(key, projection)
+        }
+        return projection
+    }
+
+    /**
+     * @return the lower case names of the columns of a table, or an empty set if it
+     * is not a table or view
+     */
+    private Set<String> getTableColumns(String table) {
+        def columns = new HashSet<String>()
+        def db = acquireBackend()
+        try {
+            def cursor = db.query("pragma table_info(${table})".toString(), new Object[0])
+            try {
+                // a statement prepared before the table existed has no column names,
+                // so use the position of "name" (cid, name, type...) if it is missing
+                int name = cursor.getColumnIndex("name")
+                if (name < 0) name = 1
+                while (cursor.moveToNext()) {
+                    columns.add(cursor.getString(name).toLowerCase())
+                }
+            } finally {
+                cursor.close()
+            }
+        } catch (SQLException e) {
+            Log.d(TAG, "no columns for ${table}: ${e.message}")
+        } finally {
+            releaseDatabase()
+        }
+        return columns
+    }
+
+    private String getSelect(String table, Collection<String> columns, Class bean) {
+        "select " + (columns ? columns.join(", ") : getProjection(table, bean)) + " from "
     }
 
     /**
      * Find an object by it's id
      */
     public <T> T findById(String table, long id, Class<T> bean) {
-        super.<T>executeForBean(
-                "select * from ${table} where id = #id#",
+        this.<T>findById(table, null, id, bean)
+    }
+
+    /**
+     * Find an object by it's id, reading only the specified columns
+     */
+    public <T> T findById(String table, Collection<String> columns, long id, Class<T> bean) {
+        this.<T>executeForBean(
+                getSelect(table, columns, bean) + "${table} where id = #id#",
                 [ 'id': id ],
                 bean
         )
@@ -37,14 +166,30 @@ class DbService extends AbatisService {
      * Find all objects in a table
      */
     public <T> List<T> findAll(String table, String orderBy, Class<T> bean) {
-        this.<T>findByFields(table, null, orderBy, bean)
+        this.<T>findByFields(table, null, null, orderBy, 0, 0, bean)
+    }
+
+    /**
+     * Find all objects in a table, reading only the specified columns
+     */
+    public <T> List<T> findAll(String table, Collection<String> columns, String orderBy, Class<T> bean) {
+        this.<T>findByFields(table, columns, null, orderBy, 0, 0, bean)
     }
 
     /**
      * Find an object by the field-value mappings specified in the Map.
      */
     public <T> List<T> findByFields(String table, Map<String, ? extends Object> values, String orderBy, Class<T> bean) {
-        findByFields(table, values, orderBy, 0, 0, bean)
+        findByFields(table, null, values, orderBy, 0, 0, bean)
+    }
+
+    /**
+     * Find an object by the field-value mappings specified in the Map, reading only
+     * the specified columns
+     */
+    public <T> List<T> findByFields(String table, Collection<String> columns, Map<String, ? extends Object> values,
+                                    String orderBy, Class<T> bean) {
+        findByFields(table, columns, values, orderBy, 0, 0, bean)
     }
 
     /**
@@ -65,7 +210,16 @@ class DbService extends AbatisService {
      *
      */
     public <T> List<T> findByFields(String table, Map<String, ? extends Object> values, String orderBy, long limit, long skip, Class<T> bean) {
-        def sql = "select * from " + getFindByFieldsSql(table, values, orderBy)
+        findByFields(table, null, values, orderBy, limit, skip, bean)
+    }
+
+    /**
+     * Like findByFields(table, values, orderBy, limit, skip, bean), reading only the
+     * specified columns (or expressions) instead of the columns the bean maps
+     */
+    public <T> List<T> findByFields(String table, Collection<String> columns, Map<String, ? extends Object> values,
+                                    String orderBy, long limit, long skip, Class<T> bean) {
+        def sql = getSelect(table, columns, bean) + getFindByFieldsSql(table, values, orderBy)
         if (limit > 0) {
             if (skip > 0) {
                 sql = sql + " limit ${skip},${limit} "
@@ -74,7 +228,239 @@ class DbService extends AbatisService {
             }
         }
 
-        // strip operators from the keys inside values Map (if any)
+        this.<T>executeForBeanList(sql, stripOperators(values), bean)
+    }
+
+    /**
+     * Find a page of objects by the field-value mappings specified in the Map, using
+     * keyset (seek) pagination: instead of skipping rows with an offset, each page
+     * starts after the order by values of the last row of the previous page. This
+     * makes every page equally fast, no matter how deep it is. The id column is
+     * added to the order by columns if not already present, to make the order unique.
+     * The order by columns should not contain nulls, and must be columns mapped onto
+     * fields of the bean, optionally followed by asc or desc (not expressions or
+     * collations), as the next page starts after their values in the last bean.
+     *
+     * Sample usage:
+     *
+     *  // first page of 20 users by surname
+     *  def page = db.findPage("users", null, "surname, firstName", null, 20, User)
+     *
+     *  // next page
+     *  page = db.findPage("users", null, "surname, firstName", page.next, 20, User)
+     *
+     * @param after - the continuation key from Page.next, or null for the first page
+     * @param limit - the number of objects per page, at least 1
+     * @throws IllegalArgumentException if the limit is not positive, or the order by
+     * is not made up of columns of the bean
+     */
+    public <T> Page<T> findPage(String table, Map<String, ? extends Object> values, String orderBy,
+                                Map<String, ? extends Object> after, long limit, Class<T> bean) {
+        if (limit <= 0) throw new IllegalArgumentException("Page limit must be positive: ${limit}")
+
+        // parse the order by into columns and directions
+        List<String> columns = []
+        List<Boolean> descending = []
+        for (String part : (orderBy ? orderBy.split(",") : new String[0])) {
+            def terms = part.trim().split("\\s+")
+            if (!terms[0]) continue
+            if (terms.length > 2 || !(terms[0] ==~ /\w+/) ||
+                    (terms.length == 2 && !terms[1].equalsIgnoreCase("asc") && !terms[1].equalsIgnoreCase("desc"))) {
+                throw new IllegalArgumentException("Can't page by \"${part.trim()}\", only by columns with asc or desc")
+            }
+            columns.add(terms[0])
+            descending.add(terms.length > 1 && terms[1].equalsIgnoreCase("desc"))
+        }
+        if (!columns.any { String column -> column.equalsIgnoreCase("id") }) {
+            columns.add("id")
+            descending.add(descending ? descending.last() : false)
+        }
+
+        // the bean columns holding the order by values of a row
+        def beanColumns = getBeanColumns(bean)
+        List<String> keyColumns = columns.collect { String column ->
+            def beanColumn = beanColumns.find { String c -> c.equalsIgnoreCase(column) }
+            if (beanColumn == null) {
+                throw new IllegalArgumentException("Order by column ${column} is not a field of ${bean.name}")
+            }
+            return beanColumn
+        }
+
+        def order = (0..<columns.size()).collect { int i ->
+            columns[i] + (descending[i] ? " desc" : " asc")
+        }.join(", ")
+
+        // seek past the last row: (c1 > k1) or (c1 = k1 and c2 > k2) or ...
+        def params = stripOperators(values) ?: new HashMap<String, Object>()
+        String condition = null
+        if (after != null) {
+            condition = (0..<columns.size()).collect { int i ->
+                def terms = []
+                for (int j = 0; j < i; j++) {
+                    terms.add("${columns[j]} = #after_${columns[j]}#")
+                }
+                terms.add("${columns[i]} ${descending[i] ? '<' : '>'} #after_${columns[i]}#")
+                return "(" + terms.join(" and ") + ")"
+            }.join(" or ")
+
+            columns.each { String column ->
+                params.put("after_" + column, after.get(column))
+            }
+        }
+
+        def sql = getSelect(table, null, bean) + getFindByFieldsSql(table, values, order, condition) +
+                " limit ${limit + 1}"
+        List<T> items = this.<T>executeForBeanList(sql, params, bean)
+
+        def page = new Page<T>(items: items)
+        if (items.size() > limit) {
+            items.remove(items.size() - 1)
+            def last = getRowValues(items.last())
+            page.next = new HashMap<String, Object>()
+            for (int i = 0; i < columns.size(); i++) {
+                page.next.put(columns[i], last.get(keyColumns[i]))
+            }
+        }
+
+        return page
+    }
+
+    /**
+     * Count the rows matching the field-value mappings specified in the Map, without
+     * reading them. As with findByFields(), the Map key can contain a space followed
+     * by the operator for that field.
+     *
+     * Sample usage:
+     *
+     *  // number of unread messages, e.g. for a badge
+     *  long unread = db.countByFields("messages", [ 'read': false ])
+     *
+     *  // number of users with age less than or equal to 18
+     *  long minors = db.countByFields("users", [ 'age <=': 18 ])
+     */
+    public long countByFields(String table, Map<String, ? extends Object> values) {
+        executeForLong("select count(*) from " + getFindByFieldsSql(table, values, null), stripOperators(values))
+    }
+
+    /**
+     * Check whether any row matches the field-value mappings specified in the Map.
+     * The query stops at the first matching row.
+     *
+     * Sample usage:
+     *
+     *  boolean anythingNew = db.existsByFields("messages", [ 'received >': lastSeen ])
+     */
+    public boolean existsByFields(String table, Map<String, ? extends Object> values) {
+        executeForLong("select exists (select 1 from " + getFindByFieldsSql(table, values, null) + " limit 1)",
+                stripOperators(values)) != 0
+    }
+
+    /**
+     * Sum a numeric column (or expression) over the rows matching the field-value
+     * mappings specified in the Map
+     *
+     * @return a Long if every value is an integer, a Double otherwise, or 0 if no
+     * rows match
+     */
+    public Number sum(String table, String column, Map<String, ? extends Object> values) {
+        (Number) aggregate("coalesce(sum(${column}), 0)", table, values)
+    }
+
+    /**
+     * @return the smallest value of a column (or expression) in the rows matching the
+     * field-value mappings specified in the Map, as stored: a Long, Double or String
+     * (e.g. for a text column), or null if no rows match
+     */
+    public <T> T min(String table, String column, Map<String, ? extends Object> values) {
+        (T) aggregate("min(${column})", table, values)
+    }
+
+    /**
+     * @return the largest value of a column (or expression) in the rows matching the
+     * field-value mappings specified in the Map, as stored: a Long, Double or String
+     * (e.g. for a text column), or null if no rows match
+     *
+     * Sample usage:
+     *
+     *  Number lastSync = db.max("events", "created", [ 'synced': true ])
+     *  String lastName = db.max("users", "lastName", null)
+     */
+    public <T> T max(String table, String column, Map<String, ? extends Object> values) {
+        (T) aggregate("max(${column})", table, values)
+    }
+
+    private Object aggregate(String expression, String table, Map<String, ? extends Object> values) {
+        def result = executeForColumns("select ${expression} from " + getFindByFieldsSql(table, values, null),
+                stripOperators(values))
+        result != null && result.rowCount > 0 ? getValue(result, 0, 0) : null
+    }
+
+    /**
+     * Count the rows matching the field-value mappings specified in the Map, for
+     * each value of a column
+     *
+     * Sample usage:
+     *
+     *  // number of unread messages per folder
+     *  Map<String, Number> unread = db.groupBy("messages", "folder", [ 'read': false ])
+     *
+     * @return the counts keyed by column value, in order of the value
+     */
+    public Map<String, Number> groupBy(String table, String column, Map<String, ? extends Object> values) {
+        this.<Number>groupBy(table, column, "count(*)", values)
+    }
+
+    /**
+     * Aggregate the rows matching the field-value mappings specified in the Map, for
+     * each value of a column
+     *
+     * Sample usage:
+     *
+     *  // total size of the attachments per message
+     *  Map<String, Number> sizes = db.groupBy("attachments", "messageId", "sum(size)", null)
+     *
+     * @param aggregate - an aggregate expression, e.g. "count(*)" or "max(created)"
+     * @return the aggregate values keyed by column value, in order of the value. The
+     * values are read as stored: Longs, Doubles or Strings (e.g. "max(name)"), widened
+     * to Doubles or Strings if they have mixed types.
+     */
+    public <T> Map<String, T> groupBy(String table, String column, String aggregate,
+                                      Map<String, ? extends Object> values) {
+        def sql = "select ${column} as group_value, ${aggregate} as aggregate_value from " +
+                getFindByFieldsSql(table, values, null) + " group by ${column} order by ${column}"
+
+        def result = new LinkedHashMap<String, T>()
+        def rows = executeForColumns(sql, stripOperators(values))
+        if (rows == null) return result
+        for (int row = 0; row < rows.rowCount; row++) {
+            result.put(rows.getString(row, 0), (T) getValue(rows, row, 1))
+        }
+        return result
+    }
+
+    /**
+     * @return a value of a query result with the type of its column: a Long, Double,
+     * String or byte[], or null
+     */
+    private static Object getValue(ColumnarResult result, int row, int column) {
+        if (result.isNull(row, column)) return null
+        switch (result.getType(column)) {
+            case ColumnarResult.TYPE_LONG:
+                return result.getLong(row, column)
+            case ColumnarResult.TYPE_DOUBLE:
+                return result.getDouble(row, column)
+            case ColumnarResult.TYPE_BLOB:
+                return result.getBlob(row, column)
+            default:
+                return result.getString(row, column)
+        }
+    }
+
+    /**
+     * Strip operators from the keys inside values Map (if any), to get the
+     * parameters for the SQL from getFindByFieldsSql()
+     */
+    private Map<String, Object> stripOperators(Map<String, ? extends Object> values) {
         HashMap vals = values == null ? null : new HashMap()
         values?.each { k, v ->
             if (k.indexOf(" ") > 0) {
@@ -83,26 +469,42 @@ class DbService extends AbatisService {
                 vals.put(k, v)
             }
         }
-
-        super.<T>executeForBeanList(sql, vals, bean)
+        return vals
     }
 
     /**
-     * Returns a partial SQL string (doesn't include "select * from " prefix) for
+     * Returns a partial SQL string (doesn't include the "select ... from " prefix) for
      * the specified parameters, that cen then be used to retrieve the data, or
      * get a count, and have a LIMIT added to the end
      */
     private String getFindByFieldsSql(String table, Map<String, ? extends Object> values, String orderBy) {
-        def String where = ""
-        if (values != null) {
-            where = " where " + values.keySet().collect { key ->
+        getFindByFieldsSql(table, values, orderBy, null)
+    }
+
+    /**
+     * Like getFindByFieldsSql(table, values, orderBy) but with an additional
+     * condition to add to the where clause
+     */
+    private String getFindByFieldsSql(String table, Map<String, ? extends Object> values, String orderBy,
+                                      String condition) {
+        def conditions = []
+        if (values) {
+            conditions.addAll(values.keySet().collect { key ->
                 if (key.indexOf(" ") > 0) {
                     def keyop = key.split(" ")
                     return " ${key} #${keyop[0]}#"
                 } else {
                     return "${key} = #${key}#"
                 }
-            }.join(" and ")
+            })
+        }
+        if (condition) {
+            conditions.add("(${condition})")
+        }
+
+        def String where = ""
+        if (conditions) {
+            where = " where " + conditions.join(" and ")
         }
 
         def order = ""
@@ -114,15 +516,28 @@ class DbService extends AbatisService {
     }
 
     /**
-     * Convert the Map object into ContentValues object
+     * Convert the Map object into ContentValues object, with the same conversions as
+     * values bound to #name# parameters: nulls are stored as NULL, numbers keep
+     * their type, dates are stored as ms and booleans as "true" or "false"
      */
     public ContentValues getContentValues(Map<String, ? extends Object> values) {
         def vals = new ContentValues()
 
-        for (String key : values.keySet) {
+        for (String key : values.keySet()) {
             def value = values.get(key)
-            if (value instanceof Date) {
+            if (value == null) {
+                vals.putNull(key)
+            } else if (value instanceof Integer || value instanceof Long || value instanceof Short ||
+                    value instanceof Byte) {
+                vals.put(key, (value as Number).longValue())
+            } else if (value instanceof Float || value instanceof Double) {
+                vals.put(key, (value as Number).doubleValue())
+            } else if (value instanceof Boolean) {
+                vals.put(key, (value as Boolean) ? "true" : "false")
+            } else if (value instanceof Date) {
                 vals.put(key, (value as Date).time)
+            } else if (value instanceof byte[]) {
+                vals.put(key, value as byte[])
             } else {
                 vals.put(key, String.valueOf(value))
             }
@@ -131,17 +546,50 @@ class DbService extends AbatisService {
         return vals
     }
 
+    /**
+     * Convert a bean into a ContentValues object, using the code generated by @DbBean
+     * if available
+     */
+    public ContentValues getBeanContentValues(Object bean) {
+        if (bean instanceof CursorBean) {
+            return (bean as CursorBean).toContentValues()
+        }
+        return getContentValues(getBeanValues(bean))
+    }
+
     /**
      * Generic method to insert records into the database from a Map
      * of key-value pairs.
      * @return the id of the inserted row
      */
     public insert(String table, Map<String, ? extends Object> values) {
-        def db = writableDatabase
+        insertValues(table, getContentValues(values))
+    }
+
+    /**
+     * Insert a bean into the database. An id of 0 or null is left for the database
+     * to assign.
+     * @return the id of the inserted row
+     */
+    public insert(String table, Object bean) {
+        def values = getBeanContentValues(bean)
+        def id = values.get("id")
+        if (id == null || (id instanceof Number && (id as Number).longValue() == 0)) {
+            values.remove("id")
+        }
+        insertValues(table, values)
+    }
+
+    private long insertValues(String table, ContentValues values) {
+        long start = startTiming()
+        def db = acquireBackend()
         try {
-            return db.insert(table, "", getContentValues(values))
+            long id = db.insert(table, values)
+            recordStatement("insert into ${table}".toString(), [ values ] as Object[], start, id == -1 ? 0 : 1)
+            return id
         } finally {
-            db.close()
+            releaseDatabase()
+            tableChanged(table)
         }
     }
 
@@ -155,11 +603,30 @@ class DbService extends AbatisService {
     }
 
     public update(String table, Map<String, ? extends Object> values, String id) {
-        def db = writableDatabase
+        updateValues(table, getContentValues(values), id)
+    }
+
+    /**
+     * Update the row matching the id of the bean
+     * @return the number of rows affected
+     */
+    public update(String table, Object bean) {
+        def values = getBeanContentValues(bean)
+        def id = values.get("id")
+        if (id == null) throw new IllegalArgumentException("Bean has no id: ${bean}")
+        updateValues(table, values, String.valueOf(id))
+    }
+
+    private int updateValues(String table, ContentValues values, String id) {
+        long start = startTiming()
+        def db = acquireBackend()
         try {
-            return db.update(table, getContentValues(values), "id = ?", [ id ] as String[])
+            int rows = db.update(table, values, "id = ?", [ id ] as String[])
+            recordStatement("update ${table} where id = ?".toString(), [ values, id ] as Object[], start, rows)
+            return rows
         } finally {
-            db.close()
+            releaseDatabase()
+            tableChanged(table)
         }
     }
 
@@ -168,11 +635,15 @@ class DbService extends AbatisService {
      * @return the number of rows affected
      */
     public delete(String table, String id) {
-        def db = writableDatabase
+        long start = startTiming()
+        def db = acquireBackend()
         try {
-            return db.delete(table, "id = ?", [id] as String[])
+            int rows = db.delete(table, "id = ?", [id] as String[])
+            recordStatement("delete from ${table} where id = ?".toString(), [ id ] as Object[], start, rows)
+            return rows
         } finally {
-            db.close()
+            releaseDatabase()
+            tableChanged(table)
         }
     }
 
@@ -181,41 +652,549 @@ class DbService extends AbatisService {
      * @return the number of rows affected
      */
     public delete(String table) {
-        def db = writableDatabase
+        long start = startTiming()
+        def db = acquireBackend()
+        try {
+            int rows = db.delete(table, "1", null)
+            recordStatement("delete from ${table}".toString(), null, start, rows)
+            return rows
+        } finally {
+            releaseDatabase()
+            tableChanged(table)
+        }
+    }
+
+    /**
+     * Queue an insert of a row (a Map of key-value pairs, or a bean), to be written
+     * by a background thread in a batch with other queued writes. A bean's id is left
+     * for the database to assign if it is 0 or null.
+     *
+     * Sample usage:
+     *
+     *  db.insertAsync("events", [ name: 'tap', time: new Date() ]) then { long id ->
+     *      // ...
+     *  }
+     *
+     * @return the queued write, to set closures for its result (the new row id)
+     */
+    public PendingWrite insertAsync(String table, Object row) {
+        def values = new LinkedHashMap<String, Object>(getRowValues(row))
+        if (!(row instanceof Map)) {
+            def id = values.get("id")
+            if (id == null || (id instanceof Number && (id as Number).longValue() == 0)) values.remove("id")
+        }
+        getWriteQueue().insert(table, values)
+    }
+
+    /**
+     * Queue an update of the row with the given id. Queued updates of the same row
+     * are merged, so only the latest value of each column is written.
+     * @return the queued write, to set closures for its result (the number of rows affected)
+     */
+    public PendingWrite updateAsync(String table, Map<String, ? extends Object> values, long id) {
+        updateAsync(table, values, String.valueOf(id))
+    }
+
+    public PendingWrite updateAsync(String table, Map<String, ? extends Object> values, String id) {
+        getWriteQueue().update(table, new LinkedHashMap<String, Object>(values), id)
+    }
+
+    /**
+     * Queue an update of the row matching the id of the bean
+     */
+    public PendingWrite updateAsync(String table, Object bean) {
+        def values = new LinkedHashMap<String, Object>(getBeanValues(bean))
+        def id = values.get("id")
+        if (id == null) throw new IllegalArgumentException("Bean has no id: ${bean}")
+        getWriteQueue().update(table, values, String.valueOf(id))
+    }
+
+    /**
+     * Queue a delete of the row with the given id
+     * @return the queued write, to set closures for its result (the number of rows affected)
+     */
+    public PendingWrite deleteAsync(String table, long id) {
+        deleteAsync(table, String.valueOf(id))
+    }
+
+    public PendingWrite deleteAsync(String table, String id) {
+        getWriteQueue().delete(table, id)
+    }
+
+    /**
+     * Wait until the writes queued with insertAsync(), updateAsync() and deleteAsync()
+     * so far have been committed, e.g. before a query that must see them. Blocks, so
+     * call it in a background thread.
+     */
+    public void flush() {
+        WriteQueue queue
+        synchronized (this) {
+            queue = writeQueue
+        }
+        queue?.flush()
+    }
+
+    /**
+     * @return the queue of writes made with insertAsync(), updateAsync() and
+     * deleteAsync(), e.g. to set its maxBatchSize and maxDelay
+     */
+    public synchronized WriteQueue getWriteQueue() {
+        if (writeQueue == null) writeQueue = new WriteQueue(this)
+        writeQueue
+    }
+
+    /**
+     * Run the closure in a single database transaction, so that several DbService
+     * calls are committed together. The transaction is rolled back if the closure
+     * throws an exception. Transactions can be nested.
+     *
+     * Sample usage:
+     *
+     *  db.inTransaction {
+     *      delete("users")
+     *      insertAll("users", users)
+     *  }
+     *
+     * @return the result of the closure
+     */
+    public <T> T inTransaction(@DelegatesTo(DbService) Closure<T> work) {
+        work.delegate = this
+        withTransaction { SqlBackend db -> work.call() }
+    }
+
+    /**
+     * Run the closure with the database backend inside a transaction
+     */
+    protected <T> T withTransaction(Closure<T> work) {
+        boolean outermost = transactionChanges.get() == null
+        if (outermost) transactionChanges.set(new HashSet<String>())
+
+        def db = acquireBackend()
         try {
-            return db.delete(table, "1", null)
+            db.beginTransaction()
+            try {
+                T result = work.call(db)
+                db.setTransactionSuccessful()
+                return result
+            } finally {
+                db.endTransaction()
+            }
         } finally {
-            db.close()
+            releaseDatabase()
+            if (outermost) {
+                def changes = transactionChanges.get()
+                transactionChanges.remove()
+                if (changes) {
+                    Collection<String> tables = changes.contains("*") ? null : changes
+                    resultCache?.invalidate(tables)
+                    notifyObservers(tables)
+                }
+            }
+        }
+    }
+
+    /**
+     * Insert all the rows (Maps of key-value pairs, or beans) in a single transaction.
+     * A bean's id is left for the database to assign if it is 0 or null.
+     * @return the id of each inserted row, or -1 if that row could not be inserted
+     */
+    public List<Long> insertAll(String table, List<?> rows) {
+        insertRows(table, rows, SQLiteDatabase.CONFLICT_NONE)
+    }
+
+    /**
+     * Insert all the rows (Maps of key-value pairs, or beans) in a single transaction,
+     * replacing existing rows with the same primary key or unique values.
+     * @return the id of each inserted or replaced row, or -1 if that row failed
+     */
+    public List<Long> upsertAll(String table, List<?> rows) {
+        insertRows(table, rows, SQLiteDatabase.CONFLICT_REPLACE)
+    }
+
+    /**
+     * Insert all the rows (Maps of key-value pairs, or beans) in a single transaction,
+     * resolving conflicts like SQLiteDatabase.insertWithOnConflict()
+     * @param conflictAlgorithm - one of the SQLiteDatabase.CONFLICT_* constants
+     * @return the id of each inserted row, or -1 if that row failed
+     */
+    public List<Long> insertRows(String table, List<?> rows, int conflictAlgorithm) {
+        List<Long> ids = new ArrayList<Long>(rows.size())
+        def conflict = CONFLICT_VALUES[conflictAlgorithm]
+
+        withTransaction { SqlBackend db ->
+            String sql = null
+            List<String> lastColumns = null
+            for (Object row : rows) {
+                def values = getRowValues(row)
+                if (!(row instanceof Map)) {
+                    def id = values.get("id")
+                    if (id == null || (id instanceof Number && (id as Number).longValue() == 0)) {
+                        values.remove("id")
+                    }
+                }
+
+                def columns = new ArrayList<String>(values.keySet())
+                if (columns != lastColumns) {
+                    sql = "insert${conflict} into ${table} (${columns.join(',')}) values (${columns.collect { '?' }.join(',')})".toString()
+                    lastColumns = columns
+                }
+
+                try {
+                    ids.add(executeInsert(db, sql, values.values().toArray()))
+                } catch (SQLException e) {
+                    Log.e(TAG, "Error inserting into ${table}: ${e.message}")
+                    ids.add(-1L)
+                }
+            }
+            tableChanged(table)
+        }
+
+        return ids
+    }
+
+    /**
+     * Update all the rows (Maps of key-value pairs, or beans) in a single transaction.
+     * Each row is matched by its "id" value.
+     * @return the number of rows affected for each row
+     */
+    public List<Integer> updateAll(String table, List<?> rows) {
+        List<Integer> counts = new ArrayList<Integer>(rows.size())
+
+        withTransaction { SqlBackend db ->
+            String sql = null
+            List<String> lastColumns = null
+            for (Object row : rows) {
+                def values = getRowValues(row)
+                if (!values.containsKey("id")) {
+                    throw new IllegalArgumentException("Row to update in ${table} has no id: ${row}")
+                }
+
+                def columns = values.keySet().findAll { it != "id" }.toList()
+                if (columns != lastColumns) {
+                    sql = "update ${table} set ${columns.collect { "${it} = ?" }.join(',')} where id = ?".toString()
+                    lastColumns = columns
+                }
+
+                def args = columns.collect { values.get(it) }
+                args.add(values.get("id"))
+                counts.add(executeUpdateDelete(db, sql, args.toArray()))
+            }
+            tableChanged(table)
+        }
+
+        return counts
+    }
+
+    /**
+     * Delete the rows with the specified ids in a single transaction
+     * @return the number of rows affected
+     */
+    public int deleteByIds(String table, List<?> ids) {
+        int count = 0
+        def sql = "delete from ${table} where id = ?".toString()
+
+        withTransaction { SqlBackend db ->
+            for (Object id : ids) {
+                count += executeUpdateDelete(db, sql, [ id ] as Object[])
+            }
+            tableChanged(table)
+        }
+
+        return count
+    }
+
+    /**
+     * Get the column values of a row, which is either a Map of key-value pairs
+     * or a bean
+     */
+    protected Map<String, Object> getRowValues(Object row) {
+        if (row instanceof Map) {
+            return row as Map<String, Object>
         }
+        return getBeanValues(row)
     }
 
     /**
-     * Find all objects from a db table. Return a lazy-loading list for large results.
-     * Good for using in an Adapter (sequential access), but terrible for random access.
+     * Cache the results of queries in memory, up to maxRows rows in total. Results
+     * are removed when the tables they read are written to through this DbService.
+     * Cached beans are shared between callers, so treat them as read-only.
      */
-//    public <T> LazyList<T> lazyFindAll(String table, String orderBy, Class<T> bean) {
-//        def sql = getFindByFieldsSql(table, null, orderBy)
-//        new LazyList<T>(sql, null, this, bean)
-//    }
+    public void enableResultCache(int maxRows) {
+        resultCache = new QueryCache(maxRows)
+    }
+
+    public void disableResultCache() {
+        resultCache = null
+    }
+
+    /**
+     * @return the result cache (e.g. for getStats()), or null if it is not enabled
+     */
+    public QueryCache getResultCache() {
+        resultCache
+    }
 
     /**
-     * Like findByFields() but returns a lazy-loading list for large results.
-     * Good for using in an Adapter (sequential access), but terrible for random access.
+     * Clear the result cache, e.g. after writes that were not made through this DbService
      */
-//    def <T> LazyList<T> lazyFindByFields(String table, Map<String, ? extends Object> values,
-//                                         String orderBy, Class<T> bean) {
-//        def sql = getFindByFieldsSql(table, values, orderBy)
-//
-//        // strip operators from the keys inside values Map (if any)
-//        def vals = if (values == null) null else newHashMap()
-//        values?.each  [k,v->
-//        if (k.indexOf(" ") > 0) {
-//            vals.put(k.split(" ").get(0), v)
-//        } else {
-//            vals.put(k,v)
-//        }
-//        ]
-//
-//        new LazyList<T>(sql, vals, this, bean)
-//    }
-}
\ No newline at end of file
+    public void invalidateResultCache() {
+        resultCache?.invalidateAll()
+    }
+
+    @Override
+    public <T> T executeForBean(String sql, Map<String, ? extends Object> bindParams, Class bean) {
+        def cache = resultCache
+        if (cache == null) return super.<T>executeForBean(sql, bindParams, bean)
+
+        def key = QueryCache.key(bean.name, sql, bindParams)
+        def cached = cache.get(key)
+        if (cached != null) return (cached == NO_RESULT ? null : cached) as T
+
+        def generation = cache.generation
+        T result = super.<T>executeForBean(sql, bindParams, bean)
+        cacheResult(cache, key, sql, result == null ? NO_RESULT : result, 1, generation)
+        return result
+    }
+
+    @Override
+    public <T> List<T> executeForBeanList(String sql, Map<String, ? extends Object> bindParams, Class bean) {
+        def cache = resultCache
+        if (cache == null) return super.<T>executeForBeanList(sql, bindParams, bean)
+
+        def key = QueryCache.key("List<${bean.name}>", sql, bindParams)
+        def cached = cache.get(key)
+        if (cached != null) return new ArrayList<T>(cached as List<T>)
+
+        def generation = cache.generation
+        List<T> result = super.<T>executeForBeanList(sql, bindParams, bean)
+        cacheResult(cache, key, sql, new ArrayList<T>(result), result.size(), generation)
+        return result
+    }
+
+    @Override
+    public Map<String, Object> executeForMap(String sql, Map<String, ? extends Object> bindParams) {
+        def cache = resultCache
+        if (cache == null) return super.executeForMap(sql, bindParams)
+
+        def key = QueryCache.key("Map", sql, bindParams)
+        def cached = cache.get(key)
+        if (cached != null) return cached == NO_RESULT ? null : new HashMap<String, Object>(cached as Map<String, Object>)
+
+        def generation = cache.generation
+        def result = super.executeForMap(sql, bindParams)
+        cacheResult(cache, key, sql, result == null ? NO_RESULT : new HashMap<String, Object>(result), 1, generation)
+        return result
+    }
+
+    @Override
+    public List<Map<String, Object>> executeForMapList(String sql, Map<String, ? extends Object> bindParams) {
+        def cache = resultCache
+        if (cache == null) return super.executeForMapList(sql, bindParams)
+
+        def key = QueryCache.key("List<Map>", sql, bindParams)
+        def cached = cache.get(key)
+        if (cached != null) return new ArrayList<Map<String, Object>>(cached as List<Map<String, Object>>)
+
+        def generation = cache.generation
+        def result = super.executeForMapList(sql, bindParams)
+        cacheResult(cache, key, sql, new ArrayList<Map<String, Object>>(result), result.size(), generation)
+        return result
+    }
+
+    @Override
+    public long executeForLong(String sql, Map<String, ? extends Object> bindParams) {
+        def cache = resultCache
+        if (cache == null) return super.executeForLong(sql, bindParams)
+
+        def key = QueryCache.key("long", sql, bindParams)
+        def cached = cache.get(key)
+        if (cached != null) return cached as Long
+
+        def generation = cache.generation
+        long result = super.executeForLong(sql, bindParams)
+        cacheResult(cache, key, sql, Long.valueOf(result), 1, generation)
+        return result
+    }
+
+    @Override
+    public String executeForString(String sql, Map<String, ? extends Object> bindParams) {
+        def cache = resultCache
+        if (cache == null) return super.executeForString(sql, bindParams)
+
+        def key = QueryCache.key("String", sql, bindParams)
+        def cached = cache.get(key)
+        if (cached != null) return cached == NO_RESULT ? null : cached as String
+
+        def generation = cache.generation
+        String result = super.executeForString(sql, bindParams)
+        cacheResult(cache, key, sql, result == null ? NO_RESULT : result, 1, generation)
+        return result
+    }
+
+    @Override
+    public int execute(String sql, Map<String, ? extends Object> bindParams) {
+        try {
+            return super.execute(sql, bindParams)
+        } finally {
+            if (resultCache != null || !observers.isEmpty()) tablesChanged(QueryCache.writtenTables(sql))
+            // the columns of a table may have changed
+            if (sql.trim().toLowerCase().startsWith("alter ")) projections.clear()
+        }
+    }
+
+    private void cacheResult(QueryCache cache, String key, String sql, Object result, int rows, long generation) {
+        // results read inside a transaction may be rolled back
+        if (transactionChanges.get() != null) return
+        cache.put(key, result, rows, QueryCache.readTables(sql), generation)
+    }
+
+    /**
+     * Record that a table has been written to
+     */
+    protected void tableChanged(String table) {
+        tablesChanged(Collections.singleton(table))
+    }
+
+    /**
+     * Record that tables have been written to
+     * @param tables - the tables, or null if unknown
+     */
+    protected void tablesChanged(Collection<String> tables) {
+        resultCache?.invalidate(tables)
+
+        // invalidate again when the transaction ends, in case other threads read
+        // and cached the old values before it was committed
+        def pending = transactionChanges.get()
+        if (pending != null) {
+            if (tables == null) {
+                pending.add("*")
+            } else {
+                tables.each { pending.add(it.toLowerCase()) }
+            }
+        } else {
+            // observers are told when the transaction ends
+            notifyObservers(tables)
+        }
+    }
+
+    private void notifyObservers(Collection<String> tables) {
+        for (TableObserver observer : observers) {
+            if (observer.observes(tables)) observer.changed()
+        }
+    }
+
+    /**
+     * Run the query in the background now, and again whenever the tables are written
+     * to through this DbService, calling onResult in the UI thread with each result
+     * that differs from the previous one. A burst of writes (or a transaction) leads
+     * to one re-query, debounce ms after the first write.
+     *
+     * Sample usage:
+     *
+     *  def observer = db.observe(["users"], { db.findAll("users", "lastName", User) }) { List<User> users ->
+     *      adapter.update(users)
+     *  }
+     *  // in onDestroy()
+     *  observer.cancel()
+     *
+     * @return the observer, to cancel() when the result is no longer needed
+     */
+    public TableObserver observe(Collection<String> tables, long debounce = DEFAULT_OBSERVE_DEBOUNCE,
+                                 Closure query, Closure onResult) {
+        def observer = new TableObserver(this, tables, debounce, query, onResult)
+        observers.add(observer)
+        observer.refresh()
+        return observer
+    }
+
+    /**
+     * Observe a query on a single table, see observe(Collection, ...)
+     */
+    public TableObserver observe(String table, long debounce = DEFAULT_OBSERVE_DEBOUNCE,
+                                 Closure query, Closure onResult) {
+        observe(Collections.singletonList(table), debounce, query, onResult)
+    }
+
+    @PackageScope
+    void removeObserver(TableObserver observer) {
+        observers.remove(observer)
+    }
+
+    /**
+     * Run the query and call the closure with each resulting bean, reading one row
+     * at a time from the database, so that memory use stays flat regardless of the
+     * size of the result. If reuseBean is true, the same bean instance is populated
+     * for every row, so the closure must not hold on to it.
+     *
+     * Sample usage:
+     *
+     *  db.eachBean("select * from users", null, User) { User user ->
+     *      writer.println(user.firstName)
+     *  }
+     */
+    public <T> void eachBean(String sql, Map<String, ? extends Object> params, Class<T> bean,
+                             boolean reuseBean = false, Closure closure) {
+        def beans = this.<T>executeForBeanCursor(sql, params, bean, reuseBean)
+        try {
+            for (T b : beans) {
+                closure.call(b)
+            }
+        } finally {
+            beans.close()
+        }
+    }
+
+    /**
+     * Find all objects from a db table. Returns a lazy result that reads rows from
+     * the database as it is iterated, for large results. Good for sequential access,
+     * but the result can only be iterated once, and must be closed if it is not
+     * iterated to the end.
+     */
+    public <T> BeanCursor<T> lazyFindAll(String table, String orderBy, Class<T> bean) {
+        this.<T>lazyFindByFields(table, null, orderBy, bean)
+    }
+
+    /**
+     * Like findByFields() but returns a lazy result that reads rows from the database
+     * as it is iterated, for large results. Good for sequential access, but the result
+     * can only be iterated once, and must be closed if it is not iterated to the end.
+     */
+    public <T> BeanCursor<T> lazyFindByFields(String table, Map<String, ? extends Object> values,
+                                              String orderBy, Class<T> bean) {
+        def sql = getSelect(table, null, bean) + getFindByFieldsSql(table, values, orderBy)
+        this.<T>executeForBeanCursor(sql, stripOperators(values), bean, false)
+    }
+
+    /**
+     * Find all objects from a db table, as a random access result that reads rows
+     * from the database on demand, e.g. for a list adapter over a large table. Call
+     * it in a background thread, and close the result when it is no longer shown.
+     *
+     * Sample usage:
+     *
+     *  def users = db.cursorFindAll("users", "lastName", User)
+     *  def pool = new BeanPool(User, 20)
+     *  // in getView()
+     *  User user = users.get(position, holder.user ?: (holder.user = pool.acquire()))
+     *  // or without a bean at all
+     *  def row = users.row(position)
+     *  nameView.text = row.getString("lastName")
+     *
+     * All the columns of the table are read, not only those mapped onto the bean, so
+     * that the CursorRow can read any of them.
+     */
+    public <T> CursorList<T> cursorFindAll(String table, String orderBy, Class<T> bean) {
+        this.<T>cursorFindByFields(table, null, orderBy, bean)
+    }
+
+    /**
+     * Like findByFields() but returns a random access result that reads rows from
+     * the database on demand, see cursorFindAll()
+     */
+    public <T> CursorList<T> cursorFindByFields(String table, Map<String, ? extends Object> values,
+                                                String orderBy, Class<T> bean) {
+        // all columns, for CursorRow
+        def sql = "select * from " + getFindByFieldsSql(table, values, orderBy)
+        this.<T>executeForCursorList(sql, stripOperators(values), bean)
+    }
+}
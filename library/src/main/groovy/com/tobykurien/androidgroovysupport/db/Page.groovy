@@ -0,0 +1,25 @@
+package com.tobykurien.androidgroovysupport.db
+
+import groovy.transform.CompileStatic
+
+/**
+ * A page of results from DbService.findPage(). Pass the continuation key to
+ * findPage() to get the next page.
+ */
+@CompileStatic
+class Page<T> {
+    /**
+     * The results on this page
+     */
+    List<T> items
+
+    /**
+     * The order by values of the last result on this page, to pass to findPage()
+     * for the next page, or null if this is the last page
+     */
+    Map<String, Object> next
+
+    boolean hasMore() {
+        next != null
+    }
+}
@@ -0,0 +1,71 @@
+package com.tobykurien.androidgroovysupport.db
+
+import com.tobykurien.androidgroovysupport.utils.MainThread
+import groovy.transform.CompileStatic
+import groovy.transform.PackageScope
+
+/**
+ * A write queued with DbService.insertAsync(), updateAsync() or deleteAsync(). The
+ * closures are called in the UI thread once the write has been committed, even if
+ * they are set after that.
+ *
+ * Sample usage:
+ *
+ *  db.insertAsync("events", [ name: 'tap' ]) then { long id ->
+ *      // ...
+ *  } onError { e ->
+ *      toast("Could not save: ${e.message}")
+ *  }
+ */
+@CompileStatic
+class PendingWrite {
+    private Closure thenClosure
+    private Closure errorClosure
+    private boolean done = false
+    private Object result
+    private Throwable error
+
+    /**
+     * Closure to call with the result: the new row id for an insert, or the number
+     * of rows affected for an update or delete
+     */
+    synchronized PendingWrite then(Closure closure) {
+        thenClosure = closure
+        if (done && error == null) deliver(closure, result)
+        return this
+    }
+
+    /**
+     * Closure to call if the write fails. Errors are logged if there is none.
+     */
+    synchronized PendingWrite onError(Closure closure) {
+        errorClosure = closure
+        if (done && error != null) deliver(closure, error)
+        return this
+    }
+
+    synchronized boolean isDone() {
+        done
+    }
+
+    @PackageScope
+    synchronized void complete(Object result, Throwable error) {
+        this.done = true
+        this.result = result
+        this.error = error
+        if (error == null) {
+            if (thenClosure != null) deliver(thenClosure, result)
+        } else {
+            if (errorClosure != null) deliver(errorClosure, error)
+        }
+    }
+
+    private static void deliver(final Closure closure, final Object value) {
+        MainThread.get().post(new Runnable() {
+            @Override
+            void run() {
+                closure.call(value)
+            }
+        })
+    }
+}
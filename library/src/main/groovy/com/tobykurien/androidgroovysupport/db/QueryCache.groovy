@@ -0,0 +1,268 @@
+package com.tobykurien.androidgroovysupport.db
+
+import groovy.transform.CompileStatic
+
+/**
+ * A memory-bounded LRU cache of query results, keyed by the normalised SQL and its
+ * parameters, and tagged with the tables each query reads so that writes to those
+ * tables can invalidate them. The size is bounded by the total number of rows held,
+ * with each result counting as at least one row, so that empty results are bounded too.
+ *
+ * Tables changed by triggers or foreign key cascades are not detected, call
+ * invalidateAll() after writes that cause them.
+ */
+@CompileStatic
+class QueryCache {
+    private static final Set<String> TABLE_LIST_END = [ "where", "group", "order", "limit", "having", "union",
+            "intersect", "except", "join", "inner", "left", "right", "outer", "cross", "natural", "on",
+            "using", "window", ")" ] as Set<String>
+
+    private final int maxRows
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+    private final Map<String, Set<String>> keysByTable = new HashMap<String, Set<String>>()
+    private int rows = 0
+    private long generation = 0
+
+    private long hitCount = 0
+    private long missCount = 0
+    private long evictionCount = 0
+    private long invalidationCount = 0
+
+    private static class Entry {
+        Object value
+        // the number of rows, at least 1
+        int rows
+        Set<String> tables
+    }
+
+    /**
+     * @param maxRows - the maximum total number of rows (or objects) to cache
+     */
+    QueryCache(int maxRows) {
+        this.maxRows = maxRows
+    }
+
+    /**
+     * Get a cached result
+     * @return the result, or null if it is not cached
+     */
+    synchronized Object get(String key) {
+        def entry = entries.get(key)
+        if (entry == null) {
+            missCount++
+            return null
+        }
+        hitCount++
+        return entry.value
+    }
+
+    /**
+     * The current generation, which changes on every invalidation. Read it before
+     * running a query and pass it to put(), so that results which may have been
+     * changed by a concurrent write are not cached.
+     */
+    synchronized long getGeneration() {
+        generation
+    }
+
+    /**
+     * Cache a result, unless there have been writes since the generation was read
+     * @param tables - the tables the query reads, or null to not cache it
+     */
+    synchronized void put(String key, Object value, int rows, Set<String> tables, long generation) {
+        int size = Math.max(1, rows)
+        if (tables == null || generation != this.generation || size > maxRows) return
+
+        remove(key)
+        entries.put(key, new Entry(value: value, rows: size, tables: tables))
+        this.rows += size
+        for (String table : tables) {
+            def keys = keysByTable.get(table)
+            if (keys == null) {
+                keys = new HashSet<String>()
+                keysByTable.put(table, keys)
+            }
+            keys.add(key)
+        }
+
+        // evict least recently used results
+        def iterator = entries.entrySet().iterator()
+        while (this.rows > maxRows && iterator.hasNext()) {
+            def eldest = iterator.next()
+            iterator.remove()
+            unindex(eldest.key, eldest.value)
+            evictionCount++
+        }
+    }
+
+    /**
+     * Remove the results of all queries reading the tables
+     * @param tables - the tables written to, or null if unknown, to clear everything
+     */
+    synchronized void invalidate(Collection<String> tables) {
+        generation++
+        if (tables == null) {
+            invalidateAll()
+            return
+        }
+
+        for (String table : tables) {
+            def keys = keysByTable.remove(table.toLowerCase())
+            if (keys == null) continue
+            for (String key : new ArrayList<String>(keys)) {
+                if (remove(key)) invalidationCount++
+            }
+        }
+    }
+
+    /**
+     * Remove all cached results
+     */
+    synchronized void invalidateAll() {
+        generation++
+        invalidationCount += entries.size()
+        entries.clear()
+        keysByTable.clear()
+        rows = 0
+    }
+
+    private boolean remove(String key) {
+        def entry = entries.remove(key)
+        if (entry == null) return false
+        unindex(key, entry)
+        return true
+    }
+
+    private void unindex(String key, Entry entry) {
+        rows -= entry.rows
+        for (String table : entry.tables) {
+            def keys = keysByTable.get(table)
+            keys?.remove(key)
+            if (keys != null && keys.isEmpty()) keysByTable.remove(table)
+        }
+    }
+
+    /**
+     * @return hit, miss, eviction and invalidation counts, and the current size
+     */
+    synchronized Map<String, Long> getStats() {
+        [
+                hits: hitCount,
+                misses: missCount,
+                evictions: evictionCount,
+                invalidations: invalidationCount,
+                entries: (long) entries.size(),
+                rows: (long) rows
+        ] as Map<String, Long>
+    }
+
+    /**
+     * Build the cache key for a query from the normalised SQL and the parameters
+     * @param kind - the kind of result, e.g. the bean class name
+     */
+    static String key(String kind, String sql, Map<String, ? extends Object> params) {
+        def key = new StringBuilder(sql.length() + 32)
+        key.append(kind).append('|').append(sql.trim().replaceAll("\\s+", " "))
+        if (params) {
+            for (String name : new TreeSet<String>(params.keySet())) {
+                def value = params.get(name)
+                key.append('|').append(name).append('=')
+                if (value instanceof Date) {
+                    key.append((value as Date).time)
+                } else if (value != null) {
+                    key.append(value.getClass().simpleName).append(':').append(value)
+                } else {
+                    key.append("null")
+                }
+            }
+        }
+        return key.toString()
+    }
+
+    /**
+     * Get the tables read by a query, from its from and join clauses
+     */
+    static Set<String> readTables(String sql) {
+        def tables = new HashSet<String>()
+        def tokens = tokenize(sql)
+        for (int i = 0; i < tokens.size(); i++) {
+            def token = tokens[i]
+            if (token != "from" && token != "join") continue
+
+            // a table list, e.g. "from a x, b as y"
+            int j = i + 1
+            while (j < tokens.size() && tokens[j] != "(") {
+                tables.add(unqualified(tokens[j]))
+                j++
+                while (j < tokens.size() && tokens[j] != "," && !TABLE_LIST_END.contains(tokens[j])) j++
+                if (j < tokens.size() && tokens[j] == ",") {
+                    j++
+                } else {
+                    break
+                }
+            }
+        }
+        return tables
+    }
+
+    /**
+     * Get the table changed by a statement, or null if unknown (e.g. for DDL)
+     */
+    static Set<String> writtenTables(String sql) {
+        def tokens = tokenize(sql)
+        if (tokens.isEmpty()) return null
+
+        int i = 0
+        switch (tokens[0]) {
+            case "insert":
+            case "replace":
+                while (i < tokens.size() && tokens[i] != "into") i++
+                i++
+                break
+            case "update":
+                i = 1
+                if (i < tokens.size() && tokens[i] == "or") i += 2
+                break
+            case "delete":
+                i = 2
+                break
+            default:
+                return null
+        }
+
+        return i < tokens.size() ? ([ unqualified(tokens[i]) ] as Set<String>) : null
+    }
+
+    /**
+     * Strip the database name from a table name, e.g. main.users
+     */
+    private static String unqualified(String table) {
+        table.substring(table.lastIndexOf('.') + 1)
+    }
+
+    /**
+     * Split SQL into lower case words and punctuation, skipping string literals
+     */
+    private static List<String> tokenize(String sql) {
+        def tokens = new ArrayList<String>()
+        int len = sql.length()
+        int i = 0
+        while (i < len) {
+            char c = sql.charAt(i)
+            if (Character.isWhitespace(c)) {
+                i++
+            } else if (c == '\'' as char) {
+                i = sql.indexOf('\'', i + 1)
+                i = i < 0 ? len : i + 1
+            } else if (Character.isLetterOrDigit(c) || c == '_' as char || c == '"' as char || c == '`' as char) {
+                int start = i
+                while (i < len && (Character.isLetterOrDigit(sql.charAt(i)) || "_.\"`[]".indexOf((int) sql.charAt(i)) >= 0)) i++
+                tokens.add(sql.substring(start, i).replaceAll("[\"`\\[\\]]", "").toLowerCase())
+            } else {
+                tokens.add(String.valueOf(c))
+                i++
+            }
+        }
+        return tokens
+    }
+}
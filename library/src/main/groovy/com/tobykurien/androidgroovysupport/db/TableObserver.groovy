@@ -0,0 +1,209 @@
+package com.tobykurien.androidgroovysupport.db
+
+import android.util.Log
+import com.tobykurien.androidgroovysupport.utils.Async
+import com.tobykurien.androidgroovysupport.utils.MainThread
+import groovy.transform.CompileStatic
+import groovy.transform.PackageScope
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+
+/**
+ * A query that is run again when the tables it reads are written to, returned by
+ * DbService.observe(). Changes within the debounce window of the first one are
+ * coalesced into a single re-query, which runs on the Async default executor. The
+ * result is passed to the UI thread only if it differs from the previous one.
+ *
+ * Results are compared by value: lists item by item, objects whose class overrides
+ * equals() with equals(), and other beans by their column values (getBeanValues), so
+ * a change to a field that is not a column does not count. Use setComparator() to
+ * compare results differently.
+ *
+ * Call cancel() when the screen showing the result goes away.
+ */
+@CompileStatic
+class TableObserver {
+    private static final String TAG = "TableObserver"
+
+    private static final ScheduledExecutorService DEBOUNCER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                Thread newThread(Runnable r) {
+                    def thread = new Thread(r, "TableObserver debounce")
+                    thread.setDaemon(true)
+                    return thread
+                }
+            })
+
+    // whether each result class overrides equals(), or is compared by column values
+    private static final Map<Class, Boolean> VALUE_CLASSES = new ConcurrentHashMap<Class, Boolean>()
+
+    private final DbService db
+    private final Set<String> tables
+    private final long debounce
+    private final Closure query
+    private final Closure onResult
+
+    private final Object lock = new Object()
+    private ScheduledFuture<?> scheduled
+    private boolean running = false
+    private boolean dirty = false
+    private Object lastResult
+    private boolean delivered = false
+    private Comparator<Object> comparator
+    private volatile boolean cancelled = false
+
+    TableObserver(DbService db, Collection<String> tables, long debounce, Closure query, Closure onResult) {
+        this.db = db
+        this.tables = new HashSet<String>()
+        for (String table : tables) this.tables.add(table.toLowerCase())
+        this.debounce = debounce
+        this.query = query
+        this.onResult = onResult
+    }
+
+    /**
+     * @return true if this observer reads any of the tables (null for unknown tables)
+     */
+    boolean observes(Collection<String> changed) {
+        if (changed == null) return true
+        for (String table : changed) {
+            if (tables.contains(table.toLowerCase())) return true
+        }
+        return false
+    }
+
+    /**
+     * Re-run the query after the debounce window, unless already scheduled
+     */
+    void changed() {
+        synchronized (lock) {
+            if (cancelled || scheduled != null) return
+            if (running) {
+                // run again once the query in progress is done
+                dirty = true
+                return
+            }
+            scheduled = DEBOUNCER.schedule(new Runnable() {
+                @Override
+                void run() {
+                    synchronized (lock) {
+                        scheduled = null
+                    }
+                    refresh()
+                }
+            }, debounce, TimeUnit.MILLISECONDS)
+        }
+    }
+
+    /**
+     * Re-run the query now, in the background
+     */
+    void refresh() {
+        synchronized (lock) {
+            if (cancelled) return
+            if (running) {
+                dirty = true
+                return
+            }
+            running = true
+        }
+        Async.defaultExecutor.execute(new Runnable() {
+            @Override
+            void run() {
+                runQuery()
+            }
+        })
+    }
+
+    private void runQuery() {
+        try {
+            def result = query.call()
+            boolean changed
+            synchronized (lock) {
+                changed = !delivered || (comparator != null ? comparator.compare(result, lastResult) != 0
+                        : !sameResult(result, lastResult))
+                lastResult = result
+                delivered = true
+            }
+            if (changed && !cancelled) {
+                MainThread.get().post(new Runnable() {
+                    @Override
+                    void run() {
+                        if (!cancelled) onResult.call(result)
+                    }
+                })
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "error re-running query on " + tables, e)
+        } finally {
+            boolean again
+            synchronized (lock) {
+                running = false
+                again = dirty
+                dirty = false
+            }
+            if (again) changed()
+        }
+    }
+
+    /**
+     * Compare each result with the previous one using this comparator, instead of by
+     * value. A result is only delivered if the comparator doesn't return 0.
+     */
+    void setComparator(Comparator<Object> comparator) {
+        synchronized (lock) {
+            this.comparator = comparator
+        }
+    }
+
+    @PackageScope
+    boolean sameResult(Object a, Object b) {
+        if (a.is(b)) return true
+        if (a == null || b == null) return false
+        if (a instanceof List && b instanceof List) {
+            def first = a as List
+            def second = b as List
+            if (first.size() != second.size()) return false
+            for (int i = 0; i < first.size(); i++) {
+                if (!sameResult(first.get(i), second.get(i))) return false
+            }
+            return true
+        }
+        if (a.getClass().isArray() && b.getClass().isArray()) {
+            return Arrays.deepEquals([a] as Object[], [b] as Object[])
+        }
+        if (a.getClass() != b.getClass() || overridesEquals(a.getClass())) return a.equals(b)
+        return db.getBeanValues(a).equals(db.getBeanValues(b))
+    }
+
+    private static boolean overridesEquals(Class type) {
+        Boolean overrides = VALUE_CLASSES.get(type)
+        if (overrides == null) {
+            overrides = type.getMethod("equals", Object).declaringClass != Object
+            VALUE_CLASSES.put(type, overrides)
+        }
+        return overrides
+    }
+
+    /**
+     * Stop observing. The result of a query in progress is not delivered.
+     */
+    void cancel() {
+        synchronized (lock) {
+            cancelled = true
+            scheduled?.cancel(false)
+            scheduled = null
+        }
+        db.removeObserver(this)
+    }
+
+    boolean isCancelled() {
+        cancelled
+    }
+}
@@ -0,0 +1,258 @@
+package com.tobykurien.androidgroovysupport.db
+
+import android.database.SQLException
+import android.util.Log
+import groovy.transform.CompileStatic
+
+import java.util.concurrent.CountDownLatch
+
+/**
+ * Writes queued by DbService.insertAsync(), updateAsync() and deleteAsync(), done by
+ * a single background thread. Writes are committed in batches, one transaction per
+ * batch: a batch is written once it has maxBatchSize writes, maxDelay ms after its
+ * first write, or on flush(). Queued updates of the same row are merged into one.
+ *
+ * If a write fails (including an insert that returns -1), its batch is rolled back
+ * and the writes are done again one transaction each, so that only the write that
+ * failed is reported to onError() and the others are still committed.
+ */
+@CompileStatic
+class WriteQueue {
+    private static final String TAG = "WriteQueue"
+
+    /**
+     * Default maximum number of writes per transaction
+     */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 500
+
+    /**
+     * Default time (ms) to wait for more writes before committing
+     */
+    public static final long DEFAULT_MAX_DELAY = 50
+
+    private static enum Kind { INSERT, UPDATE, DELETE, BARRIER }
+
+    private static class Write {
+        final Kind kind
+        final String table
+        final String id
+        final Map<String, Object> values
+        final List<PendingWrite> pending = new ArrayList<PendingWrite>(1)
+        final CountDownLatch barrier
+
+        Write(Kind kind, String table, String id, Map<String, Object> values) {
+            this.kind = kind
+            this.table = table
+            this.id = id
+            this.values = values
+            this.barrier = kind == Kind.BARRIER ? new CountDownLatch(1) : null
+        }
+    }
+
+    private final DbService db
+    private final Object lock = new Object()
+    private final LinkedList<Write> queue = new LinkedList<Write>()
+
+    // queued updates that later updates of the same row can be merged into
+    private final Map<String, Write> mergeable = new HashMap<String, Write>()
+
+    private int barriers = 0
+    private Thread writer
+
+    // whether the writer thread is writing a batch
+    private boolean writing = false
+
+    volatile int maxBatchSize = DEFAULT_MAX_BATCH_SIZE
+    volatile long maxDelay = DEFAULT_MAX_DELAY
+
+    WriteQueue(DbService db) {
+        this.db = db
+    }
+
+    PendingWrite insert(String table, Map<String, Object> values) {
+        enqueue(new Write(Kind.INSERT, table, null, values))
+    }
+
+    PendingWrite update(String table, Map<String, Object> values, String id) {
+        enqueue(new Write(Kind.UPDATE, table, id, values))
+    }
+
+    PendingWrite delete(String table, String id) {
+        enqueue(new Write(Kind.DELETE, table, id, null))
+    }
+
+    private PendingWrite enqueue(Write write) {
+        def pending = new PendingWrite()
+        synchronized (lock) {
+            String key = write.table.toLowerCase() + "\u0000" + write.id
+            switch (write.kind) {
+                case Kind.UPDATE:
+                    def queued = mergeable.get(key)
+                    if (queued != null) {
+                        queued.values.putAll(write.values)
+                        queued.pending.add(pending)
+                        return pending
+                    }
+                    mergeable.put(key, write)
+                    break
+                case Kind.DELETE:
+                    mergeable.remove(key)
+                    break
+                case Kind.INSERT:
+                    // the row id is not known, so the insert may replace any row of the table
+                    String prefix = write.table.toLowerCase() + "\u0000"
+                    mergeable.keySet().removeAll(mergeable.keySet().findAll { String k -> k.startsWith(prefix) })
+                    break
+            }
+
+            write.pending.add(pending)
+            queue.add(write)
+            startWriter()
+            lock.notifyAll()
+        }
+        return pending
+    }
+
+    /**
+     * Wait until the writes queued so far have been committed. Must not be called in
+     * the UI thread, as it blocks.
+     */
+    void flush() {
+        def barrier = new Write(Kind.BARRIER, null, null, null)
+        synchronized (lock) {
+            if (Thread.currentThread() == writer) return
+            if (queue.isEmpty() && barriers == 0 && !writing) return
+            // later updates must not be merged into writes before the barrier
+            mergeable.clear()
+            barriers++
+            queue.add(barrier)
+            startWriter()
+            lock.notifyAll()
+        }
+        barrier.barrier.await()
+    }
+
+    /**
+     * @return the number of writes waiting to be committed
+     */
+    int getSize() {
+        synchronized (lock) {
+            queue.size() - barriers
+        }
+    }
+
+    private void startWriter() {
+        if (writer != null) return
+        writer = new Thread(new Runnable() {
+            @Override
+            void run() {
+                writeBatches()
+            }
+        }, "DbService writer")
+        writer.setDaemon(true)
+        writer.start()
+    }
+
+    private void writeBatches() {
+        try {
+            writeEachBatch()
+        } finally {
+            // write() only catches Exceptions: if anything else ended the thread, start
+            // a new one, so that later writes and flush() don't wait forever
+            synchronized (lock) {
+                writer = null
+                if (!queue.isEmpty()) startWriter()
+            }
+        }
+    }
+
+    private void writeEachBatch() {
+        while (true) {
+            List<Write> batch = new ArrayList<Write>()
+            synchronized (lock) {
+                while (queue.isEmpty()) lock.wait()
+                long deadline = System.currentTimeMillis() + maxDelay
+                long now
+                while (queue.size() < maxBatchSize && barriers == 0 && (now = System.currentTimeMillis()) < deadline) {
+                    lock.wait(deadline - now)
+                }
+
+                while (!queue.isEmpty() && batch.size() < maxBatchSize) {
+                    def write = queue.removeFirst()
+                    batch.add(write)
+                    if (write.kind == Kind.BARRIER) {
+                        barriers--
+                    } else if (write.kind == Kind.UPDATE) {
+                        def key = write.table.toLowerCase() + "\u0000" + write.id
+                        if (mergeable.get(key) == write) mergeable.remove(key)
+                    }
+                }
+                writing = true
+            }
+
+            try {
+                write(batch)
+            } finally {
+                synchronized (lock) {
+                    writing = false
+                }
+                for (Write write : batch) {
+                    if (write.barrier != null) write.barrier.countDown()
+                }
+            }
+        }
+    }
+
+    private void write(List<Write> batch) {
+        Object[] results = new Object[batch.size()]
+        try {
+            db.inTransaction {
+                for (int i = 0; i < batch.size(); i++) {
+                    results[i] = apply(batch.get(i))
+                }
+            }
+        } catch (Exception e) {
+            if (batch.size() > 1) {
+                // the batch was rolled back, so write its writes one at a time, and only
+                // the one that failed gets the error
+                Log.w(TAG, "rolled back ${batch.size()} writes, writing them one at a time", e)
+                for (Write single : batch) {
+                    write(Collections.singletonList(single))
+                }
+            } else {
+                Log.e(TAG, "error writing to ${batch.get(0).table}", e)
+                complete(batch.get(0), null, e)
+            }
+            return
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            complete(batch.get(i), results[i], null)
+        }
+    }
+
+    /**
+     * @return the new row id of an insert, or the number of rows affected
+     * @throws SQLException if an insert fails
+     */
+    private Object apply(Write write) {
+        switch (write.kind) {
+            case Kind.INSERT:
+                // insert() returns -1 rather than throwing
+                long id = db.insert(write.table, write.values) as long
+                if (id == -1) throw new SQLException("could not insert into ${write.table}")
+                return id
+            case Kind.UPDATE:
+                return db.update(write.table, write.values, write.id)
+            case Kind.DELETE:
+                return db.delete(write.table, write.id)
+        }
+        return null
+    }
+
+    private static void complete(Write write, Object result, Throwable error) {
+        for (PendingWrite pending : write.pending) {
+            pending.complete(result, error)
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.tobykurien.androidgroovysupport.utils
+
+import groovy.transform.CompileStatic
+
+/**
+ * The errors of several tasks that were run together, e.g. by Async.all()
+ */
+@CompileStatic
+class AggregateException extends Exception {
+    final List<Throwable> causes
+
+    AggregateException(List<Throwable> causes) {
+        super("${causes.size()} task(s) failed" + (causes ? ", first error: ${causes.first()}" : ""),
+                causes ? causes.first() : null)
+        this.causes = Collections.unmodifiableList(new ArrayList<Throwable>(causes))
+    }
+}
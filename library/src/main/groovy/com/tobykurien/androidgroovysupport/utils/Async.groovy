@@ -8,33 +8,54 @@ import groovy.transform.stc.ClosureParams
 import groovy.transform.stc.FirstParam
 import groovy.transform.stc.SimpleType
 
+import java.util.concurrent.Callable
+import java.util.concurrent.Executor
 import java.util.concurrent.TimeUnit
 
 /**
  * An implementation of {@link android.os.AsyncTask} which makes it easy to deal with
  * requests/callbacks using Groovy closures
  *
+ * Tasks run on the default executor (PriorityExecutor.DEFAULT unless changed with
+ * setDefaultExecutor()), or the executor and lane set for the task.
+ *
  * Modified from: https://gist.github.com/karfunkel/6eba3c237890f90c2779
  * Originally from: https://gist.github.com/melix/355185ffbc1332952cc8
  */
 @CompileStatic
 public class Async<Result, Progress> extends AsyncTask<Object, Progress, Result> {
+    private static volatile Executor defaultExecutor = PriorityExecutor.DEFAULT
+
+    private Executor executor
+    private PriorityExecutor.Lane lane
     private Closure<Result> request
     private Closure<Void> first
     private Closure<Void> then
     private Closure<Void> error
     private Closure<Void> cancelledClosure
     private Closure progress
+    private long memoTtl = 0
     Exception exception
 
     @Override
     protected Result doInBackground(Object... params) {
+        Result result = null
         if (request) try {
-            return request(params)
+            result = request(params)
         } catch (Exception e) {
             exception = e
-            return null
         }
+
+        // then() and onError() are posted through MainThread rather than AsyncTask's
+        // handler, so that they also run where there is no main looper (MainThread.Inline)
+        final Result posted = result
+        MainThread.get().post(new Runnable() {
+            @Override
+            void run() {
+                deliver(posted)
+            }
+        })
+        return result
     }
 
     @Override
@@ -50,7 +71,14 @@ public class Async<Result, Progress> extends AsyncTask<Object, Progress, Result>
 
     @Override
     protected void onPostExecute(Result result) {
-        if (continueTask() && exception == null && then) {
+        // the result was already posted to deliver() by doInBackground()
+    }
+
+    private void deliver(Result result) {
+        // like onPostExecute(), nothing is delivered (or thrown) for a cancelled task
+        if (isCancelled()) return
+
+        if (exception == null && then) {
             try {
                 then(result)
             } catch (Exception e) {
@@ -129,6 +157,19 @@ public class Async<Result, Progress> extends AsyncTask<Object, Progress, Result>
             return this
         }
 
+        /**
+         * Chain another background stage: the closure is called with the result of
+         * the previous stage on the same background thread, without a trip to the UI
+         * thread in between, and its result is passed on to then()
+         */
+        public <Next> FluentAsyncTaskBuilder<Next, Progress> thenAsync(
+                @DelegatesTo(value = Async, strategy = Closure.OWNER_FIRST) Closure<Next> next) {
+            final Closure previous = task.request
+            next.delegate = task
+            task.request = { Object[] params -> next.call(previous.call(params)) }
+            return this as FluentAsyncTaskBuilder<Next, Progress>
+        }
+
         FluentAsyncTaskBuilder<Result, ?> onProgress(@DelegatesTo(value = Async, strategy = Closure.OWNER_FIRST) Closure progress) {
             progress.delegate = task
             task.progress = progress
@@ -160,11 +201,36 @@ public class Async<Result, Progress> extends AsyncTask<Object, Progress, Result>
             return this
         }
 
+        /**
+         * Run the task on the specified executor, instead of the default executor
+         */
+        FluentAsyncTaskBuilder<Result, ?> on(Executor executor) {
+            task.executor = executor
+            return this
+        }
+
+        /**
+         * Run the task in the specified lane of the executor (if it is a PriorityExecutor)
+         */
+        FluentAsyncTaskBuilder<Result, ?> priority(PriorityExecutor.Lane lane) {
+            task.lane = lane
+            return this
+        }
+
+        /**
+         * For keyed tasks, re-use a result that finished less than ttl ms ago instead
+         * of running the closure again
+         */
+        FluentAsyncTaskBuilder<Result, ?> memoize(long ttl) {
+            task.memoTtl = ttl
+            return this
+        }
+
         AsyncTask<Object, Progress, Result> execute(Object... params) {
             task.exception = null
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
                 // newer versions of Android use a single thread, rather default to multiple threads
-                task.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, params)
+                task.executeOnExecutor(PriorityExecutor.forLane(task.executor ?: defaultExecutor, task.lane), params)
             } else {
                 // older versions of Android already use a thread pool
                 task.execute(params)
@@ -180,8 +246,92 @@ public class Async<Result, Progress> extends AsyncTask<Object, Progress, Result>
         }
     }
 
+    /**
+     * @return the executor that tasks run on unless set with on()
+     */
+    static Executor getDefaultExecutor() {
+        defaultExecutor
+    }
+
+    /**
+     * Set the executor that Async and BgTask tasks run on unless set per task
+     */
+    static void setDefaultExecutor(Executor executor) {
+        defaultExecutor = executor ?: PriorityExecutor.DEFAULT
+    }
+
+    /**
+     * Run the closures in parallel, and pass the list of their results (in the same
+     * order) to then(). If any of them fail, onError() gets an AggregateException with
+     * all the errors.
+     *
+     * Sample usage:
+     *
+     *  Async.all({ loadProfile() }, { loadFeed() }, { loadNotifications() }) then { List results ->
+     *      // ...
+     *  } execute()
+     */
+    static FluentAsyncTaskBuilder<List<Object>, Object> all(Closure... sources) {
+        fanOut(sources, FanOut.Mode.ALL)
+    }
+
+    /**
+     * Run the closures in parallel, and pass the result of the first one to succeed
+     * to then(). onError() gets an AggregateException if they all fail.
+     */
+    static FluentAsyncTaskBuilder<Object, Object> any(Closure... sources) {
+        fanOut(sources, FanOut.Mode.ANY)
+    }
+
+    /**
+     * Run the closures in parallel, and pass the result (or error) of the first one
+     * to finish to then() (or onError()). The others are cancelled.
+     */
+    static FluentAsyncTaskBuilder<Object, Object> race(Closure... sources) {
+        fanOut(sources, FanOut.Mode.RACE)
+    }
+
+    private static <Result> FluentAsyncTaskBuilder<Result, Object> fanOut(Closure[] sources, FanOut.Mode mode) {
+        final Async<Result, Object> task = new Async<Result, Object>()
+        final List<Closure> closures = sources.toList()
+        return new FluentAsyncTaskBuilder<Result, Object>(task).from {
+            // the sources run on the same executor as the task
+            (Result) FanOut.run(PriorityExecutor.forLane(task.executor ?: defaultExecutor, task.lane), closures, mode)
+        }
+    }
+
     static <Result, Progress> FluentAsyncTaskBuilder<Result, Progress> background(@DelegatesTo(value = Async, strategy = Closure.OWNER_FIRST) Closure<Result> request) {
         Async<Result, Progress> task = new Async<Result, Progress>()
         return new FluentAsyncTaskBuilder<Result, Progress>(task).from(request)
     }
+
+    /**
+     * Run the request in the background, unless a task with the same key is already
+     * running it, in which case this task waits for and shares its result. The request
+     * runs on the thread of the task that started it; if that task is cancelled, a task
+     * still waiting runs it again. Progress is only published to the task that ran it.
+     *
+     * Sample usage:
+     *
+     *  Async.background("webapps") {
+     *      db.findAll("webapps", "name", Webapp)
+     *  } memoize(5.seconds()) then { List<Webapp> webapps ->
+     *      // ...
+     *  } execute()
+     */
+    static <Result, Progress> FluentAsyncTaskBuilder<Result, Progress> background(final Object key,
+            @DelegatesTo(value = Async, strategy = Closure.OWNER_FIRST) final Closure<Result> request) {
+        final Async<Result, Progress> task = new Async<Result, Progress>()
+        request.delegate = task
+        return new FluentAsyncTaskBuilder<Result, Progress>(task).from { Object[] params ->
+            (Result) SingleFlight.await(key, task.memoTtl, { request.call(params) } as Callable<Object>)
+        }
+    }
+
+    /**
+     * Forget the remembered result of keyed tasks, e.g. after the data has changed
+     */
+    static void forget(Object key) {
+        SingleFlight.forget(key)
+    }
 }
@@ -2,32 +2,151 @@ package com.tobykurien.androidgroovysupport.utils
 
 import android.content.Context
 import android.content.SharedPreferences
+import android.os.Looper
 import android.preference.PreferenceManager
+import android.util.Log
 import groovy.transform.CompileStatic
 
-import java.util.WeakHashMap
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
 
 /**
  * A base class for easy access to SharedPreferences. Implements caching of
  * SharedPreferences instances. Use in conjunction with the @Preference
  * annotation
+ *
+ * There is one instance of each subclass per process, shared by all Activities.
+ * Loading the preferences file blocks the first access, so call preload() at app
+ * start (e.g. in Application.onCreate()) to load it on a background thread instead.
+ *
+ * Values set with writeBack() are collected in a single editor and committed
+ * together on a background thread shortly afterwards, so that setting several
+ * preferences in a row costs one disk write, none of it on the calling thread.
+ * Call flush() where the values must be on disk, e.g. before the process may
+ * be killed.
  */
 @CompileStatic
 class BasePreferences {
+    /**
+     * Default time (ms) to wait for more changes before writing them
+     */
+    public static final long DEFAULT_WRITE_DELAY = 100
+
+    private static final String TAG = "BasePreferences"
+
+    // runs preloads and batched writes
+    private static final ScheduledExecutorService BACKGROUND = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                Thread newThread(Runnable r) {
+                    def thread = new Thread(r, "BasePreferences")
+                    thread.setDaemon(true)
+                    return thread
+                }
+            })
+
     protected SharedPreferences pref
-    protected static WeakHashMap cache = new WeakHashMap<Integer, BasePreferences>()
+    protected static final ConcurrentHashMap<Class<?>, BasePreferences> cache = new ConcurrentHashMap<Class<?>, BasePreferences>()
+
+    private static final Object statsLock = new Object()
+    private static long hitCount = 0
+    private static long loadCount = 0
+    private static long mainThreadLoadCount = 0
+    private static long totalLoadNanos = 0
+    private static long maxLoadNanos = 0
+
+    /**
+     * Time (ms) to wait for more changes before writing them
+     */
+    long writeDelay = DEFAULT_WRITE_DELAY
+
+    private final Object editLock = new Object()
+    private final Object commitLock = new Object()
+    private SharedPreferences.Editor pendingEdits = null
+    private ScheduledFuture<?> pendingWrite = null
 
     protected BasePreferences() {
     }
 
+    /**
+     * Get the shared instance of the preferences subclass, creating it on first use
+     */
     static <T extends BasePreferences> T getPreferences(Context context, Class<T> subclass) {
-        if(cache.keySet().size() > 5) cache.clear() // avoid memory leaks by clearing often
-        if (cache.get(context.hashCode()) == null) {
-            def preferences = PreferenceManager.getDefaultSharedPreferences(context.getApplicationContext())
-            cache.put(context.hashCode(), newInstance(subclass, preferences))
+        def instance = cache.get(subclass)
+        if (instance != null) {
+            synchronized (statsLock) {
+                hitCount++
+            }
+            return instance as T
         }
 
-        cache.get(context.hashCode()) as T
+        def created = newInstance(subclass, loadPreferences(context)) as BasePreferences
+        def existing = cache.putIfAbsent(subclass, created)
+        return (existing ?: created) as T
+    }
+
+    /**
+     * Load the preferences file and create the instances of the subclasses on a
+     * background thread, so that their first use does not wait for disk I/O
+     */
+    static void preload(Context context, Class<? extends BasePreferences>... subclasses) {
+        def appContext = context.applicationContext ?: context
+        BACKGROUND.execute(new Runnable() {
+            @Override
+            void run() {
+                try {
+                    if (subclasses.length == 0) {
+                        loadPreferences(appContext)
+                    }
+                    for (Class<? extends BasePreferences> subclass : subclasses) {
+                        getPreferences(appContext, subclass)
+                    }
+                } catch (Exception e) {
+                    Log.e(TAG, "Error preloading preferences", e)
+                }
+            }
+        })
+    }
+
+    /**
+     * Get the default SharedPreferences, waiting for the file to be loaded, and
+     * record the time taken
+     */
+    private static SharedPreferences loadPreferences(Context context) {
+        long start = System.nanoTime()
+        def preferences = PreferenceManager.getDefaultSharedPreferences(context.applicationContext ?: context)
+        preferences.contains("") // blocks until loaded
+        long time = System.nanoTime() - start
+
+        boolean mainThread = Looper.getMainLooper() != null && Looper.myLooper() == Looper.getMainLooper()
+        synchronized (statsLock) {
+            loadCount++
+            if (mainThread) mainThreadLoadCount++
+            totalLoadNanos += time
+            maxLoadNanos = Math.max(maxLoadNanos, time)
+        }
+        return preferences
+    }
+
+    /**
+     * @return the number of cached instances, cache hits, loads of the preferences
+     * (and how many were on the main thread), and the total and maximum load time in ms
+     */
+    static Map<String, Object> getStats() {
+        synchronized (statsLock) {
+            return [
+                    instances: cache.size(),
+                    hits: hitCount,
+                    loads: loadCount,
+                    mainThreadLoads: mainThreadLoadCount,
+                    totalLoadMs: totalLoadNanos / 1000000d,
+                    maxLoadMs: maxLoadNanos / 1000000d
+            ] as Map<String, Object>
+        }
     }
 
     private setPref(SharedPreferences preferences) {
@@ -51,6 +170,69 @@ class BasePreferences {
         return instance;
     }
 
+    /**
+     * Queue a change to a preference, to be written with the next batch
+     * @param value - a String, Set<String>, Integer, Long, Float or Boolean, or null to remove it
+     */
+    protected void writeBack(String key, Object value) {
+        synchronized (editLock) {
+            if (pendingEdits == null) pendingEdits = pref.edit()
+            if (value == null) {
+                pendingEdits.remove(key)
+            } else if (value instanceof String) {
+                pendingEdits.putString(key, value as String)
+            } else if (value instanceof Set) {
+                pendingEdits.putStringSet(key, value as Set<String>)
+            } else if (value instanceof Integer) {
+                pendingEdits.putInt(key, value as Integer)
+            } else if (value instanceof Long) {
+                pendingEdits.putLong(key, value as Long)
+            } else if (value instanceof Float) {
+                pendingEdits.putFloat(key, value as Float)
+            } else if (value instanceof Boolean) {
+                pendingEdits.putBoolean(key, value as Boolean)
+            } else {
+                pendingEdits.putString(key, String.valueOf(value))
+            }
+
+            // the first change schedules the write, later ones join the same batch
+            if (pendingWrite == null) {
+                pendingWrite = BACKGROUND.schedule(new Runnable() {
+                    @Override
+                    void run() {
+                        flush()
+                    }
+                }, writeDelay, TimeUnit.MILLISECONDS)
+            }
+        }
+    }
+
+    /**
+     * Write any pending changes to disk now, on the calling thread
+     * @return false if the write failed
+     */
+    boolean flush() {
+        synchronized (commitLock) {
+            SharedPreferences.Editor edits
+            synchronized (editLock) {
+                edits = pendingEdits
+                pendingEdits = null
+                pendingWrite?.cancel(false)
+                pendingWrite = null
+            }
+            return edits == null || edits.commit()
+        }
+    }
+
+    /**
+     * @return true if there are changes that have not been written yet
+     */
+    boolean hasPendingWrites() {
+        synchronized (editLock) {
+            return pendingEdits != null
+        }
+    }
+
     static clearCache() {
         cache.clear()
     }
@@ -8,6 +8,8 @@ import groovy.transform.stc.ClosureParams
 import groovy.transform.stc.FirstParam
 import groovy.transform.stc.SimpleType
 
+import java.util.concurrent.Executor
+
 @CompileStatic
 class BgTask<T> extends AsyncTask<Object, Void, T> {
     Closure<T> inBg
@@ -15,6 +17,16 @@ class BgTask<T> extends AsyncTask<Object, Void, T> {
     Closure<Void> onError
     Exception error
 
+    /**
+     * The executor to run on, or null for Async.defaultExecutor
+     */
+    Executor executor
+
+    /**
+     * The lane to run in, if the executor is a PriorityExecutor
+     */
+    PriorityExecutor.Lane lane
+
     public void runInBg(Closure<T> bg,
                         @ClosureParams(FirstParam.FirstGenericType.class) Closure<Void> onUi,
                         @ClosureParams(value=SimpleType.class, options="java.lang.Exception") Closure<Void> onError) {
@@ -26,7 +38,7 @@ class BgTask<T> extends AsyncTask<Object, Void, T> {
 
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
             // newer versions of Android use a single thread, rather default to multiple threads
-            executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR)
+            executeOnExecutor(PriorityExecutor.forLane(executor ?: Async.defaultExecutor, lane))
         } else {
             // older versions of Android already use a thread pool
             execute()
@@ -35,16 +47,31 @@ class BgTask<T> extends AsyncTask<Object, Void, T> {
 
     @Override
     protected T doInBackground(Object... objects) {
+        T result = null
         try {
-            return inBg()
+            result = inBg()
         } catch (Exception e) {
             error = e
         }
-        return null as T
+
+        // posted through MainThread rather than AsyncTask's handler, so that the
+        // callbacks also run where there is no main looper (MainThread.Inline)
+        final T posted = result
+        MainThread.get().post(new Runnable() {
+            @Override
+            void run() {
+                deliver(posted)
+            }
+        })
+        return result
     }
 
     @Override
     protected void onPostExecute(T result) {
+        // the result was already posted to deliver() by doInBackground()
+    }
+
+    private void deliver(T result) {
         if (error != null) {
             if (!isCancelled() && onError != null) try {
                 onError(error)
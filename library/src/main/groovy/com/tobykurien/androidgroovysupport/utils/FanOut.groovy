@@ -0,0 +1,132 @@
+package com.tobykurien.androidgroovysupport.utils
+
+import groovy.transform.CompileStatic
+
+import java.util.concurrent.BlockingQueue
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executor
+import java.util.concurrent.FutureTask
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Runs several closures in parallel on an executor and combines their results, for
+ * Async.all(), any() and race(). The calling thread also runs any of the closures
+ * that no executor thread has started yet, instead of just waiting, so fanning out
+ * from a task on the same (bounded) executor can't deadlock.
+ */
+@CompileStatic
+class FanOut {
+    static enum Mode {
+        /** the results of all the closures, in order */
+        ALL,
+        /** the result of the first closure to succeed */
+        ANY,
+        /** the result or error of the first closure to finish */
+        RACE
+    }
+
+    private static class Source extends FutureTask<Object> {
+        private final AtomicBoolean claimed = new AtomicBoolean(false)
+        private final BlockingQueue<Source> completions
+
+        Source(Closure closure, BlockingQueue<Source> completions) {
+            super(closure as Callable<Object>)
+            this.completions = completions
+        }
+
+        /**
+         * Run the closure, unless another thread already has
+         */
+        @Override
+        void run() {
+            if (claimed.compareAndSet(false, true)) super.run()
+        }
+
+        boolean isClaimed() {
+            claimed.get()
+        }
+
+        @Override
+        protected void done() {
+            completions.add(this)
+        }
+    }
+
+    /**
+     * Runs a source on an executor. Not a Future, so that executors dropping it (e.g.
+     * PriorityExecutor.Backpressure.DROP_OLDEST) don't cancel the source.
+     */
+    private static class SourceRunner implements Runnable {
+        private final Source source
+
+        SourceRunner(Source source) {
+            this.source = source
+        }
+
+        @Override
+        void run() {
+            source.run()
+        }
+    }
+
+    /**
+     * Run the closures in parallel and wait for the combined result
+     * @throws AggregateException with the errors of all the closures that failed
+     * (ALL), or of all the closures if none succeeded (ANY)
+     */
+    static Object run(Executor executor, List<Closure> closures, Mode mode) {
+        if (closures.isEmpty()) {
+            if (mode == Mode.ALL) return new ArrayList<Object>()
+            throw new IllegalArgumentException("No closures to run")
+        }
+
+        def completions = new LinkedBlockingQueue<Source>()
+        def sources = closures.collect { Closure closure -> new Source(closure, completions) }
+        try {
+            for (Source source : sources) {
+                try {
+                    executor.execute(new SourceRunner(source))
+                } catch (RejectedExecutionException ignored) {
+                    // run below on this thread
+                }
+            }
+
+            def errors = new ArrayList<Throwable>()
+            int remaining = sources.size()
+            int next = 0
+            while (remaining > 0) {
+                def done = completions.poll()
+                if (done == null) {
+                    while (next < sources.size() && sources[next].isClaimed()) next++
+                    if (next < sources.size()) {
+                        sources[next++].run()
+                        continue
+                    }
+                    done = completions.take()
+                }
+                remaining--
+
+                try {
+                    def result = done.get()
+                    if (mode != Mode.ALL) return result
+                } catch (ExecutionException e) {
+                    if (mode == Mode.RACE) throw e.cause
+                    errors.add(e.cause)
+                }
+            }
+
+            if (mode == Mode.ALL && errors.isEmpty()) {
+                return sources.collect { Source source -> source.get() }
+            }
+            throw new AggregateException(errors)
+        } finally {
+            // stop the closures still running after the first result, or if interrupted
+            for (Source source : sources) {
+                source.cancel(true)
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.tobykurien.androidgroovysupport.utils
+
+import android.os.Handler
+import android.os.Looper
+import groovy.transform.CompileStatic
+
+/**
+ * Runs code on the UI thread. The library posts to the UI thread through the current
+ * dispatcher, so it can be replaced (e.g. with MainThread.Inline) to run on a plain
+ * JVM in unit tests.
+ */
+@CompileStatic
+abstract class MainThread {
+    private static volatile MainThread current = new AndroidMainThread()
+
+    /**
+     * @return the current dispatcher
+     */
+    static MainThread get() {
+        current
+    }
+
+    /**
+     * Replace the dispatcher, e.g. with new MainThread.Inline() in JVM tests
+     */
+    static void set(MainThread mainThread) {
+        current = mainThread
+    }
+
+    /**
+     * @return true if called on the UI thread
+     */
+    abstract boolean isCurrentThread()
+
+    /**
+     * Run the code on the UI thread, later
+     */
+    abstract void post(Runnable runnable)
+
+    /**
+     * Run the code on the UI thread after a delay (ms)
+     */
+    abstract void postDelayed(Runnable runnable, long delay)
+
+    /**
+     * Remove code that was posted but has not run yet
+     */
+    abstract void cancel(Runnable runnable)
+
+    /**
+     * Dispatches to the Android main looper
+     */
+    static class AndroidMainThread extends MainThread {
+        private Handler handler
+
+        private synchronized Handler getHandler() {
+            if (handler == null) handler = new Handler(Looper.getMainLooper())
+            return handler
+        }
+
+        @Override
+        boolean isCurrentThread() {
+            Looper.myLooper() == Looper.getMainLooper()
+        }
+
+        @Override
+        void post(Runnable runnable) {
+            getHandler().post(runnable)
+        }
+
+        @Override
+        void postDelayed(Runnable runnable, long delay) {
+            getHandler().postDelayed(runnable, delay)
+        }
+
+        @Override
+        void cancel(Runnable runnable) {
+            getHandler().removeCallbacks(runnable)
+        }
+    }
+
+    /**
+     * Runs posted code straight away on the calling thread, and delayed code on a
+     * timer thread. For tests without an Android main looper.
+     */
+    static class Inline extends MainThread {
+        private final Timer timer = new Timer("MainThread.Inline", true)
+        private final Map<Runnable, TimerTask> delayed = new HashMap<Runnable, TimerTask>()
+
+        @Override
+        boolean isCurrentThread() {
+            false
+        }
+
+        @Override
+        void post(Runnable runnable) {
+            runnable.run()
+        }
+
+        @Override
+        synchronized void postDelayed(final Runnable runnable, long delay) {
+            def task = new TimerTask() {
+                @Override
+                void run() {
+                    synchronized (Inline.this) {
+                        delayed.remove(runnable)
+                    }
+                    runnable.run()
+                }
+            }
+            delayed.put(runnable, task)
+            timer.schedule(task, delay)
+        }
+
+        @Override
+        synchronized void cancel(Runnable runnable) {
+            delayed.remove(runnable)?.cancel()
+        }
+    }
+}
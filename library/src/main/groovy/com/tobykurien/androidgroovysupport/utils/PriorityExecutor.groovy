@@ -0,0 +1,329 @@
+package com.tobykurien.androidgroovysupport.utils
+
+import android.util.Log
+import groovy.transform.CompileStatic
+
+import java.util.concurrent.Executor
+import java.util.concurrent.Future
+import java.util.concurrent.RejectedExecutionException
+
+/**
+ * A bounded thread pool with three priority lanes. Idle threads take work from the
+ * UI lane first, then the normal lane, then the prefetch lane, and prefetch work
+ * never occupies every thread, so user-visible loads are not stuck behind
+ * background prefetching. Each lane has its own queue capacity and backpressure
+ * policy for when it is full, and keeps queue depth and wait time metrics.
+ *
+ * Sample usage:
+ *
+ *  def executor = new PriorityExecutor("loader", 4, 64, PriorityExecutor.Backpressure.REJECT)
+ *  executor.setBackpressure(PriorityExecutor.Lane.PREFETCH, PriorityExecutor.Backpressure.DROP_OLDEST)
+ *  executor.execute(PriorityExecutor.Lane.UI) { loadVisibleItems() }
+ *  Async.background { prefetch() }.priority(PriorityExecutor.Lane.PREFETCH).execute()
+ */
+@CompileStatic
+class PriorityExecutor implements Executor {
+    private static final String TAG = "PriorityExecutor"
+
+    static enum Lane {
+        /** work the user is waiting for */
+        UI,
+        NORMAL,
+        /** speculative work that can be delayed or dropped */
+        PREFETCH
+    }
+
+    static enum Backpressure {
+        /** throw a RejectedExecutionException */
+        REJECT,
+        /** drop (and cancel, if it is a Future) the oldest queued task of the lane */
+        DROP_OLDEST,
+        /** run the task on the calling thread, or reject it if that is the UI thread */
+        CALLER_RUNS
+    }
+
+    /**
+     * The executor used by Async and BgTask by default: one thread per CPU plus one,
+     * unbounded UI and normal lanes (like AsyncTask.THREAD_POOL_EXECUTOR's queue, so
+     * existing callers never see a RejectedExecutionException), and up to 128 queued
+     * prefetch tasks, dropped oldest first when full.
+     */
+    static final PriorityExecutor DEFAULT = createDefault()
+
+    private final String name
+    private final int threads
+    private final int maxPrefetchThreads
+    private final Object lock = new Object()
+    private final List<ArrayDeque<Task>> queues = new ArrayList<ArrayDeque<Task>>()
+    private final int[] capacities
+    private final Backpressure[] policies
+    private final LaneStats[] stats
+
+    private int workerCount = 0
+    private int idleWorkers = 0
+    private int runningPrefetch = 0
+    private boolean shutdown = false
+
+    private static class Task {
+        Runnable runnable
+        Lane lane
+        long enqueued
+    }
+
+    private static class LaneStats {
+        long submitted
+        long completed
+        long rejected
+        long dropped
+        long callerRuns
+        long maxDepth
+        long totalWaitNanos
+        long maxWaitNanos
+    }
+
+    /**
+     * @param name - name of the threads
+     * @param threads - the maximum number of threads
+     * @param capacity - the maximum number of queued tasks per lane
+     * @param backpressure - what to do when a lane is full
+     */
+    PriorityExecutor(String name, int threads, int capacity, Backpressure backpressure) {
+        if (threads < 1) throw new IllegalArgumentException("threads must be at least 1")
+        this.name = name
+        this.threads = threads
+        this.maxPrefetchThreads = Math.max(1, threads - 1)
+
+        int lanes = Lane.values().length
+        capacities = new int[lanes]
+        policies = new Backpressure[lanes]
+        stats = new LaneStats[lanes]
+        for (int i = 0; i < lanes; i++) {
+            queues.add(new ArrayDeque<Task>())
+            capacities[i] = capacity
+            policies[i] = backpressure
+            stats[i] = new LaneStats()
+        }
+    }
+
+    private static PriorityExecutor createDefault() {
+        def executor = new PriorityExecutor("Async", Runtime.getRuntime().availableProcessors() + 1,
+                Integer.MAX_VALUE, Backpressure.REJECT)
+        executor.setCapacity(Lane.PREFETCH, 128)
+        executor.setBackpressure(Lane.PREFETCH, Backpressure.DROP_OLDEST)
+        return executor
+    }
+
+    void setCapacity(Lane lane, int capacity) {
+        synchronized (lock) {
+            capacities[lane.ordinal()] = capacity
+        }
+    }
+
+    void setBackpressure(Lane lane, Backpressure backpressure) {
+        synchronized (lock) {
+            policies[lane.ordinal()] = backpressure
+        }
+    }
+
+    /**
+     * Run the task in the normal lane
+     */
+    @Override
+    void execute(Runnable runnable) {
+        execute(Lane.NORMAL, runnable)
+    }
+
+    /**
+     * Run the task in the specified lane
+     * @throws RejectedExecutionException if the lane is full and the policy is REJECT, or
+     * the executor has been shut down
+     */
+    void execute(Lane lane, Runnable runnable) {
+        if (runnable == null) throw new NullPointerException()
+
+        Task dropped = null
+        boolean runHere = false
+        synchronized (lock) {
+            if (shutdown) throw new RejectedExecutionException("${name} has been shut down")
+
+            def queue = queues.get(lane.ordinal())
+            def laneStats = stats[lane.ordinal()]
+            laneStats.submitted++
+            if (queue.size() >= capacities[lane.ordinal()]) {
+                switch (policies[lane.ordinal()]) {
+                    case Backpressure.DROP_OLDEST:
+                        dropped = queue.pollFirst()
+                        laneStats.dropped++
+                        break
+                    case Backpressure.CALLER_RUNS:
+                        if (!MainThread.get().isCurrentThread()) {
+                            runHere = true
+                            laneStats.callerRuns++
+                            break
+                        }
+                        // fall through, don't block the UI thread
+                    default:
+                        laneStats.rejected++
+                        throw new RejectedExecutionException("${name}: ${lane} lane is full")
+                }
+            }
+
+            if (!runHere) {
+                queue.addLast(new Task(runnable: runnable, lane: lane, enqueued: System.nanoTime()))
+                laneStats.maxDepth = Math.max(laneStats.maxDepth, (long) queue.size())
+                wakeWorkers(0)
+            }
+        }
+
+        if (dropped != null && dropped.runnable instanceof Future) {
+            (dropped.runnable as Future).cancel(false)
+        }
+        if (runHere) {
+            runnable.run()
+            synchronized (lock) {
+                stats[lane.ordinal()].completed++
+            }
+        }
+    }
+
+    /**
+     * @return an Executor that runs tasks in the specified lane
+     */
+    Executor lane(final Lane lane) {
+        return new Executor() {
+            @Override
+            void execute(Runnable runnable) {
+                PriorityExecutor.this.execute(lane, runnable)
+            }
+        }
+    }
+
+    /**
+     * Get the executor for a lane of the executor, if it is a PriorityExecutor
+     * @param lane - the lane, or null for the executor itself
+     */
+    static Executor forLane(Executor executor, Lane lane) {
+        if (lane != null && executor instanceof PriorityExecutor) {
+            return (executor as PriorityExecutor).lane(lane)
+        }
+        return executor
+    }
+
+    /**
+     * Stop accepting tasks. Queued tasks are still run.
+     */
+    void shutdown() {
+        synchronized (lock) {
+            shutdown = true
+            lock.notifyAll()
+        }
+    }
+
+    /**
+     * @return per lane: submitted, completed, rejected, dropped and caller-run counts,
+     * current and maximum queue depth, and average and maximum queue wait time (ms)
+     */
+    Map<String, Map<String, Number>> getStats() {
+        def result = new LinkedHashMap<String, Map<String, Number>>()
+        synchronized (lock) {
+            for (Lane lane : Lane.values()) {
+                def laneStats = stats[lane.ordinal()]
+                long started = laneStats.completed - laneStats.callerRuns
+                result.put(lane.name().toLowerCase(), [
+                        submitted: laneStats.submitted,
+                        completed: laneStats.completed,
+                        rejected: laneStats.rejected,
+                        dropped: laneStats.dropped,
+                        callerRuns: laneStats.callerRuns,
+                        depth: queues.get(lane.ordinal()).size(),
+                        maxDepth: laneStats.maxDepth,
+                        averageWaitMs: started > 0 ? laneStats.totalWaitNanos / started / 1000000d : 0d,
+                        maxWaitMs: laneStats.maxWaitNanos / 1000000d
+                ] as Map<String, Number>)
+            }
+        }
+        return result
+    }
+
+    // called with the lock held
+    private int runnableTasks() {
+        int prefetch = Math.min(queues.get(Lane.PREFETCH.ordinal()).size(), maxPrefetchThreads - runningPrefetch)
+        return queues.get(Lane.UI.ordinal()).size() + queues.get(Lane.NORMAL.ordinal()).size() + Math.max(0, prefetch)
+    }
+
+    /**
+     * Make sure there is a worker for each task that can run. A woken worker stays
+     * counted as idle until it takes a task, so the waiting workers are only enough
+     * if there are at least as many of them as runnable tasks; otherwise another
+     * worker is started, up to the thread limit. Called with the lock held.
+     * @param looking - workers that are about to take a task without waiting
+     */
+    private void wakeWorkers(int looking) {
+        int runnable = runnableTasks()
+        if (runnable > looking && idleWorkers > 0) lock.notify()
+        if (runnable > idleWorkers + looking && workerCount < threads) startWorker()
+    }
+
+    // called with the lock held
+    private void startWorker() {
+        workerCount++
+        def thread = new Thread(new Runnable() {
+            @Override
+            void run() {
+                work()
+            }
+        }, "${name} #${workerCount}")
+        thread.setDaemon(true)
+        thread.start()
+    }
+
+    private void work() {
+        while (true) {
+            Task task
+            synchronized (lock) {
+                while ((task = nextTask()) == null) {
+                    if (shutdown) {
+                        workerCount--
+                        return
+                    }
+                    idleWorkers++
+                    try {
+                        lock.wait()
+                    } catch (InterruptedException ignored) {
+                    } finally {
+                        idleWorkers--
+                    }
+                }
+
+                def laneStats = stats[task.lane.ordinal()]
+                long wait = System.nanoTime() - task.enqueued
+                laneStats.totalWaitNanos += wait
+                laneStats.maxWaitNanos = Math.max(laneStats.maxWaitNanos, wait)
+                if (task.lane == Lane.PREFETCH) runningPrefetch++
+            }
+
+            try {
+                task.runnable.run()
+            } catch (Throwable t) {
+                Log.e(TAG, "Error in ${name} task", t)
+            } finally {
+                synchronized (lock) {
+                    stats[task.lane.ordinal()].completed++
+                    if (task.lane == Lane.PREFETCH) {
+                        runningPrefetch--
+                        // a prefetch task may have been waiting for this slot
+                        wakeWorkers(1)
+                    }
+                }
+            }
+        }
+    }
+
+    // called with the lock held
+    private Task nextTask() {
+        def task = queues.get(Lane.UI.ordinal()).pollFirst()
+        if (task == null) task = queues.get(Lane.NORMAL.ordinal()).pollFirst()
+        if (task == null && runningPrefetch < maxPrefetchThreads) task = queues.get(Lane.PREFETCH.ordinal()).pollFirst()
+        return task
+    }
+}
@@ -0,0 +1,151 @@
+package com.tobykurien.androidgroovysupport.utils
+
+import groovy.transform.CompileStatic
+
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.FutureTask
+
+/**
+ * Shares one execution of keyed work between everyone asking for it at the same
+ * time, and optionally remembers the result for a while afterwards. Used by
+ * Async.background(key) { }.
+ *
+ * The work runs on the thread of the first caller, so it stays on that task's
+ * executor and lane. If that thread is interrupted (e.g. its task is cancelled) and
+ * the work fails because of it, one of the callers still waiting runs it again.
+ * Remembered results are dropped once they expire.
+ */
+@CompileStatic
+class SingleFlight {
+    private static final Object lock = new Object()
+    private static final Map<Object, Flight> flights = new HashMap<Object, Flight>()
+
+    private static class Flight extends FutureTask<Object> {
+        final Object key
+        long ttl = 0
+        volatile long completedAt = 0
+
+        Flight(Object key, Callable<Object> work) {
+            super(work)
+            this.key = key
+        }
+
+        @Override
+        protected void set(Object result) {
+            // before the result is visible to get(), so a fresh result is never seen as stale
+            completedAt = System.currentTimeMillis()
+            super.set(result)
+        }
+
+        @Override
+        protected void done() {
+            finished(this)
+        }
+
+        boolean failed() {
+            try {
+                get()
+                return false
+            } catch (Exception ignored) {
+                return true
+            }
+        }
+
+        boolean isFresh(long maxAge) {
+            isDone() && maxAge > 0 && System.currentTimeMillis() - completedAt < maxAge
+        }
+    }
+
+    /**
+     * Run the work, or wait for the execution already in progress for the key, or
+     * return its result if it finished less than ttl ms ago. Blocks the calling thread.
+     * @param ttl - how long (ms) to remember the result, 0 to not remember it
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    static Object await(Object key, long ttl, Callable<Object> work) throws Exception {
+        while (true) {
+            Flight flight
+            boolean start = false
+            synchronized (lock) {
+                evictExpired()
+                flight = flights.get(key)
+                if (flight != null && flight.isDone() && !flight.isFresh(ttl)) {
+                    if (!flight.isFresh(flight.ttl)) flights.remove(key)
+                    flight = null
+                }
+                if (flight == null) {
+                    flight = new Flight(key, work)
+                    flights.put(key, flight)
+                    start = true
+                }
+                flight.ttl = Math.max(flight.ttl, ttl)
+            }
+
+            try {
+                if (start) flight.run()
+                return flight.get()
+            } catch (ExecutionException e) {
+                // the thread that ran the work was interrupted: run it again here
+                if (e.cause instanceof InterruptedException && !start && !Thread.currentThread().isInterrupted()) {
+                    continue
+                }
+                throw (e.cause instanceof Exception ? e.cause as Exception : e)
+            }
+        }
+    }
+
+    /**
+     * Forget the remembered result for the key. Work in progress is not affected,
+     * but later calls will start a new execution.
+     */
+    static void forget(Object key) {
+        synchronized (lock) {
+            def flight = flights.get(key)
+            if (flight != null && flight.isDone()) flights.remove(key)
+        }
+    }
+
+    /**
+     * Forget all remembered results
+     */
+    static void forgetAll() {
+        synchronized (lock) {
+            def iterator = flights.values().iterator()
+            while (iterator.hasNext()) {
+                if (iterator.next().isDone()) iterator.remove()
+            }
+        }
+    }
+
+    /**
+     * @return true if work for the key is in progress
+     */
+    static boolean isRunning(Object key) {
+        synchronized (lock) {
+            def flight = flights.get(key)
+            return flight != null && !flight.isDone()
+        }
+    }
+
+    private static void finished(Flight flight) {
+        synchronized (lock) {
+            // only successful results are remembered
+            if (flight.ttl <= 0 || flight.isCancelled() || flight.failed()) removeFlight(flight.key, flight)
+        }
+    }
+
+    // called with the lock held
+    private static void evictExpired() {
+        def iterator = flights.values().iterator()
+        while (iterator.hasNext()) {
+            def flight = iterator.next()
+            if (flight.isDone() && !flight.isFresh(flight.ttl)) iterator.remove()
+        }
+    }
+
+    // called with the lock held
+    private static void removeFlight(Object key, Flight flight) {
+        if (flights.get(key).is(flight)) flights.remove(key)
+    }
+}
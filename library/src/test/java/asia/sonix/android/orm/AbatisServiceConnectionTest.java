@@ -0,0 +1,149 @@
+package asia.sonix.android.orm;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class AbatisServiceConnectionTest {
+   private AbatisService service;
+
+   @Before
+   public void setUp() {
+      service = new AbatisService(RuntimeEnvironment.application, "connection", 1);
+   }
+
+   @After
+   public void tearDown() {
+      service.shutdown();
+   }
+
+   @Test
+   public void keepsTheConnectionOpenBetweenCalls() {
+      service.setIdleTimeout(-1);
+      SQLiteDatabase first = service.acquireDatabase();
+      service.releaseDatabase();
+      SQLiteDatabase second = service.acquireDatabase();
+      service.releaseDatabase();
+      assertSame(first, second);
+      assertTrue(second.isOpen());
+   }
+
+   @Test
+   public void closesAfterEachCallWithoutAnIdleTimeout() {
+      service.setIdleTimeout(0);
+      SQLiteDatabase db = service.acquireDatabase();
+      service.releaseDatabase();
+      assertFalse(db.isOpen());
+   }
+
+   @Test
+   public void staysOpenWhileInUse() {
+      service.setIdleTimeout(0);
+      SQLiteDatabase outer = service.acquireDatabase();
+      SQLiteDatabase inner = service.acquireDatabase();
+      assertSame(outer, inner);
+      service.releaseDatabase();
+      assertTrue(outer.isOpen());
+      service.releaseDatabase();
+      assertFalse(outer.isOpen());
+   }
+
+   @Test
+   public void closesOnceIdle() throws InterruptedException {
+      service.setIdleTimeout(50);
+      SQLiteDatabase db = service.acquireDatabase();
+      service.releaseDatabase();
+      assertTrue(db.isOpen());
+      for (int i = 0; i < 100 && db.isOpen(); i++) {
+         Thread.sleep(20);
+      }
+      assertFalse(db.isOpen());
+   }
+
+   @Test
+   public void reopensAfterShutdown() {
+      service.execute("create table t (a integer)", null);
+      Map<String, Object> params = new HashMap<String, Object>();
+      params.put("a", 5);
+      service.execute("insert into t values (#a#)", params);
+      SQLiteDatabase db = service.acquireDatabase();
+      service.releaseDatabase();
+
+      service.shutdown();
+      assertFalse(db.isOpen());
+      assertEquals("5", service.executeForMap("select a from t", null).get("a"));
+   }
+
+   @Test
+   public void shutdownWaitsForCallsInProgress() {
+      service.setIdleTimeout(-1);
+      SQLiteDatabase outer = service.acquireDatabase();
+      SQLiteDatabase inner = service.acquireDatabase();
+      service.shutdown();
+      assertTrue(outer.isOpen());
+      outer.execSQL("create table t (a integer)");
+
+      service.releaseDatabase();
+      assertTrue(outer.isOpen());
+      service.releaseDatabase();
+      assertFalse(outer.isOpen());
+
+      // the next call opens it again, and it is kept open as before
+      SQLiteDatabase next = service.acquireDatabase();
+      service.releaseDatabase();
+      assertNotSame(outer, next);
+      assertTrue(next.isOpen());
+   }
+
+   @Test
+   public void callsStartedDuringShutdownShareTheConnection() {
+      service.setIdleTimeout(-1);
+      SQLiteDatabase first = service.acquireDatabase();
+      service.shutdown();
+      SQLiteDatabase second = service.acquireDatabase();
+      assertSame(first, second);
+      service.releaseDatabase();
+      assertTrue(first.isOpen());
+      service.releaseDatabase();
+      assertFalse(first.isOpen());
+   }
+
+   @Test
+   public void acquireDatabaseNeedsAnAndroidBackend() {
+      SqlBackend backend = (SqlBackend) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[] { SqlBackend.class }, new InvocationHandler() {
+               @Override
+               public Object invoke(Object proxy, Method method, Object[] args) {
+                  return null;
+               }
+            });
+      AbatisService external = new AbatisService(backend);
+      try {
+         external.acquireDatabase();
+         fail("there is no SQLiteDatabase");
+      } catch (UnsupportedOperationException expected) {
+      }
+      assertSame(backend, external.acquireBackend());
+      external.releaseDatabase();
+
+      SQLiteDatabase database = SQLiteDatabase.create(null);
+      AbatisService android = new AbatisService(new AndroidSqlBackend(database));
+      assertSame(database, android.acquireDatabase());
+      android.releaseDatabase();
+      database.close();
+   }
+}
@@ -0,0 +1,110 @@
+package asia.sonix.android.orm;
+
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests declareIndex and the query plan checks
+ */
+@RunWith(RobolectricTestRunner.class)
+public class AbatisServiceIndexTest {
+   private final List<String> flagged = new ArrayList<String>();
+   private SQLiteDatabase database;
+   private AbatisService service;
+
+   @Before
+   public void setUp() {
+      database = SQLiteDatabase.create(null);
+      database.execSQL("create table items (id integer primary key, name text, price integer)");
+      service = new AbatisService(new AndroidSqlBackend(database));
+      service.setMetrics(new QueryMetrics() {
+         @Override
+         public void queryPlanFlagged(String sql, List<String> plan) {
+            flagged.add(sql);
+         }
+      });
+   }
+
+   @After
+   public void tearDown() {
+      service.shutdown();
+      database.close();
+   }
+
+   private String index(String name) {
+      return service.executeForString("select sql from sqlite_master where type = 'index' and name = '" + name + "'",
+            null);
+   }
+
+   @Test
+   public void namesIndexesAfterTheirColumns() {
+      assertEquals("items_name_price", service.declareIndex("items", "name", "price desc"));
+      assertEquals("items_name", service.declareIndex("items", " name asc"));
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void needsAColumn() {
+      service.declareIndex("items");
+   }
+
+   @Test
+   public void createsDeclaredIndexesOnNextUse() {
+      service.declareIndex("items", "name", "price desc");
+      assertEquals(0L, DatabaseUtils.longForQuery(database, "select count(*) from sqlite_master where type = 'index'",
+            null));
+
+      service.executeForLong("select count(*) from items", null);
+      assertEquals("CREATE INDEX \"items_name_price\" on items (name, price desc)", index("items_name_price"));
+
+      // declaring it again does nothing
+      service.declareIndex("items", "name", "price desc");
+      service.executeForLong("select count(*) from items", null);
+      assertEquals(1L, service.executeForLong("select count(*) from sqlite_master where type = 'index'", null));
+   }
+
+   @Test
+   public void flagsQueriesThatCouldUseAnIndex() {
+      service.setExplainQueryPlans(true);
+      Map<String, Object> params = new HashMap<String, Object>();
+      params.put("name", "a");
+      service.executeForMapList("select * from items where name = #name#", params);
+      service.executeForMapList("select * from items where id = 1", null);
+      service.executeForMapList("select id from items where id > 0 order by price", null);
+      service.executeForMapList("select * from items where name = #name#", params);
+      assertEquals(2, flagged.size());
+      assertEquals("select * from items where name = ?", flagged.get(0));
+      assertEquals("select id from items where id > 0 order by price", flagged.get(1));
+   }
+
+   @Test
+   public void doesNotFlagIndexedQueries() {
+      service.declareIndex("items", "name");
+      service.setExplainQueryPlans(true);
+      service.executeForMapList("select * from items where name = 'a'", null);
+      service.execute("update items set price = 1 where name = 'a'", null);
+      service.execute("insert into items (name) values ('b')", null);
+      assertEquals(0, flagged.size());
+
+      service.execute("delete from items where price = 1", null);
+      assertEquals(1, flagged.size());
+   }
+
+   @Test
+   public void onlyChecksWhenEnabled() {
+      service.executeForMapList("select * from items where name = 'a'", null);
+      assertEquals(0, flagged.size());
+   }
+}
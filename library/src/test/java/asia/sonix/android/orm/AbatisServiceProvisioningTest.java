@@ -0,0 +1,185 @@
+package asia.sonix.android.orm;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+import org.robolectric.manifest.AndroidManifest;
+import org.robolectric.res.Fs;
+import org.robolectric.shadows.ShadowAssetManager;
+import org.robolectric.util.ReflectionHelpers;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests creating the database with the dbInitialize script, and installing a
+ * prebuilt database from the assets
+ */
+@RunWith(RobolectricTestRunner.class)
+public class AbatisServiceProvisioningTest {
+   private static final String INITIALIZE = "create table items (id integer primary key, name text);\n"
+         + "create table log (item integer);\n"
+         + "create trigger items_log after insert on items begin insert into log values (new.id); end;\n"
+         + "insert into items (name) values ('created; by script');";
+
+   private final List<AbatisService> services = new ArrayList<AbatisService>();
+   private ScriptContext context;
+   private File assets;
+   private ShadowAssetManager shadowAssets;
+   private Object appManifest;
+
+   @Before
+   public void setUp() throws IOException {
+      context = new ScriptContext(RuntimeEnvironment.application);
+      context.strings.put("dbInitialize", INITIALIZE);
+
+      // serve assets from a temporary directory
+      assets = File.createTempFile("assets", "");
+      assets.delete();
+      assets.mkdirs();
+      shadowAssets = Shadows.shadowOf(RuntimeEnvironment.application.getAssets());
+      appManifest = ReflectionHelpers.getField(shadowAssets, "appManifest");
+      ReflectionHelpers.setField(shadowAssets, "appManifest", new AndroidManifest(null, null, Fs.newFile(assets)));
+   }
+
+   @After
+   public void tearDown() {
+      for (AbatisService service : services) {
+         service.shutdown();
+      }
+      ReflectionHelpers.setField(shadowAssets, "appManifest", appManifest);
+      for (File file : assets.listFiles()) {
+         file.delete();
+      }
+      assets.delete();
+   }
+
+   private AbatisService service(String name, int version) {
+      AbatisService service = new AbatisService(context, name, version);
+      services.add(service);
+      return service;
+   }
+
+   /**
+    * Write a database with an items table and the given user_version to the assets
+    */
+   private void prebuilt(String asset, int version, String name) {
+      SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(new File(assets, asset), null);
+      try {
+         db.execSQL("create table items (id integer primary key, name text)");
+         db.execSQL("insert into items (name) values (?)", new Object[] { name });
+         db.setVersion(version);
+      } finally {
+         db.close();
+      }
+   }
+
+   private List<String> names(AbatisService service) {
+      List<String> names = new ArrayList<String>();
+      for (Map<String, Object> row : service.executeForMapList("select name from items order by id", null)) {
+         names.add((String) row.get("name"));
+      }
+      return names;
+   }
+
+   private int count(AbatisService service, String table) {
+      return (int) service.executeForLong("select count(*) from " + table, null);
+   }
+
+   @Test
+   public void runsTheInitializeScript() {
+      AbatisService service = service("initialize", 1);
+      assertEquals("created; by script", names(service).get(0));
+      // the trigger body was not split at its semicolon
+      assertEquals(1, count(service, "log"));
+   }
+
+   @Test
+   public void createsNothingIfTheScriptFails() {
+      context.strings.put("dbInitialize", INITIALIZE + "\ninsert into missing values (1);");
+      AbatisService service = service("failed", 1);
+      try {
+         service.execute("select 1", null);
+         fail("the script should fail");
+      } catch (SQLiteException expected) {
+      }
+
+      context.strings.put("dbInitialize", "create table other (x);");
+      service.shutdown();
+      assertEquals(0, count(service, "other"));
+      assertEquals(0L, service.executeForLong("select count(*) from sqlite_master where name = 'items'", null));
+   }
+
+   @Test
+   public void installsThePrebuiltDatabase() throws IOException {
+      prebuilt("prebuilt.db", 1, "prebuilt");
+      AbatisService service = service("installed", 1);
+      service.setPrebuiltDatabase("prebuilt.db");
+      assertEquals("[prebuilt]", names(service).toString());
+      // dbInitialize was not run
+      assertEquals(0L, service.executeForLong("select count(*) from sqlite_master where name = 'log'", null));
+      assertFalse(new File(context.getDatabasePath("installed.db").getPath() + ".tmp").exists());
+   }
+
+   @Test
+   public void upgradesAnOlderPrebuiltDatabase() throws IOException {
+      prebuilt("old.db", 1, "old");
+      context.strings.put("dbUpgrade_2", "alter table items add column size integer default 0;");
+      context.strings.put("dbUpgrade_3", "update items set size = 3;");
+      AbatisService service = service("upgraded", 3);
+      service.setPrebuiltDatabase("old.db");
+      assertEquals(3L, service.executeForLong("select size from items", null));
+      assertEquals(3, service.acquireDatabase().getVersion());
+      service.releaseDatabase();
+   }
+
+   @Test
+   public void initializesInsteadOfANewerPrebuiltDatabase() throws IOException {
+      prebuilt("newer.db", 2, "newer");
+      AbatisService service = service("newer", 1);
+      service.setPrebuiltDatabase("newer.db");
+      assertEquals("[created; by script]", names(service).toString());
+   }
+
+   @Test
+   public void initializesInsteadOfAnInvalidPrebuiltDatabase() throws IOException {
+      FileOutputStream out = new FileOutputStream(new File(assets, "invalid.db"));
+      try {
+         out.write("not a database".getBytes("US-ASCII"));
+      } finally {
+         out.close();
+      }
+      AbatisService service = service("invalid", 1);
+      service.setPrebuiltDatabase("invalid.db");
+      assertEquals("[created; by script]", names(service).toString());
+
+      AbatisService missing = service("missing", 1);
+      missing.setPrebuiltDatabase("missing.db");
+      assertEquals("[created; by script]", names(missing).toString());
+   }
+
+   @Test
+   public void keepsAnExistingDatabase() throws IOException {
+      AbatisService first = service("existing", 1);
+      first.execute("update items set name = 'changed'", null);
+      first.shutdown();
+
+      prebuilt("replacement.db", 1, "prebuilt");
+      AbatisService second = service("existing", 1);
+      second.setPrebuiltDatabase("replacement.db");
+      assertEquals("[changed]", names(second).toString());
+   }
+}
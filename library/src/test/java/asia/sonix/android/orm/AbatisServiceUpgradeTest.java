@@ -0,0 +1,139 @@
+package asia.sonix.android.orm;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests onUpgrade with the dbUpgrade_N scripts, and rebuildTable
+ */
+@RunWith(RobolectricTestRunner.class)
+public class AbatisServiceUpgradeTest {
+   private final List<AbatisService> services = new ArrayList<AbatisService>();
+   private final List<Integer> upgrades = new ArrayList<Integer>();
+   private ScriptContext context;
+
+   @Before
+   public void setUp() {
+      context = new ScriptContext(RuntimeEnvironment.application);
+      context.strings.put("dbInitialize", "create table items (id integer primary key, name text not null, "
+            + "price integer, old text);\n"
+            + "create index items_name on items (name);\n"
+            + "create table log (item integer);\n"
+            + "create trigger items_log after insert on items begin insert into log values (new.id); end;\n"
+            + "insert into items (name, price, old) values ('a', 1, 'x');\n"
+            + "insert into items (name, price, old) values ('b', 2, 'y');");
+      AbatisService first = service(1);
+      first.execute("select 1", null);
+      first.shutdown();
+   }
+
+   @After
+   public void tearDown() {
+      for (AbatisService service : services) {
+         service.shutdown();
+      }
+   }
+
+   private AbatisService service(int version) {
+      AbatisService service = new AbatisService(context, "upgrade", version) {
+         @Override
+         protected void upgradeTo(SQLiteDatabase db, int version) {
+            upgrades.add(version);
+            super.upgradeTo(db, version);
+         }
+      };
+      services.add(service);
+      return service;
+   }
+
+   private int version(AbatisService service) {
+      try {
+         return service.acquireDatabase().getVersion();
+      } finally {
+         service.releaseDatabase();
+      }
+   }
+
+   private String schema(AbatisService service, String name) {
+      return service.executeForString("select sql from sqlite_master where name = '" + name + "'", null);
+   }
+
+   @Test
+   public void runsEachScriptInOrder() {
+      context.strings.put("dbUpgrade_2", "alter table items add column size integer default 0;\n"
+            + "update items set size = 2;");
+      context.strings.put("dbUpgrade_4", "update items set size = size * 2;");
+      AbatisService service = service(4);
+      assertEquals(8L, service.executeForLong("select sum(size) from items", null));
+      assertEquals(4, version(service));
+      // versions without a script are still passed to upgradeTo
+      assertEquals("[2, 3, 4]", upgrades.toString());
+   }
+
+   @Test
+   public void leavesTheDatabaseUnchangedIfAnUpgradeFails() {
+      context.strings.put("dbUpgrade_2", "alter table items add column size integer default 0;");
+      context.strings.put("dbUpgrade_3", "update missing set x = 1;");
+      AbatisService service = service(3);
+      try {
+         service.execute("select 1", null);
+         fail("the upgrade should fail");
+      } catch (SQLiteException expected) {
+      }
+      service.shutdown();
+
+      AbatisService old = service(1);
+      assertEquals(1, version(old));
+      assertFalse(schema(old, "items").contains("size"));
+   }
+
+   @Test
+   public void rebuildsTables() {
+      context.strings.put("dbUpgrade_2", "rebuild table items (id integer primary key, name text not null unique, "
+            + "price real default 0, added text default 'new');");
+      AbatisService service = service(2);
+
+      List<Map<String, Object>> items = service.executeForMapList("select * from items order by id", null);
+      assertEquals(2, items.size());
+      assertEquals("a", items.get(0).get("name"));
+      assertEquals("2.0", items.get(1).get("price"));
+      assertEquals("new", items.get(1).get("added"));
+      assertFalse(items.get(0).containsKey("old"));
+      assertTrue(schema(service, "items").contains("unique"));
+      assertNull(schema(service, "items_rebuild"));
+
+      // the index and trigger were created again
+      assertNotNull(schema(service, "items_name"));
+      assertEquals(1, service.execute("insert into items (name) values ('c')", null));
+      assertEquals(3L, service.executeForLong("select count(*) from log", null));
+      // the new constraint applies
+      assertEquals(0, service.execute("insert into items (name) values ('a')", null));
+   }
+
+   @Test
+   public void rebuildsTablesFromCode() {
+      AbatisService service = new AbatisService(context, "upgrade", 2) {
+         @Override
+         protected void upgradeTo(SQLiteDatabase db, int version) {
+            rebuildTable(db, "\"items\"", "id integer primary key, name text");
+         }
+      };
+      services.add(service);
+      assertEquals("[a, b]", service.executeForMapList("select name from items order by id", null).toString()
+            .replaceAll("\\{name=(\\w)\\}", "$1"));
+      assertFalse(schema(service, "items").contains("price"));
+   }
+}
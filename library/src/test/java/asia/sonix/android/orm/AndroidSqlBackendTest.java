@@ -0,0 +1,113 @@
+package asia.sonix.android.orm;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class AndroidSqlBackendTest {
+   private SQLiteDatabase db;
+   private AndroidSqlBackend backend;
+
+   @Before
+   public void setUp() {
+      db = SQLiteDatabase.create(null);
+      db.execSQL("create table t (id integer primary key, name text, score real, flag text, created integer)");
+      backend = new AndroidSqlBackend(db);
+   }
+
+   @After
+   public void tearDown() {
+      backend.close();
+   }
+
+   @Test
+   public void bindsTypedValues() {
+      long id = backend.executeInsert("insert into t (name, score, flag, created) values (?, ?, ?, ?)",
+            new Object[] { "it's", 1.5, true, new Date(1000) });
+      assertEquals(1, id);
+
+      Cursor cursor = backend.query("select name, score, flag, created from t where id = ? and score > ?",
+            new Object[] { 1, 1 });
+      try {
+         assertTrue(cursor.moveToFirst());
+         assertEquals("it's", cursor.getString(0));
+         assertEquals(1.5, cursor.getDouble(1), 0);
+         assertEquals("true", cursor.getString(2));
+         assertEquals(1000, cursor.getLong(3));
+      } finally {
+         cursor.close();
+      }
+
+      assertEquals(1, backend.executeUpdateDelete("update t set name = ? where id = ?", new Object[] { null, 1 }));
+      assertEquals(1, backend.simpleQueryForLong("select count(*) from t where name is null", new Object[0]));
+   }
+
+   @Test
+   public void sharesCompiledStatements() {
+      SQLiteStatement first = backend.acquireStatement("select ?");
+      SQLiteStatement second = backend.acquireStatement("select ?");
+      try {
+         assertSame(first, second);
+      } finally {
+         first.releaseReference();
+         second.releaseReference();
+      }
+   }
+
+   @Test
+   public void keepsAStatementInUseOpenWhenItIsEvicted() {
+      SQLiteStatement statement = backend.acquireStatement("select count(*) from t");
+      try {
+         for (int i = 0; i < 30; i++) {
+            backend.simpleQueryForLong("select " + i, new Object[0]);
+         }
+         synchronized (statement) {
+            assertEquals(0, statement.simpleQueryForLong());
+         }
+      } finally {
+         statement.releaseReference();
+      }
+   }
+
+   @Test
+   public void runsStatementsFromSeveralThreads() throws InterruptedException {
+      final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+      List<Thread> threads = new ArrayList<Thread>();
+      for (int t = 0; t < 4; t++) {
+         Thread thread = new Thread() {
+            @Override
+            public void run() {
+               try {
+                  // more statements than the cache holds, so that they are evicted while in use
+                  for (int i = 0; i < 200; i++) {
+                     int n = i % 40;
+                     assertEquals(n + 1, backend.simpleQueryForLong("select ? + " + n, new Object[] { 1 }));
+                  }
+               } catch (Throwable e) {
+                  errors.add(e);
+               }
+            }
+         };
+         threads.add(thread);
+         thread.start();
+      }
+      for (Thread thread : threads) {
+         thread.join();
+      }
+      assertEquals(Collections.emptyList(), errors);
+   }
+}
@@ -0,0 +1,96 @@
+package asia.sonix.android.orm;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class BeanCursorTest {
+   private AbatisService service;
+
+   @Before
+   public void setUp() {
+      service = new AbatisService(RuntimeEnvironment.application, "cursor", 1);
+      // close the connection as soon as it is released
+      service.setIdleTimeout(0);
+      service.execute("create table items (id integer primary key, name text)", null);
+      for (int i = 1; i <= 3; i++) {
+         service.execute("insert into items (name) values ('item " + i + "')", null);
+      }
+   }
+
+   @After
+   public void tearDown() {
+      service.shutdown();
+   }
+
+   @Test
+   public void mapsOneRowAtATime() {
+      BeanCursor<Item> items = service.executeForBeanCursor("select * from items order by id", null, Item.class, false);
+      assertEquals(3, items.getCount());
+
+      List<Item> read = new ArrayList<Item>();
+      for (Item item : items) {
+         read.add(item);
+      }
+      assertEquals(3, read.size());
+      assertEquals("item 1", read.get(0).getName());
+      assertEquals("item 3", read.get(2).getName());
+      assertNotSame(read.get(0), read.get(1));
+   }
+
+   @Test
+   public void reusesOneBeanIfAsked() {
+      BeanCursor<Item> items = service.executeForBeanCursor("select * from items order by id", null, Item.class, true);
+      Item first = items.next();
+      assertEquals(1, first.getId());
+      Item second = items.next();
+      assertSame(first, second);
+      assertEquals(2, second.getId());
+      items.close();
+   }
+
+   @Test
+   public void releasesTheConnectionAtTheEnd() {
+      BeanCursor<Item> items = service.executeForBeanCursor("select * from items", null, Item.class, false);
+      SQLiteDatabase open = service.acquireDatabase();
+      service.releaseDatabase();
+      assertTrue("open while iterating", open.isOpen());
+
+      while (items.hasNext()) {
+         items.next();
+      }
+      assertFalse(open.isOpen());
+      assertFalse(items.hasNext());
+   }
+
+   @Test
+   public void releasesTheConnectionWhenClosed() {
+      BeanCursor<Item> items = service.executeForBeanCursor("select * from items", null, Item.class, false);
+      items.next();
+      SQLiteDatabase open = service.acquireDatabase();
+      service.releaseDatabase();
+
+      items.close();
+      items.close();
+      assertFalse(open.isOpen());
+      assertFalse(items.hasNext());
+   }
+
+   @Test
+   public void isEmptyForAMissingParameter() {
+      BeanCursor<Item> items = service.executeForBeanCursor("select * from items where id = #id#", null, Item.class, false);
+      assertFalse(items.hasNext());
+      assertEquals(0, items.getCount());
+   }
+}
@@ -0,0 +1,123 @@
+package asia.sonix.android.orm;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class BeanMapperTest {
+   private SQLiteDatabase db;
+   private AbatisService service;
+
+   @Before
+   public void setUp() {
+      db = SQLiteDatabase.create(null);
+      db.execSQL("create table items (id integer primary key, name text, count integer, price real, "
+            + "active text, created integer, firstname text, tags text)");
+      db.execSQL("insert into items values (1, 'one', 10, 1.5, 'true', 1000, 'Ann', 'x')");
+      db.execSQL("insert into items values (2, 'two', 20, 2.5, 'false', 0, null, 'y')");
+      service = new AbatisService(new AndroidSqlBackend(db));
+   }
+
+   @After
+   public void tearDown() {
+      db.close();
+   }
+
+   @Test
+   public void mapsEachSupportedType() {
+      List<Item> items = service.executeForBeanList("select * from items order by id", null, Item.class);
+      assertEquals(2, items.size());
+
+      Item item = items.get(0);
+      assertEquals(1, item.getId());
+      assertEquals("one", item.getName());
+      assertEquals(10, item.getCount());
+      assertEquals(1.5, item.getPrice(), 0);
+      assertTrue(item.isActive());
+      assertEquals(new Date(1000), item.getCreated());
+      assertEquals("Ann", item.getFirstname());
+      assertNull("unsupported types are skipped", item.getTags());
+
+      item = items.get(1);
+      assertFalse(item.isActive());
+      assertNull("0 is read as a null date", item.getCreated());
+      assertNull(item.getFirstname());
+   }
+
+   @Test
+   public void leavesColumnsMissingFromTheQueryUnset() {
+      Item item = service.executeForBean("select id, name from items where id = #id#",
+            singleton("id", 1), Item.class);
+      assertEquals(1, item.getId());
+      assertEquals("one", item.getName());
+      assertEquals(0, item.getCount());
+      assertNull(item.getCreated());
+   }
+
+   @Test
+   public void cachesTheMapperPerColumnSet() {
+      Cursor all = db.rawQuery("select * from items", null);
+      Cursor same = db.rawQuery("select * from items where id = 1", null);
+      Cursor fewer = db.rawQuery("select id, name from items", null);
+      try {
+         BeanMapper mapper = BeanMapper.forCursor(Item.class, all);
+         assertSame(mapper, BeanMapper.forCursor(Item.class, same));
+         assertNotSame(mapper, BeanMapper.forCursor(Item.class, fewer));
+      } finally {
+         all.close();
+         same.close();
+         fewer.close();
+      }
+   }
+
+   @Test
+   public void populatesTheBeansPassedIn() {
+      List<Item> buffer = new ArrayList<Item>();
+      Item reused = new Item();
+      buffer.add(reused);
+
+      List<Item> items = service.executeForBeanList("select * from items order by id", null, Item.class, buffer);
+      assertSame(buffer, items);
+      assertEquals(2, items.size());
+      assertSame(reused, items.get(0));
+      assertEquals("one", reused.getName());
+      assertEquals("two", items.get(1).getName());
+   }
+
+   @Test
+   public void getsTheMappedColumnsAndValues() {
+      assertEquals(Arrays.asList("id", "name", "count", "price", "active", "created", "firstname"),
+            Arrays.asList(service.getBeanColumns(Item.class)));
+
+      Item item = new Item();
+      item.setId(5);
+      item.setName("five");
+      item.setActive(true);
+      Map<String, Object> values = service.getBeanValues(item);
+      assertEquals(5L, values.get("id"));
+      assertEquals("five", values.get("name"));
+      assertEquals(Boolean.TRUE, values.get("active"));
+      assertTrue(values.containsKey("created"));
+      assertNull(values.get("created"));
+   }
+
+   static Map<String, Object> singleton(String key, Object value) {
+      Map<String, Object> map = new java.util.HashMap<String, Object>();
+      map.put(key, value);
+      return map;
+   }
+}
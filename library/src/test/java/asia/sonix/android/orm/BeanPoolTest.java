@@ -0,0 +1,88 @@
+package asia.sonix.android.orm;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BeanPoolTest {
+   /**
+    * A CursorBean that counts how it was created
+    */
+   public static class Counted implements CursorBean {
+      static int constructed = 0;
+      static int copied = 0;
+
+      public Counted() {
+         constructed++;
+      }
+
+      @Override
+      public CursorBean newBean() {
+         copied++;
+         return new Counted();
+      }
+
+      @Override
+      public String[] cursorColumns() {
+         return new String[0];
+      }
+
+      @Override
+      public void fromCursor(Cursor cursor, int[] columns) {
+      }
+
+      @Override
+      public void fromCursor(Cursor cursor) {
+      }
+
+      @Override
+      public ContentValues toContentValues() {
+         return null;
+      }
+   }
+
+   @Test
+   public void recyclesReleasedBeans() {
+      BeanPool<Item> pool = new BeanPool<Item>(Item.class, 2);
+      Item first = pool.acquire();
+      Item second = pool.acquire();
+      assertNotSame(first, second);
+      assertEquals(2, pool.getCreated());
+
+      pool.release(first);
+      assertEquals(1, pool.getFree());
+      assertSame(first, pool.acquire());
+      assertEquals(0, pool.getFree());
+      assertEquals(2, pool.getCreated());
+   }
+
+   @Test
+   public void dropsBeansWhenFull() {
+      BeanPool<Item> pool = new BeanPool<Item>(Item.class, 1);
+      Item first = pool.acquire();
+      pool.release(first);
+      pool.release(new Item());
+      pool.release(null);
+      assertEquals(1, pool.getFree());
+      assertSame(first, pool.acquire());
+   }
+
+   @Test
+   public void createsCursorBeansFromAPrototype() {
+      BeanPool<Counted> pool = new BeanPool<Counted>(Counted.class, 4);
+      int constructed = Counted.constructed;
+      int copied = Counted.copied;
+      pool.acquire();
+      pool.acquire();
+      assertEquals(2, Counted.copied - copied);
+      assertEquals(2, Counted.constructed - constructed);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void needsAnInstantiableClass() {
+      new BeanPool<Cursor>(Cursor.class, 4).acquire();
+   }
+}
@@ -0,0 +1,91 @@
+package asia.sonix.android.orm;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class ColumnarResultTest {
+   private SQLiteDatabase db;
+   private AbatisService service;
+
+   @Before
+   public void setUp() {
+      db = SQLiteDatabase.create(null);
+      db.execSQL("create table t (id integer, score real, city text, mixed, empty text)");
+      db.execSQL("insert into t values (1, 1.5, 'x', 1, null)");
+      db.execSQL("insert into t values (2, null, 'y', 2.5, null)");
+      db.execSQL("insert into t values (3, 3, 'x', 'three', null)");
+      service = new AbatisService(new AndroidSqlBackend(db));
+   }
+
+   @After
+   public void tearDown() {
+      db.close();
+   }
+
+   @Test
+   public void storesEachColumnByType() {
+      ColumnarResult result = service.executeForColumns("select * from t order by id", null);
+      assertEquals(3, result.getRowCount());
+      assertEquals(Arrays.asList("id", "score", "city", "mixed", "empty"), Arrays.asList(result.getColumnNames()));
+
+      int id = result.getColumnIndex("id");
+      assertEquals(ColumnarResult.TYPE_LONG, result.getType(id));
+      assertEquals(3, result.getLongs(id)[2]);
+
+      int score = result.getColumnIndex("score");
+      assertEquals(ColumnarResult.TYPE_DOUBLE, result.getType(score));
+      assertEquals(1.5, result.getDouble(0, score), 0);
+      assertTrue(result.isNull(1, score));
+      assertFalse(result.isNull(2, score));
+      assertEquals(3, result.getLong(2, score));
+
+      assertEquals(ColumnarResult.TYPE_NULL, result.getType(result.getColumnIndex("empty")));
+      assertEquals(-1, result.getColumnIndex("missing"));
+   }
+
+   @Test
+   public void encodesStringsWithADictionary() {
+      ColumnarResult result = service.executeForColumns("select city from t order by id", null);
+      assertEquals(ColumnarResult.TYPE_STRING, result.getType(0));
+      assertEquals(Arrays.asList("x", "y"), Arrays.asList(result.getDictionary(0)));
+      int[] codes = result.getStringCodes(0);
+      assertEquals(codes[0], codes[2]);
+      assertEquals("y", result.getString(1, 0));
+   }
+
+   @Test
+   public void widensColumnsWithMixedTypes() {
+      ColumnarResult result = service.executeForColumns("select mixed from t where id <> 2 order by id", null);
+      assertEquals(ColumnarResult.TYPE_STRING, result.getType(0));
+      assertEquals("1", result.getString(0, 0));
+      assertEquals("three", result.getString(1, 0));
+
+      result = service.executeForColumns("select mixed from t where id < 3 order by id", null);
+      assertEquals(ColumnarResult.TYPE_DOUBLE, result.getType(0));
+      assertEquals(1, result.getDouble(0, 0), 0);
+   }
+
+   @Test
+   public void readsRowsThroughOneView() {
+      ColumnarResult result = service.executeForColumns("select id, city from t where id >= #id# order by id",
+            BeanMapperTest.singleton("id", 2));
+      StringBuilder cities = new StringBuilder();
+      ColumnarResult.Row first = null;
+      for (ColumnarResult.Row row : result.rows()) {
+         if (first == null) first = row;
+         assertSame(first, row);
+         cities.append(row.getLong("id")).append(row.getString("city"));
+      }
+      assertEquals("2y3x", cities.toString());
+   }
+}
@@ -0,0 +1,120 @@
+package asia.sonix.android.orm;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.Collections;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class CursorListTest {
+   private AbatisService service;
+   private CursorList<Item> items;
+
+   @Before
+   public void setUp() {
+      service = new AbatisService(RuntimeEnvironment.application, "cursorlist", 1);
+      // close the connection as soon as it is released
+      service.setIdleTimeout(0);
+      service.execute("create table items (id integer primary key, name text, count integer, active text, "
+            + "created integer)", null);
+      for (int i = 1; i <= 3; i++) {
+         service.execute("insert into items (name, count, active, created) values ('item " + i + "', " + i * 10
+               + ", '" + (i == 2) + "', " + (i == 3 ? "null" : String.valueOf(i * 1000)) + ")", null);
+      }
+      items = service.executeForCursorList("select * from items order by id", null, Item.class);
+   }
+
+   @After
+   public void tearDown() {
+      items.close();
+      service.shutdown();
+   }
+
+   @Test
+   public void mapsRowsIntoNewBeans() {
+      assertEquals(3, items.size());
+      assertSame(Item.class, items.getBeanClass());
+      Item last = items.get(2);
+      Item first = items.get(0);
+      assertEquals("item 1", first.getName());
+      assertEquals(30, last.getCount());
+      assertNotSame(first, items.get(0));
+   }
+
+   @Test
+   public void mapsRowsIntoExistingBeans() {
+      Item bean = new Item();
+      assertSame(bean, items.get(1, bean));
+      assertEquals(2, bean.getId());
+      assertTrue(bean.isActive());
+      items.get(0, bean);
+      assertEquals("item 1", bean.getName());
+      assertFalse(bean.isActive());
+      assertEquals(new Date(1000), bean.getCreated());
+   }
+
+   @Test
+   public void readsTheFlyweightRow() {
+      CursorRow row = items.row(1);
+      assertSame(row, items.row(2));
+      assertEquals(2, row.getPosition());
+      assertEquals("item 3", row.getString("name"));
+      assertEquals(30, row.getInt("count"));
+      assertEquals(3L, row.getLong("id"));
+      assertEquals(30.0, row.getDouble("count"), 0);
+      assertFalse(row.getBoolean("active"));
+      assertNull(row.getDate("created"));
+      assertTrue(row.isNull("created"));
+
+      items.row(1);
+      assertTrue(row.getBoolean("active"));
+      assertEquals(new Date(2000), row.getDate("created"));
+      assertEquals(row.getColumnIndex("name"), row.getColumnIndex("name"));
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void rejectsUnknownColumns() {
+      items.row(0).getString("missing");
+   }
+
+   @Test(expected = IndexOutOfBoundsException.class)
+   public void rejectsPositionsOutOfRange() {
+      items.get(3);
+   }
+
+   @Test
+   public void holdsTheConnectionUntilClosed() {
+      // the connection would be closed when released, as the idle timeout is 0
+      SQLiteDatabase db = service.acquireDatabase();
+      service.releaseDatabase();
+      assertTrue(db.isOpen());
+
+      items.close();
+      items.close();
+      assertTrue(items.isClosed());
+      assertFalse(db.isOpen());
+      try {
+         items.row(0);
+         fail("closed");
+      } catch (IllegalStateException expected) {
+      }
+   }
+
+   @Test
+   public void isEmptyIfAParameterIsMissing() {
+      CursorList<Item> none = service.executeForCursorList("select * from items where id = #id#",
+            Collections.<String, Object> emptyMap(), Item.class);
+      assertEquals(0, none.size());
+      assertTrue(none.isClosed());
+      none.close();
+   }
+}
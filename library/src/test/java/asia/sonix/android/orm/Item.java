@@ -0,0 +1,82 @@
+package asia.sonix.android.orm;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Bean mapped by reflection in the tests
+ */
+public class Item {
+   private long id;
+   private String name;
+   private int count;
+   private double price;
+   private boolean active;
+   private Date created;
+   private String first_name;
+   private List<String> tags;
+
+   public long getId() {
+      return id;
+   }
+
+   public void setId(long id) {
+      this.id = id;
+   }
+
+   public String getName() {
+      return name;
+   }
+
+   public void setName(String name) {
+      this.name = name;
+   }
+
+   public int getCount() {
+      return count;
+   }
+
+   public void setCount(int count) {
+      this.count = count;
+   }
+
+   public double getPrice() {
+      return price;
+   }
+
+   public void setPrice(double price) {
+      this.price = price;
+   }
+
+   public boolean isActive() {
+      return active;
+   }
+
+   public void setActive(boolean active) {
+      this.active = active;
+   }
+
+   public Date getCreated() {
+      return created;
+   }
+
+   public void setCreated(Date created) {
+      this.created = created;
+   }
+
+   public String getFirstname() {
+      return first_name;
+   }
+
+   public void setFirstname(String firstName) {
+      this.first_name = firstName;
+   }
+
+   public List<String> getTags() {
+      return tags;
+   }
+
+   public void setTags(List<String> tags) {
+      this.tags = tags;
+   }
+}
@@ -0,0 +1,125 @@
+package asia.sonix.android.orm;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class QueryStatsTest {
+   private static final long MS = 1000000L;
+
+   @SuppressWarnings("unchecked")
+   private static Map<String, Object> statement(QueryStats stats, String sql) {
+      return (Map<String, Object>) ((Map<String, Object>) stats.snapshot().get("statements")).get(sql);
+   }
+
+   @SuppressWarnings("unchecked")
+   private static List<Map<String, Object>> slowQueries(QueryStats stats) {
+      return (List<Map<String, Object>>) stats.snapshot().get("slowQueries");
+   }
+
+   @Test
+   public void countsEachTemplate() {
+      QueryStats stats = new QueryStats(-1);
+      stats.queryExecuted("select * from a where id = ?", new Object[] { 1 }, 2 * MS, 1 * MS, 1);
+      stats.queryExecuted("select * from a where id = ?", new Object[] { 2 }, 4 * MS, 0, 0);
+      stats.statementExecuted("delete from a", null, 5 * MS, 3);
+
+      Map<String, Object> query = statement(stats, "select * from a where id = ?");
+      assertEquals(2L, query.get("count"));
+      assertEquals(1L, query.get("rows"));
+      assertEquals(7.0, (Double) query.get("totalMs"), 0.001);
+      assertEquals(1.0, (Double) query.get("mapMs"), 0.001);
+      assertEquals(4.0, (Double) query.get("maxMs"), 0.001);
+
+      Map<String, Object> delete = statement(stats, "delete from a");
+      assertEquals(1L, delete.get("count"));
+      assertEquals(3L, delete.get("rows"));
+      assertEquals(0.0, (Double) delete.get("mapMs"), 0.001);
+   }
+
+   @Test
+   public void estimatesPercentilesFromTheHistogram() {
+      QueryStats stats = new QueryStats(-1);
+      // 90 statements of 100 µs, and 10 of 10 ms
+      for (int i = 0; i < 90; i++) stats.statementExecuted("sql", null, 100000, 1);
+      for (int i = 0; i < 10; i++) stats.statementExecuted("sql", null, 10 * MS, 1);
+
+      Map<String, Object> values = statement(stats, "sql");
+      long[] histogram = (long[]) values.get("histogram");
+      assertEquals(QueryStats.BUCKETS, histogram.length);
+      // 100 µs is in the bucket from 64 to 128 µs, 10000 µs from 8192 to 16384 µs
+      assertEquals(90, histogram[7]);
+      assertEquals(10, histogram[14]);
+
+      assertEquals(0.128, (Double) values.get("p50Ms"), 0.0001);
+      assertEquals(0.128, (Double) values.get("p90Ms"), 0.0001);
+      // the bucket's upper bound is more than the maximum
+      assertEquals(10.0, (Double) values.get("p99Ms"), 0.0001);
+   }
+
+   @Test
+   public void keepsTheMostRecentSlowQueries() {
+      QueryStats stats = new QueryStats(10);
+      stats.queryExecuted("fast", new Object[] { "a" }, 1 * MS, 0, 1);
+      for (int i = 0; i < 60; i++) {
+         stats.queryExecuted("slow", new Object[] { i, "x" }, 8 * MS, 2 * MS, i);
+      }
+
+      List<Map<String, Object>> slow = slowQueries(stats);
+      assertEquals(50, slow.size());
+      assertEquals(60L, stats.snapshot().get("slowQueryCount"));
+      assertEquals("slow", slow.get(0).get("sql"));
+      assertEquals(Arrays.toString(new Object[] { 59, "x" }), slow.get(0).get("args"));
+      assertEquals(59, slow.get(0).get("rows"));
+      assertEquals(10.0, (Double) slow.get(0).get("ms"), 0.001);
+      assertEquals(10, slow.get(49).get("rows"));
+
+      stats.setSlowQueryThreshold(-1);
+      stats.queryExecuted("slow", null, 100 * MS, 0, 0);
+      assertEquals(60L, stats.snapshot().get("slowQueryCount"));
+   }
+
+   @Test
+   public void countsTemplatesOverTheLimitTogether() {
+      QueryStats stats = new QueryStats(-1);
+      for (int i = 0; i < QueryStats.MAX_TEMPLATES + 5; i++) {
+         stats.statementExecuted("select " + i, null, MS, 1);
+      }
+      stats.statementExecuted("select 0", null, MS, 1);
+
+      @SuppressWarnings("unchecked")
+      Map<String, Object> statements = (Map<String, Object>) stats.snapshot().get("statements");
+      assertEquals(QueryStats.MAX_TEMPLATES + 1, statements.size());
+      assertEquals(2L, statement(stats, "select 0").get("count"));
+      assertEquals(5L, statement(stats, QueryStats.OTHER).get("count"));
+   }
+
+   @Test
+   public void recordsOpeningCreatingAndUpgrading() {
+      QueryStats stats = new QueryStats(-1);
+      assertEquals(-1d, stats.snapshot().get("createMs"));
+      stats.databaseOpened(2 * MS);
+      stats.databaseOpened(4 * MS);
+      stats.databaseCreated(3 * MS);
+      stats.databaseUpgraded(2, 5 * MS);
+      stats.queryPlanFlagged("select * from a", Arrays.asList("SCAN TABLE a"));
+
+      Map<String, Object> snapshot = stats.snapshot();
+      assertEquals(2L, snapshot.get("opens"));
+      assertEquals(6.0, (Double) snapshot.get("openMs"), 0.001);
+      assertEquals(4.0, (Double) snapshot.get("maxOpenMs"), 0.001);
+      assertEquals(3.0, (Double) snapshot.get("createMs"), 0.001);
+      assertEquals(5.0, ((Map<?, ?>) snapshot.get("upgradeMs")).get(2));
+      assertEquals(Arrays.asList("SCAN TABLE a"), ((Map<?, ?>) snapshot.get("flaggedPlans")).get("select * from a"));
+
+      stats.reset();
+      snapshot = stats.snapshot();
+      assertEquals(0L, snapshot.get("opens"));
+      assertTrue(((Map<?, ?>) snapshot.get("statements")).isEmpty());
+      assertTrue(((Map<?, ?>) snapshot.get("upgradeMs")).isEmpty());
+   }
+}
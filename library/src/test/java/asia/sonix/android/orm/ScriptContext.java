@@ -0,0 +1,41 @@
+package asia.sonix.android.orm;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.res.Resources;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A context with string resources set by the test, e.g. dbInitialize and the
+ * dbUpgrade_N scripts
+ */
+class ScriptContext extends ContextWrapper {
+   final Map<String, String> strings = new HashMap<String, String>();
+   private final Resources resources;
+
+   ScriptContext(Context base) {
+      super(base);
+      Resources res = base.getResources();
+      resources = new Resources(base.getAssets(), res.getDisplayMetrics(), res.getConfiguration()) {
+         @Override
+         public int getIdentifier(String name, String defType, String defPackage) {
+            return strings.containsKey(name) ? name.hashCode() : 0;
+         }
+
+         @Override
+         public String getString(int id) {
+            for (Map.Entry<String, String> entry : strings.entrySet()) {
+               if (entry.getKey().hashCode() == id) return entry.getValue();
+            }
+            throw new NotFoundException("no string " + id);
+         }
+      };
+   }
+
+   @Override
+   public Resources getResources() {
+      return resources;
+   }
+}
@@ -0,0 +1,50 @@
+package asia.sonix.android.orm;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class SqlScriptTest {
+   @Test
+   public void splitsOnSemicolons() {
+      assertEquals(Arrays.asList("create table a (x)", "create table b (y)"),
+            SqlScript.split("create table a (x);\n create table b (y);\n"));
+   }
+
+   @Test
+   public void skipsEmptyStatements() {
+      assertEquals(Collections.singletonList("select 1"), SqlScript.split(" ;; select 1 ; ;\n"));
+      assertEquals(Collections.<String> emptyList(), SqlScript.split(""));
+   }
+
+   @Test
+   public void keepsSemicolonsInQuotes() {
+      assertEquals(Arrays.asList("insert into a values ('x;y', 'it''s;')", "create table \"b;c\" ([d;e], `f;g`)"),
+            SqlScript.split("insert into a values ('x;y', 'it''s;'); create table \"b;c\" ([d;e], `f;g`)"));
+   }
+
+   @Test
+   public void removesComments() {
+      assertEquals(Arrays.asList("create table a (x )", "select 1"),
+            SqlScript.split("-- a comment; with a semicolon\ncreate table a (x/* ; */);\nselect 1 -- ;"));
+   }
+
+   @Test
+   public void keepsTriggerBodiesTogether() {
+      String trigger = "create trigger t after insert on a begin update b set n = n + 1; "
+            + "insert into c values (case when new.x > 0 then 1 else 0 end); end";
+      assertEquals(Arrays.asList(trigger, "select 1"), SqlScript.split(trigger + "; select 1;"));
+
+      String temp = "CREATE TEMP TRIGGER t2 BEFORE DELETE ON a BEGIN DELETE FROM b; END";
+      assertEquals(Arrays.asList(temp, "create table d (end_date)"),
+            SqlScript.split(temp + ";\ncreate table d (end_date);"));
+   }
+
+   @Test
+   public void onlyCountsBeginAndEndInTriggers() {
+      assertEquals(Arrays.asList("begin", "select 1", "end"), SqlScript.split("begin; select 1; end;"));
+   }
+}
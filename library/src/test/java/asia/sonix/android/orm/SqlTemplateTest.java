@@ -0,0 +1,44 @@
+package asia.sonix.android.orm;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SqlTemplateTest {
+   @Test
+   public void replacesPlaceholdersWithPositionalParameters() {
+      SqlTemplate template = SqlTemplate.parse("select * from users where name = #name# and age > #age# or name = #name#");
+      assertEquals("select * from users where name = ? and age > ? or name = ?", template.sql);
+      assertEquals(Arrays.asList("name", "age", "name"), Arrays.asList(template.paramNames));
+      assertFalse(template.malformed);
+   }
+
+   @Test
+   public void copiesQuotedTextAsIs() {
+      SqlTemplate template = SqlTemplate.parse("select '#not#', \"#col#\" from t where a = #a#");
+      assertEquals("select '#not#', \"#col#\" from t where a = ?", template.sql);
+      assertEquals(Arrays.asList("a"), Arrays.asList(template.paramNames));
+   }
+
+   @Test
+   public void getsTheArgumentsInOrder() {
+      SqlTemplate template = SqlTemplate.parse("select * from t where a = #a# and b = #b#");
+      Map<String, Object> params = new HashMap<String, Object>();
+      params.put("b", 2);
+      params.put("a", null);
+      assertArrayEquals(new Object[] { null, 2 }, template.getArgs(params));
+   }
+
+   @Test
+   public void hasNoArgumentsForAMissingParameterOrMalformedSql() {
+      Map<String, Object> params = new HashMap<String, Object>();
+      params.put("a", 1);
+      assertNull(SqlTemplate.parse("select * from t where a = #a# and b = #b#").getArgs(params));
+      assertNull(SqlTemplate.parse("select * from t where a = #a# and b = #b").getArgs(params));
+      assertArrayEquals(new Object[0], SqlTemplate.parse("select 1").getArgs(null));
+   }
+}
@@ -0,0 +1,29 @@
+package com.tobykurien.androidgroovysupport;
+
+import groovy.lang.GroovyClassLoader;
+
+/**
+ * Compiles Groovy classes for the tests, so that the AST transformations can be
+ * tested on the code they generate
+ */
+public class GroovyTestClasses {
+    /**
+     * Compile a class with the classes of the test, including the AST transformations
+     */
+    public static Class<?> compile(Class<?> test, String source) {
+        ClassLoader loader = test.getClassLoader();
+        return new GroovyClassLoader(new ClassLoader(loader) {
+            @Override
+            protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+                // Robolectric's class loader only loads its own copies of classes through
+                // loadClass(name), and throws IllegalStateException rather than
+                // ClassNotFoundException for some of the names that Groovy tries
+                try {
+                    return getParent().loadClass(name);
+                } catch (IllegalStateException e) {
+                    throw new ClassNotFoundException(name, e);
+                }
+            }
+        }).parseClass(source);
+    }
+}
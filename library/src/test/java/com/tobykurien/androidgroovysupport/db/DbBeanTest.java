@@ -0,0 +1,155 @@
+package com.tobykurien.androidgroovysupport.db;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.tobykurien.androidgroovysupport.GroovyTestClasses;
+
+import groovy.lang.GroovyObject;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import asia.sonix.android.orm.CursorBean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the code generated by @DbBean, and the conversions it shares with the
+ * reflective mapping
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DbBeanTest extends DbServiceTestCase {
+    private static final String NOTE = "import com.tobykurien.androidgroovysupport.annotations.DbBean\n"
+            + "@DbBean\n"
+            + "class Note {\n"
+            + "    long id\n"
+            + "    String title\n"
+            + "    int count\n"
+            + "    double score\n"
+            + "    boolean done\n"
+            + "    Boolean flagged\n"
+            + "    Date created\n"
+            + "    List<String> tags\n"
+            + "    static String TABLE = 'notes'\n"
+            + "}\n";
+
+    private static Class<?> noteClass;
+
+    @Before
+    public void setUp() {
+        if (noteClass == null) noteClass = GroovyTestClasses.compile(getClass(), NOTE);
+        db.execute("create table notes (id integer primary key, title text, count integer, score real, done text, "
+                + "flagged text, created integer)", null);
+    }
+
+    private GroovyObject note(long id, String title, Boolean flagged, Date created) throws Exception {
+        GroovyObject note = (GroovyObject) noteClass.newInstance();
+        note.setProperty("id", id);
+        note.setProperty("title", title);
+        note.setProperty("count", 3);
+        note.setProperty("score", 1.5);
+        note.setProperty("done", true);
+        note.setProperty("flagged", flagged);
+        note.setProperty("created", created);
+        return note;
+    }
+
+    @Test
+    public void implementsCursorBean() throws Exception {
+        assertTrue(CursorBean.class.isAssignableFrom(noteClass));
+        CursorBean note = (CursorBean) noteClass.newInstance();
+        assertEquals(Arrays.asList("id", "title", "count", "score", "done", "flagged", "created"),
+                Arrays.asList(note.cursorColumns()));
+        assertSame(noteClass, note.newBean().getClass());
+    }
+
+    @Test
+    public void writesTypedValues() throws Exception {
+        ContentValues values = ((CursorBean) note(1, null, null, new Date(1000))).toContentValues();
+        assertEquals(1L, values.get("id"));
+        assertEquals(3, values.get("count"));
+        assertEquals(1.5, values.get("score"));
+        assertEquals("true", values.get("done"));
+        assertEquals(1000L, values.get("created"));
+        assertTrue(values.containsKey("title"));
+        assertNull(values.get("title"));
+        assertTrue(values.containsKey("flagged"));
+        assertNull(values.get("flagged"));
+    }
+
+    @Test
+    public void readsAndWritesBeans() throws Exception {
+        db.insert("notes", (Object) note(0, "first", true, new Date(1000)));
+        db.insert("notes", (Object) note(0, null, null, null));
+
+        List<?> notes = db.findAll("notes", "id", noteClass);
+        assertEquals(2, notes.size());
+        GroovyObject first = (GroovyObject) notes.get(0);
+        assertEquals(1L, first.getProperty("id"));
+        assertEquals("first", first.getProperty("title"));
+        assertEquals(3, first.getProperty("count"));
+        assertEquals(1.5, first.getProperty("score"));
+        assertEquals(true, first.getProperty("done"));
+        assertEquals(true, first.getProperty("flagged"));
+        assertEquals(new Date(1000), first.getProperty("created"));
+
+        GroovyObject second = (GroovyObject) notes.get(1);
+        assertNull(second.getProperty("title"));
+        assertNull(second.getProperty("flagged"));
+        assertNull(second.getProperty("created"));
+        assertEquals(1, db.countByFields("notes", row("title is", null)));
+    }
+
+    @Test
+    public void convertsMapValuesLikeBoundParameters() {
+        ContentValues values = db.getContentValues(row("a", null, "b", 5, "c", 2.5f, "d", false, "e", new Date(7),
+                "f", "text"));
+        assertTrue(values.containsKey("a"));
+        assertNull(values.get("a"));
+        assertEquals(5L, values.get("b"));
+        assertEquals(2.5, values.get("c"));
+        assertEquals("false", values.get("d"));
+        assertEquals(7L, values.get("e"));
+        assertEquals("text", values.get("f"));
+    }
+
+    @Test
+    public void insertsAndUpdatesNullsFromMaps() {
+        long id = (Long) db.insert("users", row("name", "ann", "age", 30, "notes", null));
+        assertEquals(1, db.countByFields("users", row("notes is", null, "age", 30)));
+
+        db.update("users", row("age", null, "notes", "x"), id);
+        User user = db.findById("users", id, User.class);
+        assertEquals(0, user.getAge());
+        assertEquals(1, db.countByFields("users", row("age is", null)));
+        assertEquals(0, db.countByFields("users", row("notes", "null")));
+    }
+
+    @Test
+    public void readsTheColumnsOfARawQuery() {
+        db.insertAll("notes", Arrays.asList(row("title", "a", "count", 1), row("title", "b", "count", 2)));
+        List<?> notes = db.executeForBeanList("select count, title from notes order by id", null, noteClass);
+        assertEquals("b", ((GroovyObject) notes.get(1)).getProperty("title"));
+        assertEquals(2, ((GroovyObject) notes.get(1)).getProperty("count"));
+        assertEquals(0L, ((GroovyObject) notes.get(1)).getProperty("id"));
+
+        Cursor cursor = database.rawQuery("select title from notes where id = 1", null);
+        try {
+            cursor.moveToFirst();
+            GroovyObject note = (GroovyObject) ((CursorBean) noteClass.newInstance()).newBean();
+            ((CursorBean) note).fromCursor(cursor);
+            assertEquals("a", note.getProperty("title"));
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.tobykurien.androidgroovysupport.db;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests counts, existence checks and aggregates
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DbServiceAggregateTest extends DbServiceTestCase {
+    @Before
+    public void setUp() {
+        db.execute("create table sales (id integer primary key, category text, amount integer, price real)", null);
+        db.insertAll("sales", Arrays.asList(
+                row("category", "books", "amount", 3, "price", 2.5),
+                row("category", "books", "amount", 4, "price", 1.0),
+                row("category", "music", "amount", 5, "price", null)));
+    }
+
+    @Test
+    public void countsAndChecksRows() {
+        assertEquals(2, db.countByFields("sales", row("category", "books")));
+        assertEquals(1, db.countByFields("sales", row("amount >", 3, "category", "books")));
+        assertTrue(db.existsByFields("sales", row("category", "music")));
+        assertFalse(db.existsByFields("sales", row("category", "films")));
+    }
+
+    @Test
+    public void sumsWithTheTypeOfTheColumn() {
+        assertEquals(7L, db.sum("sales", "amount", row("category", "books")));
+        assertEquals(3.5, db.sum("sales", "price", null));
+        assertEquals(0L, db.sum("sales", "amount", row("category", "films")));
+    }
+
+    @Test
+    public void readsMinAndMaxAsStored() {
+        assertEquals(3L, db.<Object> min("sales", "amount", null));
+        assertEquals(2.5, db.<Object> max("sales", "price", null));
+        // a text column, which can't be read as a number
+        assertEquals("books", db.<Object> min("sales", "category", null));
+        assertEquals("music", db.<Object> max("sales", "category", null));
+        assertNull(db.min("sales", "amount", row("category", "films")));
+
+        Number amount = db.max("sales", "amount", row("category", "books"));
+        assertEquals(4L, amount);
+    }
+
+    @Test
+    public void groupsByAColumn() {
+        Map<String, Number> counts = db.groupBy("sales", "category", null);
+        assertEquals("{books=2, music=1}", counts.toString());
+        assertEquals(2L, counts.get("books"));
+
+        Map<String, Object> last = db.groupBy("sales", "amount > 3", "max(category)", null);
+        assertEquals("books", last.get("0"));
+        assertEquals("music", last.get("1"));
+
+        Map<String, Object> prices = db.groupBy("sales", "category", "sum(price)", null);
+        assertEquals(3.5, prices.get("books"));
+        assertTrue(prices.containsKey("music"));
+        assertNull(prices.get("music"));
+    }
+}
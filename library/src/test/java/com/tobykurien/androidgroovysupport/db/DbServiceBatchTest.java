@@ -0,0 +1,110 @@
+package com.tobykurien.androidgroovysupport.db;
+
+import groovy.lang.Closure;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class DbServiceBatchTest extends DbServiceTestCase {
+    @Test
+    public void insertsMapsAndBeans() {
+        List<Long> ids = db.insertAll("users", Arrays.asList(
+                row("name", "ann", "age", 30),
+                new User(0, "bob", 40),
+                new User(10, "cat", 50)));
+        assertEquals(Arrays.asList(1L, 2L, 10L), ids);
+        assertEquals(3, db.countByFields("users", null));
+        assertEquals("bob", db.findById("users", 2, User.class).getName());
+    }
+
+    @Test
+    public void reportsRowsThatCouldNotBeInserted() {
+        List<Long> ids = db.insertAll("users", Arrays.asList(
+                row("name", "ann"),
+                row("name", null),
+                row("name", "cat")));
+        assertEquals(Arrays.asList(1L, -1L, 2L), ids);
+        assertEquals(2, db.countByFields("users", null));
+    }
+
+    @Test
+    public void upsertsRows() {
+        db.insertAll("users", Arrays.asList(new User(1, "ann", 30), new User(2, "bob", 40)));
+        db.upsertAll("users", Arrays.asList(new User(2, "bobby", 41), new User(3, "cat", 50)));
+        List<User> users = db.findAll("users", "id", User.class);
+        assertEquals(3, users.size());
+        assertEquals("bobby", users.get(1).getName());
+        assertEquals(41, users.get(1).getAge());
+    }
+
+    @Test
+    public void updatesRowsById() {
+        db.insertAll("users", Arrays.asList(new User(1, "ann", 30), new User(2, "bob", 40)));
+        List<Integer> counts = db.updateAll("users", Arrays.asList(
+                row("id", 1, "age", 31),
+                row("id", 5, "age", 99),
+                new User(2, "bobby", 41)));
+        assertEquals(Arrays.asList(1, 0, 1), counts);
+        assertEquals(31, db.findById("users", 1, User.class).getAge());
+        assertEquals("bobby", db.findById("users", 2, User.class).getName());
+    }
+
+    @Test
+    public void rollsBackAllTheUpdatesIfARowHasNoId() {
+        db.insertAll("users", Arrays.asList(new User(1, "ann", 30)));
+        try {
+            db.updateAll("users", Arrays.asList(row("id", 1, "age", 31), row("age", 32)));
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(30, db.findById("users", 1, User.class).getAge());
+    }
+
+    @Test
+    public void deletesByIds() {
+        db.insertAll("users", Arrays.asList(new User(1, "ann", 30), new User(2, "bob", 40), new User(3, "cat", 50)));
+        assertEquals(2, db.deleteByIds("users", Arrays.asList(1, 3, 4)));
+        assertEquals(1, db.countByFields("users", null));
+    }
+
+    @Test
+    public void commitsATransactionTogether() {
+        db.inTransaction(new Closure<Object>(this) {
+            public Object doCall() {
+                db.insertAll("users", Arrays.asList(new User(1, "ann", 30)));
+                db.insertAll("users", Arrays.asList(row("name", "bob")));
+                return null;
+            }
+        });
+        assertEquals(2, db.countByFields("users", null));
+        assertEquals("bob", db.findById("users", 2, User.class).getName());
+    }
+
+    @Test
+    public void rollsBackATransactionThatFails() {
+        try {
+            db.inTransaction(new Closure<Object>(this) {
+                public Object doCall() {
+                    db.insertAll("users", Arrays.asList(new User(1, "ann", 30)));
+                    db.inTransaction(new Closure<Object>(this) {
+                        public Object doCall() {
+                            db.insertAll("users", Arrays.asList(row("name", "bob")));
+                            return null;
+                        }
+                    });
+                    throw new IllegalStateException("failed");
+                }
+            });
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(0, db.countByFields("users", null));
+    }
+}
@@ -0,0 +1,83 @@
+package com.tobykurien.androidgroovysupport.db;
+
+import groovy.lang.Closure;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class DbServiceCacheTest extends DbServiceTestCase {
+    @Before
+    public void setUp() {
+        db.insertAll("users", Arrays.asList(new User(1, "ann", 30), new User(2, "bob", 40)));
+        db.enableResultCache(100);
+    }
+
+    private long hits() {
+        return db.getResultCache().getStats().get("hits");
+    }
+
+    @Test
+    public void returnsCachedResults() {
+        List<User> first = db.findAll("users", "id", User.class);
+        List<User> second = db.findAll("users", "id", User.class);
+        assertEquals(1, hits());
+        assertNotSame(first, second);
+        assertSame(first.get(0), second.get(0));
+
+        // different parameters are cached separately
+        assertEquals(1, db.findByFields("users", row("age", 30), null, User.class).size());
+        assertEquals(1, db.findByFields("users", row("age", 40), null, User.class).size());
+        assertEquals(1, hits());
+    }
+
+    @Test
+    public void invalidatesResultsOnWrites() {
+        assertEquals(2, db.findAll("users", "id", User.class).size());
+        db.insertAll("users", Arrays.asList(new User(3, "cat", 50)));
+        assertEquals(3, db.findAll("users", "id", User.class).size());
+
+        db.execute("update users set age = 31 where id = 1", null);
+        assertEquals(31, db.findById("users", 1, User.class).getAge());
+
+        db.deleteByIds("users", Arrays.asList(3));
+        assertEquals(2, db.countByFields("users", null));
+        assertEquals(0, hits());
+    }
+
+    @Test
+    public void keepsResultsOfOtherTables() {
+        db.execute("create table groups (id integer primary key, name text)", null);
+        db.findAll("users", "id", User.class);
+        db.execute("insert into groups (name) values ('admins')", null);
+        db.findAll("users", "id", User.class);
+        assertEquals(1, hits());
+    }
+
+    @Test
+    public void doesNotCacheInsideATransaction() {
+        db.inTransaction(new Closure<Object>(this) {
+            public Object doCall() {
+                db.insertAll("users", Arrays.asList(new User(3, "cat", 50)));
+                assertEquals(3, db.findAll("users", "id", User.class).size());
+                return null;
+            }
+        });
+        assertEquals(3, db.findAll("users", "id", User.class).size());
+        assertEquals(0, hits());
+    }
+
+    @Test
+    public void cachesEmptyResults() {
+        assertNull(db.findById("users", 5, User.class));
+        assertNull(db.findById("users", 5, User.class));
+        assertEquals(1, hits());
+    }
+}
@@ -0,0 +1,93 @@
+package com.tobykurien.androidgroovysupport.db;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import asia.sonix.android.orm.QueryMetrics;
+import asia.sonix.android.orm.QueryStats;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that the statements run through DbService are reported to the metrics
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DbServiceMetricsTest extends DbServiceTestCase {
+    private QueryStats stats;
+
+    @Before
+    public void setUp() {
+        stats = new QueryStats(0);
+        db.setMetrics(stats);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> statement(String sql) {
+        Map<String, Object> statements = (Map<String, Object>) stats.snapshot().get("statements");
+        assertTrue(sql + " in " + statements.keySet(), statements.containsKey(sql));
+        return (Map<String, Object>) statements.get(sql);
+    }
+
+    @Test
+    public void recordsQueriesByTemplate() {
+        db.insertAll("users", Arrays.asList(row("name", "ann", "age", 30), row("name", "bob", "age", 40)));
+        stats.reset();
+
+        for (int age : new int[] { 30, 40, 50 }) {
+            db.executeForMapList("select * from users where age = #age#", row("age", age));
+        }
+        Map<String, Object> query = statement("select * from users where age = ?");
+        assertEquals(3L, query.get("count"));
+        assertEquals(2L, query.get("rows"));
+
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> slow = (List<Map<String, Object>>) stats.snapshot().get("slowQueries");
+        assertEquals(3, slow.size());
+        assertEquals("[50]", slow.get(0).get("args"));
+    }
+
+    @Test
+    public void recordsWrites() {
+        long id = (Long) db.insert("users", row("name", "ann"));
+        db.update("users", row("age", 31), id);
+        db.execute("update users set notes = #notes#", row("notes", "x"));
+        db.delete("users", String.valueOf(id));
+
+        assertEquals(1L, statement("insert into users").get("count"));
+        assertEquals(1L, statement("update users where id = ?").get("rows"));
+        assertEquals(1L, statement("update users set notes = ?").get("rows"));
+        assertEquals(1L, statement("delete from users where id = ?").get("count"));
+    }
+
+    @Test
+    public void disabledMetricsRecordNothing() {
+        db.setMetrics(null);
+        assertNull(db.getMetrics());
+        db.executeForMapList("select * from users", null);
+        assertTrue(((Map<?, ?>) stats.snapshot().get("statements")).isEmpty());
+    }
+
+    @Test
+    public void separatesQueryAndMappingTime() {
+        final long[] times = new long[3];
+        db.setMetrics(new QueryMetrics() {
+            @Override
+            public void queryExecuted(String sql, Object[] args, long queryNanos, long mapNanos, int rows) {
+                times[0] = queryNanos;
+                times[1] = mapNanos;
+                times[2] = rows;
+            }
+        });
+        db.insert("users", row("name", "ann"));
+        db.findAll("users", "id", User.class);
+        assertTrue(times[0] > 0);
+        assertTrue(times[1] > 0);
+        assertEquals(1, times[2]);
+    }
+}
@@ -0,0 +1,76 @@
+package com.tobykurien.androidgroovysupport.db;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class DbServicePagingTest extends DbServiceTestCase {
+    @Before
+    public void setUp() {
+        db.insertAll("users", Arrays.asList(
+                new User(1, "ann", 30), new User(2, "bob", 40), new User(3, "cat", 30), new User(4, "dan", 20),
+                new User(5, "eve", 40), new User(6, "fay", 30), new User(7, "gus", 10)));
+    }
+
+    @Test
+    public void pagesThroughAllTheRowsInOrder() {
+        List<String> names = new ArrayList<String>();
+        List<Integer> sizes = new ArrayList<Integer>();
+        Map<String, ?> after = null;
+        do {
+            Page<User> page = db.findPage("users", null, "age desc", after, 3, User.class);
+            for (User user : page.getItems()) {
+                names.add(user.getName());
+            }
+            sizes.add(page.getItems().size());
+            after = page.getNext();
+        } while (after != null);
+
+        // ties in age are ordered by id, in the same direction
+        assertEquals(Arrays.asList("eve", "bob", "fay", "cat", "ann", "dan", "gus"), names);
+        assertEquals(Arrays.asList(3, 3, 1), sizes);
+    }
+
+    @Test
+    public void pagesThroughMatchingRows() {
+        Page<User> page = db.findPage("users", row("age >=", 30), "name", null, 4, User.class);
+        assertEquals(4, page.getItems().size());
+        assertEquals("ann", page.getItems().get(0).getName());
+        assertEquals("eve", page.getItems().get(3).getName());
+
+        page = db.findPage("users", row("age >=", 30), "name", page.getNext(), 4, User.class);
+        assertEquals(1, page.getItems().size());
+        assertEquals("fay", page.getItems().get(0).getName());
+        assertNull(page.getNext());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsALimitOfZero() {
+        db.findPage("users", null, "name", null, 0, User.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnOrderByExpression() {
+        db.findPage("users", null, "lower(name)", null, 3, User.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsACollation() {
+        db.findPage("users", null, "name collate nocase", null, 3, User.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAColumnThatIsNotInTheBean() {
+        // checked before the query, even when there is only one page
+        db.findPage("users", null, "notes", null, 100, User.class);
+    }
+}
@@ -0,0 +1,65 @@
+package com.tobykurien.androidgroovysupport.db;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import asia.sonix.android.orm.CursorList;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the select lists used to read beans from a table
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DbServiceProjectionTest extends DbServiceTestCase {
+    @Test
+    public void readsOnlyTheMappedColumns() {
+        String projection = db.getProjection("users", User.class);
+        assertTrue(projection, projection.contains("\"name\""));
+        assertTrue(projection, projection.contains("\"created\""));
+        assertFalse(projection, projection.contains("notes"));
+    }
+
+    @Test
+    public void looksUpTheColumnsAgainUntilTheTableExists() {
+        assertEquals("*", db.getProjection("later", User.class));
+        db.execute("create table later (id integer primary key, name text, extra text)", null);
+        assertEquals("\"id\", \"name\"", db.getProjection("later", User.class));
+    }
+
+    @Test
+    public void looksUpTheColumnsAgainAfterAnAlter() {
+        db.execute("create table short (id integer primary key)", null);
+        assertEquals("\"id\"", db.getProjection("short", User.class));
+        db.execute("alter table short add column age integer", null);
+        assertEquals("\"id\", \"age\"", db.getProjection("short", User.class));
+    }
+
+    @Test
+    public void findsBeansWithTheProjection() {
+        db.insert("users", row("name", "ann", "age", 30, "notes", "long text"));
+        User user = db.findById("users", 1, User.class);
+        assertEquals("ann", user.getName());
+        assertEquals(30, user.getAge());
+    }
+
+    @Test
+    public void readsAllColumnsIntoCursorLists() {
+        db.insert("users", row("name", "ann", "notes", "long text"));
+        CursorList<User> users = db.cursorFindAll("users", "id", User.class);
+        try {
+            assertEquals("long text", users.row(0).getString("notes"));
+            assertEquals("ann", users.get(0).getName());
+        } finally {
+            users.close();
+        }
+
+        users = db.cursorFindByFields("users", row("name", "ann"), null, User.class);
+        try {
+            assertEquals("long text", users.row(0).getString("notes"));
+        } finally {
+            users.close();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.tobykurien.androidgroovysupport.db;
+
+import groovy.lang.Closure;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import asia.sonix.android.orm.BeanCursor;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class DbServiceStreamingTest extends DbServiceTestCase {
+    @Before
+    public void setUp() {
+        db.insertAll("users", Arrays.asList(new User(1, "ann", 30), new User(2, "bob", 40), new User(3, "cat", 50)));
+    }
+
+    @Test
+    public void callsTheClosureForEachBean() {
+        final List<String> names = new ArrayList<String>();
+        db.eachBean("select * from users where age > #age# order by id", row("age", 35), User.class,
+                new Closure<Object>(this) {
+                    public Object doCall(User user) {
+                        names.add(user.getName());
+                        return null;
+                    }
+                });
+        assertEquals(Arrays.asList("bob", "cat"), names);
+    }
+
+    @Test
+    public void findsLazily() {
+        BeanCursor<User> users = db.lazyFindByFields("users", row("age <", 45), "age desc", User.class);
+        List<String> names = new ArrayList<String>();
+        for (User user : users) {
+            names.add(user.getName());
+        }
+        assertEquals(Arrays.asList("bob", "ann"), names);
+
+        users = db.lazyFindAll("users", "id", User.class);
+        assertEquals("ann", users.next().getName());
+        users.close();
+    }
+}
@@ -0,0 +1,44 @@
+package com.tobykurien.androidgroovysupport.db;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import org.junit.After;
+import org.junit.Before;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import asia.sonix.android.orm.AndroidSqlBackend;
+
+/**
+ * Runs each test with a DbService on a new in-memory database with a users table
+ */
+public abstract class DbServiceTestCase {
+    protected SQLiteDatabase database;
+    protected DbService db;
+
+    @Before
+    public void setUpDatabase() {
+        database = SQLiteDatabase.create(null);
+        db = new DbService(new AndroidSqlBackend(database));
+        db.execute("create table users (id integer primary key, name text not null, age integer, created integer, "
+                + "notes text)", null);
+    }
+
+    @After
+    public void tearDownDatabase() {
+        db.shutdown();
+        database.close();
+    }
+
+    /**
+     * @return a Map of the keys and values, which alternate in the arguments
+     */
+    protected static Map<String, Object> row(Object... keysAndValues) {
+        Map<String, Object> row = new LinkedHashMap<String, Object>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            row.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return row;
+    }
+}
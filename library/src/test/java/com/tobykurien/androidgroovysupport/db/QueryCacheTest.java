@@ -0,0 +1,87 @@
+package com.tobykurien.androidgroovysupport.db;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class QueryCacheTest {
+    private static Set<String> tables(String... names) {
+        return new HashSet<String>(Arrays.asList(names));
+    }
+
+    @Test
+    public void findsTheTablesOfAQuery() {
+        assertEquals(tables("users"), QueryCache.readTables("select * from users where id = ?"));
+        assertEquals(tables("users", "groups"),
+                QueryCache.readTables("select * from main.users u join \"groups\" g on u.groupId = g.id"));
+        assertEquals(tables("a", "b"), QueryCache.readTables("select * from a, b as y where a.x = y.x"));
+        assertEquals(tables("users"), QueryCache.writtenTables("insert or replace into users (id) values (?)"));
+        assertEquals(tables("users"), QueryCache.writtenTables("update or ignore users set age = 1"));
+        assertEquals(tables("users"), QueryCache.writtenTables("delete from users"));
+        assertNull(QueryCache.writtenTables("drop table users"));
+    }
+
+    @Test
+    public void invalidatesTheResultsReadingATable() {
+        QueryCache cache = new QueryCache(100);
+        cache.put("a", "users", 1, tables("users"), cache.getGeneration());
+        cache.put("b", "users and groups", 1, tables("users", "groups"), cache.getGeneration());
+        cache.put("c", "groups", 1, tables("groups"), cache.getGeneration());
+
+        cache.invalidate(Collections.singleton("Users"));
+        assertNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("groups", cache.get("c"));
+
+        cache.invalidate(null);
+        assertNull(cache.get("c"));
+    }
+
+    @Test
+    public void doesNotCacheResultsReadBeforeAWrite() {
+        QueryCache cache = new QueryCache(100);
+        long generation = cache.getGeneration();
+        cache.invalidate(Collections.singleton("users"));
+        cache.put("a", "stale", 1, tables("users"), generation);
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedResults() {
+        QueryCache cache = new QueryCache(10);
+        cache.put("a", "a", 4, tables("t"), cache.getGeneration());
+        cache.put("b", "b", 4, tables("t"), cache.getGeneration());
+        cache.get("a");
+        cache.put("c", "c", 4, tables("t"), cache.getGeneration());
+        assertEquals("a", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals("c", cache.get("c"));
+
+        cache.put("d", "too big", 11, tables("t"), cache.getGeneration());
+        assertNull(cache.get("d"));
+    }
+
+    @Test
+    public void countsEmptyResultsAsOneRow() {
+        QueryCache cache = new QueryCache(10);
+        for (int i = 0; i < 100; i++) {
+            cache.put("empty " + i, Collections.emptyList(), 0, tables("t"), cache.getGeneration());
+        }
+        assertEquals(10L, (long) cache.getStats().get("entries"));
+        assertEquals(10L, (long) cache.getStats().get("rows"));
+        assertNull(cache.get("empty 0"));
+        assertNotNull(cache.get("empty 99"));
+    }
+
+    @Test
+    public void keysIncludeTheParameterTypes() {
+        assertNotEquals(QueryCache.key("Map", "select ?", Collections.<String, Object>singletonMap("a", 1)),
+                QueryCache.key("Map", "select ?", Collections.<String, Object>singletonMap("a", "1")));
+        assertEquals(QueryCache.key("Map", "select  *\n from t", null), QueryCache.key("Map", "select * from t", null));
+    }
+}
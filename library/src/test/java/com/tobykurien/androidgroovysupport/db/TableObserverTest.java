@@ -0,0 +1,162 @@
+package com.tobykurien.androidgroovysupport.db;
+
+import com.tobykurien.androidgroovysupport.utils.Async;
+import com.tobykurien.androidgroovysupport.utils.MainThread;
+
+import groovy.lang.Closure;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class TableObserverTest extends DbServiceTestCase {
+    // long enough that changes are only picked up by refresh(), unless a test sets it
+    private static final long NEVER = 60000;
+
+    private final BlockingQueue<Object> results = new LinkedBlockingQueue<Object>();
+    private TableObserver observer;
+
+    @Before
+    public void setUp() {
+        MainThread.set(new MainThread.Inline());
+        // run queries on the thread that calls refresh()
+        Async.setDefaultExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        });
+        db.insert("users", row("name", "ann", "age", 30));
+    }
+
+    @After
+    public void tearDown() {
+        if (observer != null) observer.cancel();
+        Async.setDefaultExecutor(null);
+        MainThread.set(new MainThread.AndroidMainThread());
+    }
+
+    private TableObserver observe(long debounce, Closure<Object> query) {
+        observer = db.observe("users", debounce, query, new Closure<Object>(this) {
+            public Object doCall(Object result) {
+                results.add(result);
+                return null;
+            }
+        });
+        return observer;
+    }
+
+    private Closure<Object> users() {
+        return new Closure<Object>(this) {
+            public Object doCall() {
+                return db.findAll("users", "id", User.class);
+            }
+        };
+    }
+
+    @Test
+    public void deliversBeansOnlyWhenTheirValuesChange() throws Exception {
+        observe(NEVER, users());
+        assertEquals(1, ((List<?>) results.take()).size());
+
+        // new bean instances with the same values
+        observer.refresh();
+        assertTrue(results.isEmpty());
+
+        db.update("users", row("age", 31), 1);
+        observer.refresh();
+        List<?> users = (List<?>) results.poll();
+        assertEquals(31, ((User) users.get(0)).getAge());
+
+        db.insert("users", row("name", "bob"));
+        observer.refresh();
+        assertEquals(2, ((List<?>) results.poll()).size());
+        assertTrue(results.isEmpty());
+    }
+
+    @Test
+    public void comparesMapsAndValues() throws Exception {
+        observe(NEVER, new Closure<Object>(this) {
+            public Object doCall() {
+                return db.executeForMapList("select name, age from users", null);
+            }
+        });
+        results.take();
+        observer.refresh();
+        assertTrue(results.isEmpty());
+
+        db.update("users", row("name", "anne"), 1);
+        observer.refresh();
+        assertEquals(1, results.size());
+    }
+
+    @Test
+    public void usesTheComparator() throws Exception {
+        observe(NEVER, users());
+        results.take();
+        observer.setComparator(new Comparator<Object>() {
+            @Override
+            public int compare(Object a, Object b) {
+                return ((List<?>) a).size() - ((List<?>) b).size();
+            }
+        });
+
+        db.update("users", row("age", 31), 1);
+        observer.refresh();
+        assertTrue(results.isEmpty());
+
+        db.insert("users", row("name", "bob"));
+        observer.refresh();
+        assertEquals(1, results.size());
+    }
+
+    @Test
+    public void comparesResultsByValue() {
+        observer = db.observe("users", NEVER, users(), new Closure<Object>(this) {
+            public Object doCall(Object result) {
+                return null;
+            }
+        });
+        assertTrue(observer.sameResult(null, null));
+        assertFalse(observer.sameResult(null, Collections.emptyList()));
+        assertTrue(observer.sameResult(Arrays.asList(new User(1, "a", 2)), Arrays.asList(new User(1, "a", 2))));
+        assertFalse(observer.sameResult(Arrays.asList(new User(1, "a", 2)), Arrays.asList(new User(1, "a", 3))));
+        assertFalse(observer.sameResult(Arrays.asList(new User(1, "a", 2)),
+                Arrays.asList(new User(1, "a", 2), new User(1, "a", 2))));
+        assertTrue(observer.sameResult(new Date(5), new Date(5)));
+        assertFalse(observer.sameResult(5, 5L));
+        assertTrue(observer.sameResult(new byte[] { 1, 2 }, new byte[] { 1, 2 }));
+        assertFalse(observer.sameResult(new byte[] { 1, 2 }, new byte[] { 1, 3 }));
+    }
+
+    @Test
+    public void requeriesOnceAfterATransaction() throws Exception {
+        observe(0, users());
+        results.take();
+
+        db.inTransaction(new Closure<Object>(this) {
+            public Object doCall() {
+                db.insert("users", row("name", "bob"));
+                db.insert("users", row("name", "cy"));
+                return null;
+            }
+        });
+        assertEquals(3, ((List<?>) results.poll(5, TimeUnit.SECONDS)).size());
+        assertNull(results.poll(200, TimeUnit.MILLISECONDS));
+    }
+}
@@ -0,0 +1,54 @@
+package com.tobykurien.androidgroovysupport.db;
+
+import java.util.Date;
+
+/**
+ * Bean mapped by reflection in the tests
+ */
+public class User {
+    private long id;
+    private String name;
+    private int age;
+    private Date created;
+
+    public User() {
+    }
+
+    public User(long id, String name, int age) {
+        this.id = id;
+        this.name = name;
+        this.age = age;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public int getAge() {
+        return age;
+    }
+
+    public void setAge(int age) {
+        this.age = age;
+    }
+
+    public Date getCreated() {
+        return created;
+    }
+
+    public void setCreated(Date created) {
+        this.created = created;
+    }
+}
@@ -0,0 +1,142 @@
+package com.tobykurien.androidgroovysupport.db;
+
+import android.database.SQLException;
+
+import com.tobykurien.androidgroovysupport.utils.MainThread;
+
+import groovy.lang.Closure;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(RobolectricTestRunner.class)
+public class WriteQueueTest extends DbServiceTestCase {
+    private final List<Object> results = Collections.synchronizedList(new ArrayList<Object>());
+
+    @Before
+    public void setUp() {
+        MainThread.set(new MainThread.Inline());
+        // batch everything until flush()
+        db.getWriteQueue().setMaxDelay(60000);
+    }
+
+    @After
+    public void tearDown() {
+        MainThread.set(new MainThread.AndroidMainThread());
+    }
+
+    /**
+     * Add the result or error of the write to the results, in the order of the writes
+     */
+    private PendingWrite track(PendingWrite write) {
+        final int index;
+        synchronized (results) {
+            index = results.size();
+            results.add(null);
+        }
+        return write.then(new Closure<Object>(this) {
+            public Object doCall(Object result) {
+                results.set(index, result);
+                return null;
+            }
+        }).onError(new Closure<Object>(this) {
+            public Object doCall(Object error) {
+                results.set(index, error);
+                return null;
+            }
+        });
+    }
+
+    private void awaitDone(PendingWrite write) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!write.isDone() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(write.isDone());
+    }
+
+    @Test
+    public void writesABatch() {
+        track(db.insertAsync("users", row("name", "ann", "age", 30)));
+        track(db.updateAsync("users", row("age", 31), 1));
+        track(db.updateAsync("users", row("name", "anne"), 1));
+        track(db.deleteAsync("users", 2));
+        assertEquals(3, db.getWriteQueue().getSize());
+        db.flush();
+
+        assertEquals(1L, results.get(0));
+        // the merged updates share a result
+        assertEquals(1, results.get(1));
+        assertEquals(1, results.get(2));
+        assertEquals(0, results.get(3));
+        User user = db.findById("users", 1, User.class);
+        assertEquals("anne", user.getName());
+        assertEquals(31, user.getAge());
+    }
+
+    @Test
+    public void onlyFailsTheWriteThatFailed() {
+        track(db.insertAsync("users", row("name", "ann")));
+        track(db.insertAsync("users", row("age", 5)));
+        track(db.insertAsync("users", row("name", "bob")));
+        db.flush();
+
+        assertEquals(1L, results.get(0));
+        assertTrue(results.get(1) instanceof SQLException);
+        assertEquals(2L, results.get(2));
+        assertEquals(2L, db.executeForLong("select count(*) from users", null));
+    }
+
+    @Test
+    public void reportsFailedUpdates() {
+        db.insert("users", row("name", "ann"));
+        track(db.updateAsync("users", row("name", null), 1));
+        track(db.insertAsync("users", row("name", "bob")));
+        db.flush();
+
+        assertTrue(results.get(0) instanceof SQLException);
+        assertEquals(2L, results.get(1));
+        assertEquals("ann", db.findById("users", 1, User.class).getName());
+    }
+
+    @Test
+    public void restartsTheWriterIfItDies() throws Exception {
+        // delivering the first result ends the writer thread with an Error
+        MainThread.set(new MainThread.Inline() {
+            private boolean failed = false;
+
+            @Override
+            public void post(Runnable runnable) {
+                if (!failed) {
+                    failed = true;
+                    throw new AssertionError("writer killed");
+                }
+                super.post(runnable);
+            }
+        });
+        db.getWriteQueue().setMaxDelay(0);
+        awaitDone(track(db.insertAsync("users", row("name", "ann"))));
+
+        awaitDone(track(db.insertAsync("users", row("name", "bob"))));
+        assertEquals(2L, results.get(1));
+        db.flush();
+    }
+
+    @Test
+    public void deliversResultsSetAfterTheWrite() {
+        PendingWrite write = db.insertAsync("users", row("name", "ann"));
+        db.flush();
+        assertTrue(write.isDone());
+        track(write);
+        assertEquals(1L, results.get(0));
+    }
+}
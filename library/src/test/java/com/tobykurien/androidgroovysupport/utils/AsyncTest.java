@@ -0,0 +1,211 @@
+package com.tobykurien.androidgroovysupport.utils;
+
+import android.os.AsyncTask;
+import android.os.Build;
+
+import groovy.lang.Closure;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.util.ReflectionHelpers;
+
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests that Async and BgTask run on their executor and lane, and deliver their
+ * results through MainThread
+ */
+@RunWith(RobolectricTestRunner.class)
+public class AsyncTest {
+    private PriorityExecutor executor;
+    private final AtomicReference<Object> result = new AtomicReference<Object>();
+    private final CountDownLatch delivered = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        MainThread.set(new MainThread.Inline());
+        // tasks only run on their executor from Honeycomb on
+        ReflectionHelpers.setStaticField(Build.VERSION.class, "SDK_INT", Build.VERSION_CODES.LOLLIPOP);
+        executor = new PriorityExecutor("test", 2, 16, PriorityExecutor.Backpressure.REJECT);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+        MainThread.set(new MainThread.AndroidMainThread());
+    }
+
+    private Closure<Object> value(final Object value) {
+        return new Closure<Object>(this) {
+            public Object doCall(Object... params) {
+                return value;
+            }
+        };
+    }
+
+    private <T> Closure<T> failure(final String message) {
+        return new Closure<T>(this) {
+            public T doCall(Object... params) {
+                throw new IllegalStateException(message);
+            }
+        };
+    }
+
+    private Closure<Void> deliver() {
+        return new Closure<Void>(this) {
+            public Void doCall(Object value) {
+                result.set(value);
+                delivered.countDown();
+                return null;
+            }
+        };
+    }
+
+    private Object awaitResult() throws InterruptedException {
+        assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        return result.get();
+    }
+
+    @Test
+    public void deliversTheResultToThen() throws Exception {
+        Async.background(value("done")).on(executor).then(deliver()).execute();
+        assertEquals("done", awaitResult());
+        assertEquals(1L, executor.getStats().get("normal").get("submitted"));
+    }
+
+    @Test
+    public void deliversErrorsToOnError() throws Exception {
+        Async.background(failure("failed")).on(executor).then(new Closure<Void>(this) {
+            public Void doCall(Object value) {
+                fail("then() called");
+                return null;
+            }
+        }).onError(deliver()).execute();
+
+        Object error = awaitResult();
+        assertTrue(error instanceof IllegalStateException);
+        assertEquals("failed", ((Exception) error).getMessage());
+    }
+
+    @Test
+    public void deliversErrorsOfThenToOnError() throws Exception {
+        Async.background(value("done")).on(executor).then(this.<Void>failure("then failed")).onError(deliver()).execute();
+        assertEquals("then failed", ((Exception) awaitResult()).getMessage());
+    }
+
+    @Test
+    public void dropsTheErrorOfACancelledTask() throws Exception {
+        // keep what is posted to the UI thread, to run it on this thread
+        final BlockingQueue<Runnable> posted = new LinkedBlockingQueue<Runnable>();
+        MainThread.set(new MainThread.Inline() {
+            @Override
+            public void post(Runnable runnable) {
+                posted.add(runnable);
+            }
+        });
+
+        // cancelled from its own thread, as Robolectric's AsyncTask can't be cancelled while it runs
+        final AtomicReference<AsyncTask<?, ?, ?>> task = new AtomicReference<AsyncTask<?, ?, ?>>();
+        final CountDownLatch executed = new CountDownLatch(1);
+        task.set(Async.background(new Closure<Object>(this) {
+            public Object doCall(Object... params) throws InterruptedException {
+                executed.await();
+                task.get().cancel(false);
+                throw new IllegalStateException("failed after cancel");
+            }
+        }).on(executor).then(deliver()).execute());
+        executed.countDown();
+
+        Runnable delivery = posted.poll(5, TimeUnit.SECONDS);
+        assertNotNull(delivery);
+        // there is no onError(), but the error must not be thrown on the UI thread
+        delivery.run();
+        assertEquals(1, delivered.getCount());
+    }
+
+    @Test
+    public void chainsBackgroundStages() throws Exception {
+        Async.background(value(2)).thenAsync(new Closure<Object>(this) {
+            public Object doCall(Object value) {
+                return ((Integer) value) * 21;
+            }
+        }).on(executor).then(deliver()).execute();
+        assertEquals(42, awaitResult());
+    }
+
+    @Test
+    public void runsInTheTaskLane() throws Exception {
+        Async.background(value("done")).on(executor).priority(PriorityExecutor.Lane.UI).then(deliver()).execute();
+        awaitResult();
+        assertEquals(1L, executor.getStats().get("ui").get("submitted"));
+        assertEquals(0L, executor.getStats().get("normal").get("submitted"));
+    }
+
+    @Test
+    public void fansOutOnTheTaskExecutor() throws Exception {
+        Async.all(value("a"), value("b")).on(executor).then(deliver()).execute();
+        assertEquals(Arrays.asList("a", "b"), awaitResult());
+    }
+
+    @Test
+    public void deliversFanOutErrorsTogether() throws Exception {
+        Async.all(failure("a"), value("b"), failure("c")).on(executor).onError(deliver()).execute();
+        AggregateException error = (AggregateException) awaitResult();
+        assertEquals(2, error.getCauses().size());
+    }
+
+    @Test
+    public void keyedTasksRememberTheirResult() throws Exception {
+        SingleFlight.forgetAll();
+        Async.background("key", value("first")).memoize(1000).on(executor).then(deliver()).execute();
+        assertEquals("first", awaitResult());
+
+        final CountDownLatch second = new CountDownLatch(1);
+        final AtomicReference<Object> remembered = new AtomicReference<Object>();
+        Async.background("key", value("second")).memoize(1000).on(executor).then(new Closure<Void>(this) {
+            public Void doCall(Object value) {
+                remembered.set(value);
+                second.countDown();
+                return null;
+            }
+        }).execute();
+        assertTrue(second.await(5, TimeUnit.SECONDS));
+        assertEquals("first", remembered.get());
+        Async.forget("key");
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void bgTaskDeliversResultsAndErrors() throws Exception {
+        BgTask<Object> task = new BgTask<Object>();
+        task.setExecutor(executor);
+        task.setLane(PriorityExecutor.Lane.UI);
+        task.runInBg(value("done"), deliver(), null);
+        assertEquals("done", awaitResult());
+        assertEquals(1L, executor.getStats().get("ui").get("submitted"));
+
+        final CountDownLatch failed = new CountDownLatch(1);
+        final AtomicReference<Object> error = new AtomicReference<Object>();
+        BgTask<Object> failing = new BgTask<Object>();
+        failing.setExecutor(executor);
+        failing.runInBg(failure("failed"), null, new Closure<Void>(this) {
+            public Void doCall(Object e) {
+                error.set(e);
+                failed.countDown();
+                return null;
+            }
+        });
+        assertTrue(failed.await(5, TimeUnit.SECONDS));
+        assertEquals("failed", ((Exception) error.get()).getMessage());
+    }
+}
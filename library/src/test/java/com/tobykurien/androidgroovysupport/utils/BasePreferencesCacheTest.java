@@ -0,0 +1,122 @@
+package com.tobykurien.androidgroovysupport.utils;
+
+import android.content.Context;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the shared instance of each preferences class, and preloading
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BasePreferencesCacheTest {
+    public static class Settings extends BasePreferences {
+    }
+
+    public static class OtherSettings extends BasePreferences {
+    }
+
+    private Context context;
+
+    @Before
+    public void setUp() {
+        BasePreferences.clearCache();
+        context = RuntimeEnvironment.application;
+    }
+
+    private static long stat(String name) {
+        return ((Number) BasePreferences.getStats().get(name)).longValue();
+    }
+
+    @Test
+    public void sharesOneInstancePerClass() {
+        long hits = stat("hits");
+        long loads = stat("loads");
+
+        Settings settings = BasePreferences.getPreferences(context, Settings.class);
+        assertSame(settings, BasePreferences.getPreferences(context, Settings.class));
+        assertSame(settings, BasePreferences.getPreferences(context.getApplicationContext(), Settings.class));
+        assertNotSame(settings, BasePreferences.getPreferences(context, OtherSettings.class));
+        assertNotNull(settings.pref);
+
+        assertEquals(2, stat("instances"));
+        assertEquals(hits + 2, stat("hits"));
+        assertEquals(loads + 2, stat("loads"));
+    }
+
+    @Test
+    public void clearCacheCreatesNewInstances() {
+        Settings settings = BasePreferences.getPreferences(context, Settings.class);
+        BasePreferences.clearCache();
+        assertEquals(0, stat("instances"));
+        assertNotSame(settings, BasePreferences.getPreferences(context, Settings.class));
+    }
+
+    @Test
+    public void concurrentCallersGetTheSameInstance() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        final CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<Settings>> results = new ArrayList<Future<Settings>>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(new Callable<Settings>() {
+                    @Override
+                    public Settings call() throws Exception {
+                        start.await();
+                        return BasePreferences.getPreferences(context, Settings.class);
+                    }
+                }));
+            }
+            start.countDown();
+
+            Settings first = results.get(0).get();
+            for (Future<Settings> result : results) {
+                assertSame(first, result.get());
+            }
+            assertEquals(1, stat("instances"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void preloadCreatesTheInstancesInTheBackground() throws Exception {
+        long loads = stat("loads");
+        BasePreferences.preload(context, Settings.class, OtherSettings.class);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (stat("instances") < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, stat("instances"));
+        assertEquals(loads + 2, stat("loads"));
+
+        long hits = stat("hits");
+        BasePreferences.getPreferences(context, Settings.class);
+        assertEquals(hits + 1, stat("hits"));
+    }
+
+    @Test
+    public void reportsLoadTimes() {
+        BasePreferences.getPreferences(context, Settings.class);
+        Map<String, Object> stats = BasePreferences.getStats();
+        double total = ((Number) stats.get("totalLoadMs")).doubleValue();
+        double max = ((Number) stats.get("maxLoadMs")).doubleValue();
+        assertTrue(max > 0);
+        assertTrue(total >= max);
+    }
+}
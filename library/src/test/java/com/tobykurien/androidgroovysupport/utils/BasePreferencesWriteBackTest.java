@@ -0,0 +1,145 @@
+package com.tobykurien.androidgroovysupport.utils;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.tobykurien.androidgroovysupport.GroovyTestClasses;
+
+import groovy.lang.GroovyObject;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests the getters and setters generated by @AndroidPreferences, with and without
+ * write-back
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BasePreferencesWriteBackTest {
+    private static final String SETTINGS = "import com.tobykurien.androidgroovysupport.annotations.AndroidPreferences\n"
+            + "import com.tobykurien.androidgroovysupport.utils.BasePreferences\n"
+            + "@AndroidPreferences(writeBack = %s)\n"
+            + "class %s extends BasePreferences {\n"
+            + "    public String token = 'none'\n"
+            + "    public int launchCount = 0\n"
+            + "    public long lastSync = 0\n"
+            + "    public boolean enabled = true\n"
+            + "}\n";
+
+    private static Class<? extends BasePreferences> writeBackClass;
+    private static Class<? extends BasePreferences> directClass;
+
+    private SharedPreferences shared;
+
+    @Before
+    public void setUp() {
+        if (writeBackClass == null) {
+            writeBackClass = compile("true", "WriteBackSettings");
+            directClass = compile("false", "DirectSettings");
+        }
+        BasePreferences.clearCache();
+        shared = PreferenceManager.getDefaultSharedPreferences(RuntimeEnvironment.application);
+        shared.edit().clear().commit();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Class<? extends BasePreferences> compile(String writeBack, String name) {
+        return (Class<? extends BasePreferences>) GroovyTestClasses.compile(getClass(),
+                String.format(SETTINGS, writeBack, name));
+    }
+
+    private GroovyObject settings(Class<? extends BasePreferences> cls) {
+        return (GroovyObject) BasePreferences.getPreferences(RuntimeEnvironment.application, cls);
+    }
+
+    @Test
+    public void directSettersCommitImmediately() {
+        GroovyObject settings = settings(directClass);
+        assertEquals("none", settings.getProperty("token"));
+
+        settings.setProperty("token", "abc");
+        settings.setProperty("launchCount", 2);
+        assertEquals("abc", shared.getString("token", null));
+        assertEquals(2, shared.getInt("launchCount", 0));
+        assertFalse(((BasePreferences) settings).hasPendingWrites());
+
+        shared.edit().putString("token", "changed").commit();
+        assertEquals("changed", settings.getProperty("token"));
+    }
+
+    @Test
+    public void writeBackKeepsValuesAndBatchesWrites() {
+        shared.edit().putInt("launchCount", 5).commit();
+        GroovyObject settings = settings(writeBackClass);
+        BasePreferences preferences = (BasePreferences) settings;
+        preferences.setWriteDelay(60000);
+
+        assertEquals(5, settings.getProperty("launchCount"));
+        assertEquals(true, settings.getProperty("enabled"));
+
+        settings.setProperty("launchCount", 6);
+        settings.setProperty("token", "abc");
+        settings.setProperty("lastSync", 100L);
+        settings.setProperty("enabled", false);
+
+        // read from memory, not yet on disk
+        assertEquals(6, settings.getProperty("launchCount"));
+        assertEquals("abc", settings.getProperty("token"));
+        assertTrue(preferences.hasPendingWrites());
+        assertEquals(5, shared.getInt("launchCount", 0));
+        assertFalse(shared.contains("token"));
+
+        assertTrue(preferences.flush());
+        assertFalse(preferences.hasPendingWrites());
+        assertEquals(6, shared.getInt("launchCount", 0));
+        assertEquals("abc", shared.getString("token", null));
+        assertEquals(100L, shared.getLong("lastSync", 0));
+        assertFalse(shared.getBoolean("enabled", true));
+    }
+
+    @Test
+    public void writeBackLoadsEachPreferenceOnce() {
+        shared.edit().putString("token", "first").commit();
+        GroovyObject settings = settings(writeBackClass);
+        assertEquals("first", settings.getProperty("token"));
+
+        shared.edit().putString("token", "second").commit();
+        assertEquals("first", settings.getProperty("token"));
+    }
+
+    @Test
+    public void writeBackNullRemovesThePreference() {
+        shared.edit().putString("token", "abc").commit();
+        GroovyObject settings = settings(writeBackClass);
+        settings.setProperty("token", null);
+        assertNull(settings.getProperty("token"));
+
+        ((BasePreferences) settings).flush();
+        assertFalse(shared.contains("token"));
+    }
+
+    @Test
+    public void writesPendingChangesInTheBackground() throws Exception {
+        GroovyObject settings = settings(writeBackClass);
+        BasePreferences preferences = (BasePreferences) settings;
+        preferences.setWriteDelay(10);
+        settings.setProperty("launchCount", 9);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (preferences.hasPendingWrites() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(preferences.hasPendingWrites());
+        assertEquals(9, shared.getInt("launchCount", 0));
+    }
+
+    @Test
+    public void flushWithoutChanges() {
+        assertTrue(((BasePreferences) settings(writeBackClass)).flush());
+    }
+}
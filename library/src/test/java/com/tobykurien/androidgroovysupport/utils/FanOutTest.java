@@ -0,0 +1,171 @@
+package com.tobykurien.androidgroovysupport.utils;
+
+import groovy.lang.Closure;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class FanOutTest {
+    private PriorityExecutor executor;
+
+    @Before
+    public void setUp() {
+        executor = new PriorityExecutor("test", 4, 16, PriorityExecutor.Backpressure.REJECT);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    private Closure value(final Object value, final long delay) {
+        return new Closure<Object>(this) {
+            public Object doCall() throws InterruptedException {
+                Thread.sleep(delay);
+                return value;
+            }
+        };
+    }
+
+    private Closure failure(final String message, final long delay) {
+        return new Closure<Object>(this) {
+            public Object doCall() throws InterruptedException {
+                Thread.sleep(delay);
+                throw new IllegalStateException(message);
+            }
+        };
+    }
+
+    private Object run(FanOut.Mode mode, Closure... closures) throws Throwable {
+        return FanOut.run(executor, Arrays.asList(closures), mode);
+    }
+
+    @Test
+    public void allReturnsTheResultsInOrder() throws Throwable {
+        assertEquals(Arrays.asList("a", "b", "c"),
+                run(FanOut.Mode.ALL, value("a", 50), value("b", 0), value("c", 20)));
+        assertEquals(Collections.emptyList(), run(FanOut.Mode.ALL));
+    }
+
+    @Test
+    public void allCollectsEveryError() throws Throwable {
+        try {
+            run(FanOut.Mode.ALL, failure("first", 0), value("b", 0), failure("second", 20));
+            fail();
+        } catch (AggregateException e) {
+            assertEquals(2, e.getCauses().size());
+            assertEquals(e.getCauses().get(0), e.getCause());
+        }
+    }
+
+    @Test
+    public void anyReturnsTheFirstSuccess() throws Throwable {
+        assertEquals("slow", run(FanOut.Mode.ANY, failure("fast", 0), value("slow", 50)));
+        try {
+            run(FanOut.Mode.ANY, failure("a", 0), failure("b", 10));
+            fail();
+        } catch (AggregateException e) {
+            assertEquals(2, e.getCauses().size());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void anyNeedsClosures() throws Throwable {
+        run(FanOut.Mode.ANY);
+    }
+
+    @Test
+    public void raceReturnsTheFirstToFinishAndCancelsTheRest() throws Throwable {
+        final Thread caller = Thread.currentThread();
+        final AtomicBoolean interrupted = new AtomicBoolean(false);
+        final AtomicBoolean onCaller = new AtomicBoolean(false);
+        final CountDownLatch finished = new CountDownLatch(1);
+        Closure slow = new Closure<Object>(this) {
+            public Object doCall() {
+                onCaller.set(Thread.currentThread() == caller);
+                try {
+                    Thread.sleep(onCaller.get() ? 100 : 5000);
+                } catch (InterruptedException e) {
+                    interrupted.set(true);
+                }
+                finished.countDown();
+                return "slow";
+            }
+        };
+
+        assertEquals("fast", run(FanOut.Mode.RACE, value("fast", 20), slow));
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        // unless the calling thread ran it itself, the slow closure is interrupted
+        assertEquals(!onCaller.get(), interrupted.get());
+
+        try {
+            run(FanOut.Mode.RACE, value("slow", 200), failure("fast", 0));
+            fail();
+        } catch (IllegalStateException e) {
+            assertEquals("fast", e.getMessage());
+        }
+    }
+
+    @Test
+    public void fanOutFromATaskOnTheSameExecutorDoesNotDeadlock() throws Exception {
+        final PriorityExecutor single = new PriorityExecutor("single", 1, 16, PriorityExecutor.Backpressure.REJECT);
+        try {
+            FutureTask<Object> task = new FutureTask<Object>(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return FanOut.run(single, Arrays.<Closure>asList(value(1, 0), value(2, 0), value(3, 0)),
+                            FanOut.Mode.ALL);
+                }
+            });
+            single.execute(task);
+            assertEquals(Arrays.asList(1, 2, 3), task.get(5, TimeUnit.SECONDS));
+        } finally {
+            single.shutdown();
+        }
+    }
+
+    @Test
+    public void runsRejectedClosuresOnTheCallingThread() throws Exception {
+        final Thread caller = Thread.currentThread();
+        Executor rejecting = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        };
+        Closure thread = new Closure<Object>(this) {
+            public Object doCall() {
+                return Thread.currentThread() == caller;
+            }
+        };
+        assertEquals(Arrays.asList(true, true), FanOut.run(rejecting, Arrays.asList(thread, thread), FanOut.Mode.ALL));
+    }
+
+    @Test
+    public void droppedSourcesStillRun() throws Exception {
+        // an executor that drops everything it is given, like a full DROP_OLDEST lane
+        Executor dropping = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                assertFalse(command instanceof Future);
+            }
+        };
+        assertEquals(Arrays.asList("a", "b"),
+                FanOut.run(dropping, Arrays.asList(value("a", 0), value("b", 0)), FanOut.Mode.ALL));
+    }
+}
@@ -0,0 +1,207 @@
+package com.tobykurien.androidgroovysupport.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PriorityExecutorTest {
+    private PriorityExecutor executor;
+
+    @Before
+    public void setUp() {
+        MainThread.set(new MainThread.Inline());
+    }
+
+    @After
+    public void tearDown() {
+        if (executor != null) executor.shutdown();
+    }
+
+    private static Runnable await(final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    latch.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+    }
+
+    private static Runnable record(final List<String> order, final String name, final CountDownLatch done) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                order.add(name);
+                done.countDown();
+            }
+        };
+    }
+
+    private long stat(PriorityExecutor.Lane lane, String name) {
+        Map<String, Number> stats = executor.getStats().get(lane.name().toLowerCase());
+        return stats.get(name).longValue();
+    }
+
+    private void waitForCompleted(PriorityExecutor.Lane lane, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (stat(lane, "completed") < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, stat(lane, "completed"));
+    }
+
+    @Test
+    public void burstsStartWorkersWhenThereAreTooFewIdleOnes() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            executor = new PriorityExecutor("test", 4, 16, PriorityExecutor.Backpressure.REJECT);
+
+            // leave one idle worker, then submit more tasks than that: they all have
+            // to run at the same time to pass the barrier
+            executor.execute(await(new CountDownLatch(0)));
+            waitForCompleted(PriorityExecutor.Lane.NORMAL, 1);
+            Thread.sleep(5);
+
+            final CyclicBarrier barrier = new CyclicBarrier(4);
+            final CountDownLatch passed = new CountDownLatch(4);
+            for (int i = 0; i < 4; i++) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            barrier.await(2, TimeUnit.SECONDS);
+                            passed.countDown();
+                        } catch (Exception e) {
+                            // the tasks did not run in parallel
+                        }
+                    }
+                });
+            }
+            assertTrue("round " + round, passed.await(5, TimeUnit.SECONDS));
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void runsHigherLanesFirst() throws Exception {
+        executor = new PriorityExecutor("test", 1, 16, PriorityExecutor.Backpressure.REJECT);
+        CountDownLatch blocker = new CountDownLatch(1);
+        executor.execute(await(blocker));
+
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        CountDownLatch done = new CountDownLatch(3);
+        executor.execute(PriorityExecutor.Lane.PREFETCH, record(order, "prefetch", done));
+        executor.execute(PriorityExecutor.Lane.NORMAL, record(order, "normal", done));
+        executor.lane(PriorityExecutor.Lane.UI).execute(record(order, "ui", done));
+        blocker.countDown();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("ui", "normal", "prefetch"), order);
+    }
+
+    @Test
+    public void prefetchLeavesAThreadForOtherWork() throws Exception {
+        executor = new PriorityExecutor("test", 2, 16, PriorityExecutor.Backpressure.REJECT);
+        CountDownLatch blocker = new CountDownLatch(1);
+        executor.execute(PriorityExecutor.Lane.PREFETCH, await(blocker));
+        executor.execute(PriorityExecutor.Lane.PREFETCH, await(blocker));
+        // a worker took the first prefetch task, and the second one has to wait
+        waitForDepth(PriorityExecutor.Lane.PREFETCH, 1);
+
+        CountDownLatch done = new CountDownLatch(1);
+        executor.execute(PriorityExecutor.Lane.UI, record(new ArrayList<String>(), "ui", done));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, stat(PriorityExecutor.Lane.PREFETCH, "depth"));
+
+        // the queued prefetch task runs when the first one finishes
+        blocker.countDown();
+        waitForCompleted(PriorityExecutor.Lane.PREFETCH, 2);
+    }
+
+    @Test
+    public void appliesTheBackpressurePolicies() throws Exception {
+        executor = new PriorityExecutor("test", 1, 1, PriorityExecutor.Backpressure.REJECT);
+        CountDownLatch blocker = new CountDownLatch(1);
+        executor.execute(PriorityExecutor.Lane.UI, await(blocker));
+        waitForStarted(PriorityExecutor.Lane.UI);
+
+        executor.execute(PriorityExecutor.Lane.NORMAL, await(blocker));
+        try {
+            executor.execute(PriorityExecutor.Lane.NORMAL, await(blocker));
+            fail();
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        assertEquals(1, stat(PriorityExecutor.Lane.NORMAL, "rejected"));
+
+        executor.setBackpressure(PriorityExecutor.Lane.PREFETCH, PriorityExecutor.Backpressure.DROP_OLDEST);
+        FutureTask<Object> oldest = new FutureTask<Object>(await(blocker), null);
+        executor.execute(PriorityExecutor.Lane.PREFETCH, oldest);
+        executor.execute(PriorityExecutor.Lane.PREFETCH, await(blocker));
+        assertTrue(oldest.isCancelled());
+        assertEquals(1, stat(PriorityExecutor.Lane.PREFETCH, "dropped"));
+
+        executor.setBackpressure(PriorityExecutor.Lane.NORMAL, PriorityExecutor.Backpressure.CALLER_RUNS);
+        final Thread caller = Thread.currentThread();
+        final boolean[] ranHere = new boolean[1];
+        executor.execute(PriorityExecutor.Lane.NORMAL, new Runnable() {
+            @Override
+            public void run() {
+                ranHere[0] = Thread.currentThread() == caller;
+            }
+        });
+        assertTrue(ranHere[0]);
+        assertEquals(1, stat(PriorityExecutor.Lane.NORMAL, "callerRuns"));
+
+        blocker.countDown();
+        executor.shutdown();
+        try {
+            executor.execute(await(blocker));
+            fail();
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+    }
+
+    private void waitForStarted(PriorityExecutor.Lane lane) throws InterruptedException {
+        waitForDepth(lane, 0);
+    }
+
+    private void waitForDepth(PriorityExecutor.Lane lane, long depth) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (stat(lane, "depth") > depth && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(depth, stat(lane, "depth"));
+    }
+
+    @Test
+    public void defaultExecutorDoesNotRejectUiOrNormalWork() throws Exception {
+        executor = null;
+        int tasks = 1000;
+        CountDownLatch done = new CountDownLatch(tasks * 2);
+        List<String> order = Collections.synchronizedList(new ArrayList<String>());
+        for (int i = 0; i < tasks; i++) {
+            PriorityExecutor.getDEFAULT().execute(PriorityExecutor.Lane.UI, record(order, "ui", done));
+            PriorityExecutor.getDEFAULT().execute(record(order, "normal", done));
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(0L, PriorityExecutor.getDEFAULT().getStats().get("ui").get("rejected"));
+        assertEquals(0L, PriorityExecutor.getDEFAULT().getStats().get("normal").get("rejected"));
+    }
+}
@@ -0,0 +1,203 @@
+package com.tobykurien.androidgroovysupport.utils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class SingleFlightTest {
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        SingleFlight.forgetAll();
+    }
+
+    private Callable<Object> counting(final Object result) {
+        return new Callable<Object>() {
+            @Override
+            public Object call() {
+                calls.incrementAndGet();
+                return result;
+            }
+        };
+    }
+
+    private static int remembered() throws Exception {
+        Field flights = SingleFlight.class.getDeclaredField("flights");
+        flights.setAccessible(true);
+        Map<?, ?> map = (Map<?, ?>) flights.get(null);
+        synchronized (map) {
+            return map.size();
+        }
+    }
+
+    @Test
+    public void concurrentCallersShareOneExecution() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicReference<String> thread = new AtomicReference<String>();
+        final Callable<Object> work = new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                calls.incrementAndGet();
+                thread.set(Thread.currentThread().getName());
+                started.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return "shared";
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Object>> results = new ArrayList<Future<Object>>();
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        return SingleFlight.await("key", 0, work);
+                    }
+                }));
+                if (i == 0) assertTrue(started.await(5, TimeUnit.SECONDS));
+            }
+            assertTrue(SingleFlight.isRunning("key"));
+            Thread.sleep(20);
+            release.countDown();
+
+            for (Future<Object> result : results) {
+                assertEquals("shared", result.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, calls.get());
+            // the work ran on the thread of the first caller, not a thread of its own
+            assertTrue(thread.get().startsWith("pool-"));
+            assertFalse(SingleFlight.isRunning("key"));
+            assertEquals(0, remembered());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void remembersResultsForTheirTtl() throws Exception {
+        assertEquals("a", SingleFlight.await("key", 100, counting("a")));
+        assertEquals("a", SingleFlight.await("key", 100, counting("b")));
+        assertEquals(1, calls.get());
+
+        // a shorter maximum age is not satisfied by an older result
+        Thread.sleep(20);
+        assertEquals("c", SingleFlight.await("key", 10, counting("c")));
+        assertEquals(2, calls.get());
+
+        SingleFlight.forget("key");
+        assertEquals("d", SingleFlight.await("key", 100, counting("d")));
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void evictsExpiredResults() throws Exception {
+        SingleFlight.await("a", 20, counting("a"));
+        SingleFlight.await("b", 20, counting("b"));
+        assertEquals(2, remembered());
+
+        Thread.sleep(40);
+        SingleFlight.await("c", 0, counting("c"));
+        assertEquals(0, remembered());
+    }
+
+    @Test
+    public void doesNotRememberErrors() throws Exception {
+        Callable<Object> failing = new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                calls.incrementAndGet();
+                throw new IllegalStateException("failed");
+            }
+        };
+        for (int i = 0; i < 2; i++) {
+            try {
+                SingleFlight.await("key", 1000, failing);
+                fail();
+            } catch (IllegalStateException e) {
+                assertEquals("failed", e.getMessage());
+            }
+        }
+        assertEquals(2, calls.get());
+        assertEquals(0, remembered());
+    }
+
+    @Test
+    public void waitingCallerRunsTheWorkAgainIfTheFirstIsInterrupted() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final Callable<Object> work = new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                if (calls.incrementAndGet() == 1) {
+                    started.countDown();
+                    Thread.sleep(5000);
+                }
+                return "result";
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Callable<Object> caller = new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    return SingleFlight.await("key", 0, work);
+                }
+            };
+            Future<Object> first = executor.submit(caller);
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<Object> second = executor.submit(caller);
+            Thread.sleep(20);
+
+            first.cancel(true);
+            assertEquals("result", second.get(5, TimeUnit.SECONDS));
+            assertEquals(2, calls.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void interruptedStarterGetsTheInterruption() throws Exception {
+        final Callable<Object> work = new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                Thread.sleep(5000);
+                return "result";
+            }
+        };
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SingleFlight.await("key", 0, work);
+                } catch (Throwable t) {
+                    error.set(t);
+                }
+            }
+        });
+        thread.start();
+        Thread.sleep(50);
+        thread.interrupt();
+        thread.join(5000);
+        assertTrue(error.get() instanceof InterruptedException);
+        assertFalse(SingleFlight.isRunning("key"));
+    }
+}
@@ -0,0 +1,125 @@
+package com.tobykurien.androidgroovysupport.sampleapp;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.tobykurien.androidgroovysupport.db.DbService;
+import com.tobykurien.androidgroovysupport.sampleapp.model.Webapp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares reading and writing beans with the code generated by @DbBean (Webapp)
+ * against the reflective mapping (ReflectiveWebapp). Results are logged with the
+ * tag "DbBeanBenchmark".
+ */
+public class DbBeanBenchmark extends AndroidTestCase {
+    private static final String TAG = "DbBeanBenchmark";
+    private static final int ROWS = 2000;
+    private static final int WARMUP = 3;
+    private static final int RUNS = 10;
+
+    private DbService db;
+
+    /**
+     * The same bean as Webapp, without @DbBean
+     */
+    public static class ReflectiveWebapp {
+        private long id;
+        private String name;
+        private String url;
+        private String iconUrl;
+
+        public long getId() { return id; }
+        public void setId(long id) { this.id = id; }
+        public String getName() { return name; }
+        public void setName(String name) { this.name = name; }
+        public String getUrl() { return url; }
+        public void setUrl(String url) { this.url = url; }
+        public String getIconUrl() { return iconUrl; }
+        public void setIconUrl(String iconUrl) { this.iconUrl = iconUrl; }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        getContext().deleteDatabase("benchmark");
+        db = DbService.getInstance(getContext(), "benchmark", 1);
+
+        List<Map<String, Object>> rows = new ArrayList<Map<String, Object>>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            Map<String, Object> row = new HashMap<String, Object>();
+            row.put("name", "App " + i);
+            row.put("url", "https://example.com/" + i);
+            row.put("iconUrl", "https://example.com/" + i + "/favicon.ico");
+            rows.add(row);
+        }
+        db.delete("webapps");
+        db.insertAll("webapps", rows);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        db.shutdown();
+        getContext().deleteDatabase("benchmark");
+        super.tearDown();
+    }
+
+    public void testRead() {
+        for (int i = 0; i < WARMUP; i++) {
+            db.findAll("webapps", "id", Webapp.class);
+            db.findAll("webapps", "id", ReflectiveWebapp.class);
+        }
+
+        long generated = 0;
+        long reflective = 0;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            List<Webapp> webapps = db.findAll("webapps", "id", Webapp.class);
+            generated += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            List<ReflectiveWebapp> reflectiveWebapps = db.findAll("webapps", "id", ReflectiveWebapp.class);
+            reflective += System.nanoTime() - start;
+
+            assertEquals(ROWS, webapps.size());
+            assertEquals(ROWS, reflectiveWebapps.size());
+            assertEquals(reflectiveWebapps.get(ROWS - 1).getName(), webapps.get(ROWS - 1).getName());
+        }
+
+        report("read " + ROWS + " rows", generated, reflective);
+    }
+
+    public void testWrite() {
+        List<Webapp> webapps = db.findAll("webapps", "id", Webapp.class);
+        List<ReflectiveWebapp> reflectiveWebapps = db.findAll("webapps", "id", ReflectiveWebapp.class);
+        for (int i = 0; i < WARMUP; i++) {
+            for (Webapp webapp : webapps) db.getBeanContentValues(webapp);
+            for (ReflectiveWebapp webapp : reflectiveWebapps) db.getBeanContentValues(webapp);
+        }
+
+        long generated = 0;
+        long reflective = 0;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            for (Webapp webapp : webapps) db.getBeanContentValues(webapp);
+            generated += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (ReflectiveWebapp webapp : reflectiveWebapps) db.getBeanContentValues(webapp);
+            reflective += System.nanoTime() - start;
+        }
+
+        assertEquals(db.getBeanContentValues(reflectiveWebapps.get(0)).get("name"),
+                db.getBeanContentValues(webapps.get(0)).get("name"));
+        report("convert " + ROWS + " beans to ContentValues", generated, reflective);
+    }
+
+    private void report(String name, long generated, long reflective) {
+        Log.i(TAG, String.format("%s: @DbBean %.2f ms, reflection %.2f ms (%.1fx)", name,
+                generated / 1e6 / RUNS, reflective / 1e6 / RUNS, (double) reflective / generated));
+    }
+}
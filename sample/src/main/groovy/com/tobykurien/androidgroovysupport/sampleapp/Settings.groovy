@@ -1,25 +1,20 @@
 package com.tobykurien.androidgroovysupport.sampleapp
 
 import android.content.Context
+import com.tobykurien.androidgroovysupport.annotations.AndroidPreferences
 import com.tobykurien.androidgroovysupport.utils.BasePreferences
 import groovy.transform.CompileStatic
 
 /**
- * Class to save and read shared preferences
+ * Class to save and read shared preferences. Values are kept in memory and
+ * written to disk in the background.
  */
 @CompileStatic
+@AndroidPreferences(writeBack = true)
 class Settings extends BasePreferences {
-    private String token = null
+    public String token = null
 
     static Settings getSettings(Context context) {
         getPreferences(context, Settings)
     }
-
-    String getToken() {
-        return pref.getString("token", token)
-    }
-
-    void setToken(String token) {
-        pref.edit().putString("token", token).commit()
-    }
-}
\ No newline at end of file
+}
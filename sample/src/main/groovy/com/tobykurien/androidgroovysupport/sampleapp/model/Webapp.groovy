@@ -1,11 +1,13 @@
 package com.tobykurien.androidgroovysupport.sampleapp.model
 
+import com.tobykurien.androidgroovysupport.annotations.DbBean
 import groovy.transform.Canonical
 
 @Canonical
+@DbBean
 class Webapp {
     long id
     String name
     String url
     String iconUrl
-}
\ No newline at end of file
+}